@@ -1,13 +1,22 @@
 package com.android.calendar;
 
 import android.app.Activity;
+import android.content.ContentProviderResult;
 
 public abstract class AbstractCalendarActivity extends Activity {
     protected AsyncQueryService mService;
 
     public synchronized AsyncQueryService getAsyncQueryService() {
         if (mService == null) {
-            mService = new AsyncQueryService(this);
+            mService = new AsyncQueryService(this) {
+                @Override
+                protected void onBatchComplete(int token, Object cookie,
+                        ContentProviderResult[] results) {
+                    if (cookie instanceof CalendarController.LocalChange) {
+                        ((CalendarController.LocalChange) cookie).finished(results);
+                    }
+                }
+            };
         }
         return mService;
     }
@@ -275,7 +275,20 @@ public class AllInOneActivity extends Activity implements EventHandler,
 
         @Override
         public void onChange(boolean selfChange) {
-            eventsChanged();
+            // The views are told which event changed once the app's own
+            // writes complete, any other change reloads them
+            if (!CalendarController.absorbLocalChangeNotification()) {
+                eventsChanged();
+            }
+        }
+    };
+
+    private final CalendarController.LocalChangeListener mLocalChangeListener =
+            new CalendarController.LocalChangeListener() {
+        @Override
+        public void onLocalChangeFinished(long eventId) {
+            mController.sendEvent(AllInOneActivity.this, EventType.EVENTS_CHANGED, null, null,
+                    eventId, ViewType.CURRENT);
         }
     };
 
@@ -542,6 +555,7 @@ public class AllInOneActivity extends Activity implements EventHandler,
         mOnSaveInstanceStateCalled = false;
         mContentResolver.registerContentObserver(CalendarContract.Events.CONTENT_URI,
                 true, mObserver);
+        CalendarController.registerLocalChangeListener(mLocalChangeListener);
         if (mUpdateOnResume) {
             initFragments(mController.getTime(), mController.getViewType(), null);
             mUpdateOnResume = false;
@@ -593,6 +607,7 @@ public class AllInOneActivity extends Activity implements EventHandler,
             mActionBarMenuSpinnerAdapter.onPause();
         }
         mContentResolver.unregisterContentObserver(mObserver);
+        CalendarController.unregisterLocalChangeListener(mLocalChangeListener);
         if (isFinishing()) {
             // Stop listening for changes that would require this to be refreshed
             SharedPreferences prefs = GeneralPreferences.getSharedPreferences(this);
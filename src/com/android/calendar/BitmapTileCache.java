@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Caches a tall, static drawing as a column of fixed height bitmap tiles.
+ * Only the tiles that intersect the visible area are rendered, and each
+ * tile is rendered once until the configuration of the drawing changes.
+ * The least recently drawn tiles are reused once the tiles would take more
+ * than the given number of bytes.
+ *
+ * This class is not thread safe and must only be used from the UI thread.
+ */
+public class BitmapTileCache {
+    private static final String TAG = "BitmapTileCache";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Renders the part of the drawing between top and bottom. The canvas is
+     * already translated so that the renderer can draw in the coordinates
+     * of the whole drawing.
+     */
+    public interface TileRenderer {
+        void renderTile(Canvas canvas, int top, int bottom);
+    }
+
+    private final int mTileHeight;
+    private final long mMaxBytes;
+    // The number of tiles of the current width that fit in mMaxBytes
+    private int mMaxTiles;
+
+    private final SparseArray<Bitmap> mTiles = new SparseArray<Bitmap>();
+    // The value of mDrawCounter when each tile was last drawn
+    private int mDrawCounter;
+    private int[] mLastDrawn;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mConfig;
+
+    /**
+     * @param tileHeight the height of each tile in pixels
+     * @param maxBytes the most memory the tiles may take
+     */
+    public BitmapTileCache(int tileHeight, long maxBytes) {
+        mTileHeight = tileHeight;
+        mMaxBytes = maxBytes;
+        mLastDrawn = new int[0];
+    }
+
+    /**
+     * Sets the size of the drawing and the values that it depends on. The
+     * tiles are dropped if any of them changed since the last call.
+     *
+     * @param width the width of the drawing
+     * @param height the height of the drawing
+     * @param config the values, other than the size, that the drawing
+     *            depends on
+     */
+    public void setConfiguration(int width, int height, int[] config) {
+        if (width == mWidth && height == mHeight && Arrays.equals(config, mConfig)) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Configuration changed, dropping " + mTiles.size() + " tiles");
+        }
+        clear();
+        mWidth = width;
+        mHeight = height;
+        mConfig = config.clone();
+        mMaxTiles = width > 0 ? (int) (mMaxBytes / ((long) width * mTileHeight * 4)) : 0;
+        mLastDrawn = new int[(height + mTileHeight - 1) / mTileHeight];
+    }
+
+    /**
+     * Draws the part of the drawing between top and bottom, rendering the
+     * tiles that are not cached yet.
+     *
+     * @return false if nothing was drawn because the cache has no
+     *         configuration or the visible area needs more tiles than the
+     *         cache can hold
+     */
+    public boolean draw(Canvas canvas, int top, int bottom, TileRenderer renderer) {
+        if (mWidth <= 0 || mHeight <= 0) {
+            return false;
+        }
+        top = Math.max(top, 0);
+        bottom = Math.min(bottom, mHeight);
+        if (top >= bottom) {
+            return true;
+        }
+        final int first = top / mTileHeight;
+        final int last = (bottom - 1) / mTileHeight;
+        if (last - first + 1 > mMaxTiles) {
+            return false;
+        }
+        for (int i = first; i <= last; i++) {
+            Bitmap tile = mTiles.get(i);
+            if (tile == null) {
+                tile = renderTile(i, renderer);
+                if (tile == null) {
+                    return false;
+                }
+            }
+            mLastDrawn[i] = ++mDrawCounter;
+            canvas.drawBitmap(tile, 0, i * mTileHeight, null);
+        }
+        return true;
+    }
+
+    private Bitmap renderTile(int index, TileRenderer renderer) {
+        Bitmap tile = null;
+        if (mTiles.size() >= mMaxTiles) {
+            tile = evictOldestTile();
+        }
+        if (tile == null) {
+            try {
+                tile = Bitmap.createBitmap(mWidth, mTileHeight, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                Log.w(TAG, "Unable to allocate a tile", e);
+                clear();
+                return null;
+            }
+        } else {
+            tile.eraseColor(0);
+        }
+        final int tileTop = index * mTileHeight;
+        Canvas canvas = new Canvas(tile);
+        canvas.translate(0, -tileTop);
+        renderer.renderTile(canvas, tileTop, tileTop + mTileHeight);
+        mTiles.put(index, tile);
+        return tile;
+    }
+
+    private Bitmap evictOldestTile() {
+        int oldestKey = -1;
+        int oldest = Integer.MAX_VALUE;
+        for (int i = 0; i < mTiles.size(); i++) {
+            int key = mTiles.keyAt(i);
+            if (mLastDrawn[key] < oldest) {
+                oldest = mLastDrawn[key];
+                oldestKey = key;
+            }
+        }
+        if (oldestKey == -1) {
+            return null;
+        }
+        Bitmap tile = mTiles.get(oldestKey);
+        mTiles.remove(oldestKey);
+        return tile;
+    }
+
+    /**
+     * Recycles all the tiles and forgets the configuration. The views that
+     * drew from the cache must be invalidated, or no longer be shown, so
+     * that no frame draws the recycled bitmaps.
+     */
+    public void release() {
+        for (int i = 0; i < mTiles.size(); i++) {
+            mTiles.valueAt(i).recycle();
+        }
+        clear();
+    }
+
+    /**
+     * Drops all the tiles and forgets the configuration. The bitmaps are not
+     * recycled since they may still be referenced by a pending frame.
+     */
+    public void clear() {
+        mTiles.clear();
+        mWidth = 0;
+        mHeight = 0;
+        mConfig = null;
+        mDrawCounter = 0;
+    }
+}
@@ -30,6 +30,7 @@ import android.app.Activity;
 import android.app.SearchManager;
 import android.app.SearchableInfo;
 import android.content.ComponentName;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
@@ -38,6 +39,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
@@ -46,6 +48,7 @@ import android.text.format.Time;
 import android.util.Log;
 import android.util.Pair;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -86,6 +89,22 @@ public class CalendarController {
 
     private final WeakHashMap<Object, Long> filters = new WeakHashMap<Object, Long>(1);
 
+    // How long a write of events started from within the app may take before
+    // the change notifications are no longer taken to be caused by it, and how
+    // long after it completes its notifications may still arrive
+    private static final long LOCAL_CHANGE_TIMEOUT_MS = 10000;
+    private static final long LOCAL_CHANGE_SETTLE_MS = 1000;
+
+    // The writes of events started from within the app that haven't
+    // completed yet, and the change notifications they are expected to cause
+    // that didn't arrive yet, one per write. Only used on the UI thread.
+    private static int sLocalChangesInProgress;
+    private static int sLocalChangeNotificationsExpected;
+    private static long sLocalChangeTimeout;
+    private static long sLocalChangeSettleTime;
+    private static final ArrayList<LocalChangeListener> sLocalChangeListeners =
+            new ArrayList<LocalChangeListener>();
+
     private int mViewType = -1;
     private int mDetailViewType = -1;
     private int mPreviousViewType = -1;
@@ -272,6 +291,125 @@ public class CalendarController {
         void eventsChanged();
     }
 
+    /**
+     * Told when a write of events started from within the app completes.
+     */
+    public interface LocalChangeListener {
+        /**
+         * @param eventId the event whose instances the write changed, or -1
+         *            if the write changed other events too or failed
+         */
+        void onLocalChangeFinished(long eventId);
+    }
+
+    /**
+     * The cookie of a batch write of events started from within the app. The
+     * {@link AsyncQueryService} of {@link AbstractCalendarActivity} reports
+     * its completion with {@link #localChangeFinished}.
+     */
+    public static class LocalChange {
+        private final long mEventId;
+        private final int mInsertIndex;
+
+        /**
+         * @param eventId the event whose instances the write changes, or -1
+         * @param insertIndex the index of the operation that inserts the
+         *            event whose instances the write changes, or -1
+         */
+        public LocalChange(long eventId, int insertIndex) {
+            mEventId = eventId;
+            mInsertIndex = insertIndex;
+        }
+
+        /**
+         * Called with the results of the batch, null if it failed.
+         */
+        public void finished(ContentProviderResult[] results) {
+            long eventId = mEventId;
+            if (results == null) {
+                eventId = -1;
+            } else if (mInsertIndex >= 0 && mInsertIndex < results.length
+                    && results[mInsertIndex].uri != null) {
+                eventId = ContentUris.parseId(results[mInsertIndex].uri);
+            }
+            localChangeFinished(eventId);
+        }
+    }
+
+    /**
+     * Called before the app starts writing events to the provider. The change
+     * notification caused by the write should not reload the views, see
+     * {@link #absorbLocalChangeNotification()}, since the listeners are told
+     * which event changed once it completes.
+     */
+    public static void localChangeStarted() {
+        if (!isLocalChangePending()) {
+            sLocalChangeNotificationsExpected = 0;
+        }
+        sLocalChangesInProgress++;
+        sLocalChangeNotificationsExpected++;
+        sLocalChangeTimeout = SystemClock.uptimeMillis() + LOCAL_CHANGE_TIMEOUT_MS;
+    }
+
+    /**
+     * Called once a write started after {@link #localChangeStarted()}
+     * completed or failed.
+     *
+     * @param eventId the event whose instances the write changed, or -1 if the
+     *            write changed other events too, e.g. by creating an exception
+     *            or splitting a recurrence, or failed
+     */
+    public static void localChangeFinished(long eventId) {
+        if (sLocalChangesInProgress > 0) {
+            sLocalChangesInProgress--;
+        }
+        sLocalChangeSettleTime = SystemClock.uptimeMillis() + LOCAL_CHANGE_SETTLE_MS;
+        for (LocalChangeListener listener : new ArrayList<LocalChangeListener>(
+                sLocalChangeListeners)) {
+            listener.onLocalChangeFinished(eventId);
+        }
+    }
+
+    /**
+     * Called when the provider notifies that the events changed. Returns true
+     * if the notification is taken to be the one caused by a write started
+     * from within the app, which the listeners are told about, so the views
+     * don't need to be reloaded. Any other notification that arrives while a
+     * write is pending, e.g. from a sync, returns false.
+     */
+    public static boolean absorbLocalChangeNotification() {
+        if (!isLocalChangePending()) {
+            sLocalChangeNotificationsExpected = 0;
+            return false;
+        }
+        if (sLocalChangeNotificationsExpected == 0) {
+            return false;
+        }
+        sLocalChangeNotificationsExpected--;
+        return true;
+    }
+
+    /**
+     * Returns true while a write started from within the app is in progress,
+     * or completed a moment ago.
+     */
+    private static boolean isLocalChangePending() {
+        long now = SystemClock.uptimeMillis();
+        if (sLocalChangesInProgress > 0 && now >= sLocalChangeTimeout) {
+            // The write never reported back
+            sLocalChangesInProgress = 0;
+        }
+        return sLocalChangesInProgress > 0 || now < sLocalChangeSettleTime;
+    }
+
+    public static void registerLocalChangeListener(LocalChangeListener listener) {
+        sLocalChangeListeners.add(listener);
+    }
+
+    public static void unregisterLocalChangeListener(LocalChangeListener listener) {
+        sLocalChangeListeners.remove(listener);
+    }
+
     /**
      * Creates and/or returns an instance of CalendarController associated with
      * the supplied context. It is best to pass in the current Activity.
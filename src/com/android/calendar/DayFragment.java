@@ -239,6 +239,22 @@ public class DayFragment extends Fragment implements CalendarController.EventHan
         view.clearCachedEvents();
     }
 
+    /**
+     * Refreshes a single event that was changed from within the app without
+     * reloading the other events in the current view.
+     */
+    public void eventChanged(long eventId) {
+        if (mViewSwitcher == null || !isResumed()) {
+            // All the events are reloaded on resume
+            return;
+        }
+        DayView view = (DayView) mViewSwitcher.getCurrentView();
+        view.updateEvent(eventId);
+
+        view = (DayView) mViewSwitcher.getNextView();
+        view.clearCachedEvents();
+    }
+
     Event getSelectedEvent() {
         DayView view = (DayView) mViewSwitcher.getCurrentView();
         return view.getSelectedEvent();
@@ -270,7 +286,11 @@ public class DayFragment extends Fragment implements CalendarController.EventHan
             goTo(msg.selectedTime, (msg.extraLong & CalendarController.EXTRA_GOTO_DATE) != 0,
                     (msg.extraLong & CalendarController.EXTRA_GOTO_TODAY) != 0);
         } else if (msg.eventType == EventType.EVENTS_CHANGED) {
-            eventsChanged();
+            if (msg.id > 0) {
+                eventChanged(msg.id);
+            } else {
+                eventsChanged();
+            }
         }
     }
 }
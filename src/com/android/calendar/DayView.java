@@ -20,12 +20,15 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.app.Service;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.database.Cursor;
@@ -83,10 +86,9 @@ import com.android.calendar.CalendarController.ViewType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * View for multi-day view. So far only 1 and 7 day have been tested.
@@ -308,6 +310,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private long mLastReloadMillis;
 
     private ArrayList<Event> mEvents = new ArrayList<Event>();
+    // Columnar copy of mEvents used by the layout and draw loops
+    private EventBlock mEventBlock = EventBlock.fromEvents(mEvents);
     private ArrayList<Event> mAllDayEvents = new ArrayList<Event>();
     private StaticLayout[] mLayouts = null;
     private StaticLayout[] mAllDayLayouts = null;
@@ -416,7 +420,48 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     private static float AMPM_TEXT_SIZE = 9;
     private static int MIN_HOURS_WIDTH = 96;
     private static int MIN_CELL_WIDTH_FOR_TEXT = 20;
-    private static final int MAX_EVENT_TEXT_LEN = 500;
+    private static final int MAX_EVENT_TEXT_LEN = Event.MAX_DISPLAY_TEXT_LEN;
+
+    // Text layouts of events, shared by the day views so that they survive
+    // reloads and zooming
+    private static final int MAX_CACHED_LAYOUTS = 512;
+    private static final EventLayoutCache sLayoutCache =
+            new EventLayoutCache(MAX_CACHED_LAYOUTS);
+
+    // Bitmap tiles of the hour grid and the hour labels, shared by the day
+    // views since they are identical for views of the same size. The tiles
+    // may take this fraction of the memory class of the app, and are
+    // recycled when memory runs low or no day view is attached.
+    private static final int GRID_TILE_HEIGHT = 256;
+    private static final int GRID_TILE_MEMORY_FRACTION = 12;
+    private static BitmapTileCache sGridTileCache;
+    private static int sAttachedViews;
+    private final ComponentCallbacks2 mTrimCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                releaseGridTiles();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            releaseGridTiles();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+    private final int[] mGridConfig = new int[4];
+    private final BitmapTileCache.TileRenderer mGridTileRenderer =
+            new BitmapTileCache.TileRenderer() {
+        @Override
+        public void renderTile(Canvas canvas, int top, int bottom) {
+            drawGridBackground(mRect, canvas, mPaint);
+            drawHours(mRect, canvas, mPaint);
+        }
+    };
     // smallest height to draw an event with
     private static float MIN_EVENT_HEIGHT = 24.0F; // in pixels
     private static int CALENDAR_COLOR_SQUARE_SIZE = 10;
@@ -778,6 +823,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
 
     @Override
     protected void onAttachedToWindow() {
+        sAttachedViews++;
+        mContext.registerComponentCallbacks(mTrimCallbacks);
         if (mHandler == null) {
             mHandler = getHandler();
             mHandler.post(mUpdateCurrentTime);
@@ -785,6 +832,13 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     }
 
     private void init(Context context) {
+        if (sGridTileCache == null) {
+            ActivityManager am = (ActivityManager) context.getSystemService(
+                    Context.ACTIVITY_SERVICE);
+            sGridTileCache = new BitmapTileCache(GRID_TILE_HEIGHT,
+                    am.getMemoryClass() * 1024L * 1024L / GRID_TILE_MEMORY_FRACTION);
+        }
+
         setFocusable(true);
 
         // Allow focus in touch mode so that we can do keyboard shortcuts
@@ -1234,6 +1288,11 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         remeasure(width, height);
     }
 
+    // The shortest duration that is drawn at the minimum event height
+    private long getMinimumDurationMillis() {
+        return (long) (MIN_EVENT_HEIGHT * DateUtils.MINUTE_IN_MILLIS / (mCellHeight / 60.0f));
+    }
+
     /**
      * Measures the space needed for various parts of the view after
      * loading new events.  This can change if there are all-day events.
@@ -1319,9 +1378,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         mNumHours = mGridAreaHeight / (mCellHeight + HOUR_GAP);
         mEventGeometry.setHourHeight(mCellHeight);
 
-        final long minimumDurationMillis = (long)
-                (MIN_EVENT_HEIGHT * DateUtils.MINUTE_IN_MILLIS / (mCellHeight / 60.0f));
-        Event.computePositions(mEvents, minimumDurationMillis);
+        Event.computePositions(mEventBlock, getMinimumDurationMillis());
+        mEventBlock.copyColumnsTo(mEvents);
 
         // Compute the top of our reachable view
         mMaxViewStartY = HOUR_GAP + 24 * (mCellHeight + HOUR_GAP) - mGridAreaHeight;
@@ -2027,56 +2085,203 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         // load events in the background
 //        mContext.startProgressSpinner();
         final ArrayList<Event> events = new ArrayList<Event>();
+        // Adjacent windows are usually prefetched, so the events of a view
+        // that was just swiped to can be shown in its first frame
+        if (mEventLoader.loadCachedEvents(mNumDays, events, mFirstJulianDay)) {
+            setEvents(events, false);
+            return;
+        }
         mEventLoader.loadEventsInBackground(mNumDays, events, mFirstJulianDay, new Runnable() {
             public void run() {
-                boolean fadeinEvents = mFirstJulianDay != mLoadedFirstJulianDay;
-                mEvents = events;
-                mLoadedFirstJulianDay = mFirstJulianDay;
-                if (mAllDayEvents == null) {
-                    mAllDayEvents = new ArrayList<Event>();
-                } else {
-                    mAllDayEvents.clear();
-                }
+                setEvents(events, mFirstJulianDay != mLoadedFirstJulianDay);
+            }
+        }, mCancelCallback);
+    }
 
-                // Create a shorter array for all day events
-                for (Event e : events) {
-                    if (e.drawAsAllday()) {
-                        mAllDayEvents.add(e);
-                    }
-                }
+    private void setEvents(ArrayList<Event> events, boolean fadeinEvents) {
+        mEvents = events;
+        mEventBlock = EventBlock.fromEvents(events);
+        mLoadedFirstJulianDay = mFirstJulianDay;
+        if (mAllDayEvents == null) {
+            mAllDayEvents = new ArrayList<Event>();
+        } else {
+            mAllDayEvents.clear();
+        }
 
-                // New events, new layouts
-                if (mLayouts == null || mLayouts.length < events.size()) {
-                    mLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mLayouts, null);
-                }
+        // Create a shorter array for all day events
+        for (Event e : events) {
+            if (e.drawAsAllday()) {
+                mAllDayEvents.add(e);
+            }
+        }
 
-                if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
-                    mAllDayLayouts = new StaticLayout[events.size()];
-                } else {
-                    Arrays.fill(mAllDayLayouts, null);
-                }
+        // New events, new layouts
+        if (mLayouts == null || mLayouts.length < events.size()) {
+            mLayouts = new StaticLayout[events.size()];
+        } else {
+            Arrays.fill(mLayouts, null);
+        }
 
-                computeEventRelations();
+        if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
+            mAllDayLayouts = new StaticLayout[events.size()];
+        } else {
+            Arrays.fill(mAllDayLayouts, null);
+        }
 
-                mRemeasure = true;
-                mComputeSelectedEvents = true;
-                recalc();
-
-                // Start animation to cross fade the events
-                if (fadeinEvents) {
-                    if (mEventsCrossFadeAnimation == null) {
-                        mEventsCrossFadeAnimation =
-                                ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
-                        mEventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
-                    }
-                    mEventsCrossFadeAnimation.start();
-                } else{
-                    invalidate();
+        computeEventRelations();
+
+        mRemeasure = true;
+        mComputeSelectedEvents = true;
+        recalc();
+
+        // Start animation to cross fade the events
+        if (fadeinEvents) {
+            if (mEventsCrossFadeAnimation == null) {
+                mEventsCrossFadeAnimation =
+                        ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
+                mEventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
+            }
+            mEventsCrossFadeAnimation.start();
+        } else{
+            invalidate();
+        }
+    }
+
+    /**
+     * Reloads only the instances of the given event and splices them into
+     * the loaded events, instead of reloading every event in the view.
+     * Falls back to a full reload if this view's events are not loaded yet.
+     */
+    /* package */ void updateEvent(final long eventId) {
+        final int firstJulianDay = mFirstJulianDay;
+        if (firstJulianDay != mLoadedFirstJulianDay) {
+            clearCachedEvents();
+            reloadEvents();
+            return;
+        }
+
+        final ArrayList<Event> instances = new ArrayList<Event>();
+        mEventLoader.loadEventInstancesInBackground(eventId, mNumDays, instances, firstJulianDay,
+                new Runnable() {
+            public void run() {
+                if (firstJulianDay != mFirstJulianDay
+                        || firstJulianDay != mLoadedFirstJulianDay) {
+                    // The view moved while the instances were loading
+                    clearCachedEvents();
+                    reloadEvents();
+                    return;
                 }
+                spliceEvent(eventId, instances);
             }
-        }, mCancelCallback);
+        }, new Runnable() {
+            public void run() {
+                clearCachedEvents();
+                reloadEvents();
+            }
+        });
+    }
+
+    /**
+     * Replaces the instances of an event with a freshly loaded set, keeping
+     * the layouts of the other events, and recomputes the columns only for
+     * the overlap groups that the old and new instances touch.
+     */
+    private void spliceEvent(long eventId, ArrayList<Event> instances) {
+        final ArrayList<Event> oldEvents = mEvents;
+        final int oldSize = oldEvents.size();
+        final ArrayList<Event> events = new ArrayList<Event>(oldSize + instances.size());
+        final ArrayList<StaticLayout> layouts = new ArrayList<StaticLayout>(
+                oldSize + instances.size());
+        final ArrayList<Event> changed = new ArrayList<Event>();
+
+        for (int i = 0; i < oldSize; i++) {
+            Event e = oldEvents.get(i);
+            if (e.id == eventId) {
+                changed.add(e);
+            } else {
+                events.add(e);
+                layouts.add(mLayouts != null && i < mLayouts.length ? mLayouts[i] : null);
+            }
+        }
+        for (Event e : instances) {
+            int pos = Collections.binarySearch(events, e, EventCache.DAY_VIEW_ORDER);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            events.add(pos, e);
+            layouts.add(pos, null);
+            changed.add(e);
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        if (mSelectedEvent != null && mSelectedEvent.id == eventId) {
+            setSelectedEvent(null);
+        }
+        if (mPrevSelectedEvent != null && mPrevSelectedEvent.id == eventId) {
+            mPrevSelectedEvent = null;
+        }
+        mSelectedEvents.clear();
+
+        mEvents = events;
+        mEventBlock = EventBlock.fromEvents(events);
+        mLayouts = layouts.toArray(new StaticLayout[Math.max(layouts.size(), 1)]);
+        mAllDayEvents.clear();
+        for (Event e : events) {
+            if (e.drawAsAllday()) {
+                mAllDayEvents.add(e);
+            }
+        }
+        // The all-day area is small, so just redo its text layouts
+        if (mAllDayLayouts == null || mAllDayLayouts.length < mAllDayEvents.size()) {
+            mAllDayLayouts = new StaticLayout[events.size()];
+        } else {
+            Arrays.fill(mAllDayLayouts, null);
+        }
+
+        boolean alldayChanged = false;
+        for (Event c : changed) {
+            alldayChanged |= c.drawAsAllday();
+        }
+        computeEventRelations();
+        if (alldayChanged) {
+            // The all-day area may change size, so measure everything again
+            mRemeasure = true;
+        } else {
+            long minimumDurationMillis = getMinimumDurationMillis();
+            boolean[] dirty = new boolean[events.size()];
+            for (Event c : changed) {
+                markOverlappingEvents(events, c, minimumDurationMillis, dirty);
+            }
+            Event.computePositions(mEventBlock, minimumDurationMillis, dirty);
+            mEventBlock.copyColumnsTo(events);
+        }
+        mComputeSelectedEvents = true;
+        invalidate();
+    }
+
+    // Marks the events that are displayed in the same area as the given
+    // event and overlap it.
+    private static void markOverlappingEvents(ArrayList<Event> events, Event changed,
+            long minimumDurationMillis, boolean[] dirty) {
+        final boolean allday = changed.drawAsAllday();
+        final long changedEnd = changed.startMillis
+                + Math.max(changed.endMillis - changed.startMillis, minimumDurationMillis);
+        final int len = events.size();
+        for (int i = 0; i < len; i++) {
+            Event e = events.get(i);
+            if (e.drawAsAllday() != allday) {
+                continue;
+            }
+            if (allday) {
+                dirty[i] |= e.startDay <= changed.endDay && e.endDay >= changed.startDay;
+            } else {
+                long end = e.startMillis
+                        + Math.max(e.endMillis - e.startMillis, minimumDurationMillis);
+                dirty[i] |= e.startMillis < changedEnd && changed.startMillis < end;
+            }
+        }
     }
 
     public void setEventsAlpha(int alpha) {
@@ -2452,8 +2657,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         if (mFutureBgColor != 0) {
             drawBgColors(r, canvas, p);
         }
-        drawGridBackground(r, canvas, p);
-        drawHours(r, canvas, p);
+        drawGridAndHours(r, canvas, p);
 
         // Draw each day
         int cell = mFirstJulianDay;
@@ -2481,6 +2685,28 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         drawSelectedRect(r, canvas, p);
     }
 
+    private void drawGridAndHours(Rect r, Canvas canvas, Paint p) {
+        // The grid and the hour labels only change with the cell height and
+        // the size of the view, so they are drawn from cached tiles. While
+        // zooming the cell height changes every frame and the tiles would
+        // never be reused.
+        if (!mScaleGestureDetector.isInProgress()) {
+            final int[] config = mGridConfig;
+            config[0] = mCellHeight;
+            config[1] = mNumDays;
+            config[2] = mHoursWidth;
+            config[3] = mIs24HourFormat ? 1 : 0;
+            final int height = 2 * HOUR_GAP + 24 * (mCellHeight + HOUR_GAP);
+            sGridTileCache.setConfiguration(mViewWidth, height, config);
+            if (sGridTileCache.draw(canvas, mDestRect.top, mDestRect.bottom,
+                    mGridTileRenderer)) {
+                return;
+            }
+        }
+        drawGridBackground(r, canvas, p);
+        drawHours(r, canvas, p);
+    }
+
     private void drawSelectedRect(Rect r, Canvas canvas, Paint p) {
         // Draw a highlight on the selected hour (if needed)
         if (mSelectionMode != SELECTION_HIDDEN && !mSelectionAllday) {
@@ -2807,42 +3033,59 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
             return null;
         }
 
+        final int width = EventLayoutCache.bucketWidth(r.width());
         StaticLayout layout = layouts[i];
         // Check if we have already initialized the StaticLayout and that
         // the width hasn't changed (due to vertical resizing which causes
         // re-layout of events at min height)
-        if (layout == null || r.width() != layout.getWidth()) {
-            SpannableStringBuilder bob = new SpannableStringBuilder();
-            if (event.title != null) {
-                // MAX - 1 since we add a space
-                bob.append(drawTextSanitizer(event.title.toString(), MAX_EVENT_TEXT_LEN - 1));
-                bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, bob.length(), 0);
-                bob.append(' ');
-            }
-            if (event.location != null) {
-                bob.append(drawTextSanitizer(event.location.toString(),
-                        MAX_EVENT_TEXT_LEN - bob.length()));
-            }
-
+        if (layout == null || width != layout.getWidth()) {
+            int textColor;
             switch (event.selfAttendeeStatus) {
                 case Attendees.ATTENDEE_STATUS_INVITED:
-                    paint.setColor(event.color);
+                    textColor = event.color;
                     break;
                 case Attendees.ATTENDEE_STATUS_DECLINED:
-                    paint.setColor(mEventTextColor);
-                    paint.setAlpha(Utils.DECLINED_EVENT_TEXT_ALPHA);
+                    textColor = (mEventTextColor & 0x00ffffff)
+                            | (Utils.DECLINED_EVENT_TEXT_ALPHA << 24);
                     break;
                 case Attendees.ATTENDEE_STATUS_NONE: // Your own events
                 case Attendees.ATTENDEE_STATUS_ACCEPTED:
                 case Attendees.ATTENDEE_STATUS_TENTATIVE:
                 default:
-                    paint.setColor(mEventTextColor);
+                    textColor = mEventTextColor;
                     break;
             }
 
-            // Leave a one pixel boundary on the left and right of the rectangle for the event
-            layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(),
-                    Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
+            final float textSize = paint.getTextSize();
+            layout = sLayoutCache.get(event, width, textSize, textColor);
+            if (layout == null) {
+                SpannableStringBuilder bob = new SpannableStringBuilder();
+                String title = event.displayTitle;
+                if (title != null) {
+                    // MAX - 1 since we add a space
+                    if (title.length() > MAX_EVENT_TEXT_LEN - 1) {
+                        title = title.substring(0, MAX_EVENT_TEXT_LEN - 1);
+                    }
+                    bob.append(title);
+                    bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, bob.length(), 0);
+                    bob.append(' ');
+                }
+                String location = event.displayLocation;
+                if (location != null) {
+                    int maxLen = Math.max(MAX_EVENT_TEXT_LEN - bob.length(), 0);
+                    if (location.length() > maxLen) {
+                        location = location.substring(0, maxLen);
+                    }
+                    bob.append(location);
+                }
+
+                paint.setColor(textColor);
+
+                // Leave a one pixel boundary on the left and right of the rectangle for the event
+                layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), width,
+                        Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, width);
+                sLayoutCache.put(event, width, textSize, textColor, layout);
+            }
 
             layouts[i] = layout;
         }
@@ -3100,7 +3343,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         selectionArea.right = selectionArea.left + cellWidth;
 
         final ArrayList<Event> events = mEvents;
-        int numEvents = events.size();
+        final EventBlock block = mEventBlock;
+        int numEvents = block.size;
         EventGeometry geometry = mEventGeometry;
 
         final int viewEndY = mViewStartY + mViewHeight - DAY_HEADER_HEIGHT - mAlldayHeight;
@@ -3108,15 +3352,18 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         int alpha = eventTextPaint.getAlpha();
         eventTextPaint.setAlpha(mEventsAlpha);
         for (int i = 0; i < numEvents; i++) {
-            Event event = events.get(i);
-            if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
+            // Lay out and cull from the block so that only the visible
+            // events are touched.
+            if (!geometry.computeEventRect(date, left, top, cellWidth, block, i)) {
                 continue;
             }
 
             // Don't draw it if it is not visible
-            if (event.bottom < mViewStartY || event.top > viewEndY) {
+            if (block.bottom[i] < mViewStartY || block.top[i] > viewEndY) {
                 continue;
             }
+            Event event = events.get(i);
+            block.copyRectTo(i, event);
 
             if (date == mSelectionDay && !mSelectionAllday && mComputeSelectedEvents
                     && geometry.eventIntersectsSelection(event, selectionArea)) {
@@ -3528,27 +3775,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
         return r;
     }
 
-    private final Pattern drawTextSanitizerFilter = Pattern.compile("[\t\n],");
-
-    // Sanitize a string before passing it to drawText or else we get little
-    // squares. For newlines and tabs before a comma, delete the character.
-    // Otherwise, just replace them with a space.
-    private String drawTextSanitizer(String string, int maxEventTextLen) {
-        Matcher m = drawTextSanitizerFilter.matcher(string);
-        string = m.replaceAll(",");
-
-        int len = string.length();
-        if (maxEventTextLen <= 0) {
-            string = "";
-            len = 0;
-        } else if (len > maxEventTextLen) {
-            string = string.substring(0, maxEventTextLen);
-            len = maxEventTextLen;
-        }
-
-        return string.replace('\n', ' ');
-    }
-
     private void drawEventText(StaticLayout eventLayout, Rect rect, Canvas canvas, int top,
             int bottom, boolean center) {
         // drawEmptyRect(canvas, rect, 0xFFFF00FF); // for debugging
@@ -4853,9 +5079,19 @@ public class DayView extends View implements View.OnCreateContextMenuListener,
     @Override
     protected void onDetachedFromWindow() {
         cleanup();
+        mContext.unregisterComponentCallbacks(mTrimCallbacks);
+        if (--sAttachedViews == 0) {
+            sGridTileCache.release();
+        }
         super.onDetachedFromWindow();
     }
 
+    private void releaseGridTiles() {
+        sGridTileCache.release();
+        // Records the grid again instead of drawing the recycled tiles
+        invalidate();
+    }
+
     class DismissPopup implements Runnable {
         public void run() {
             // Protect against null-pointer exceptions
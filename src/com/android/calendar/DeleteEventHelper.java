@@ -119,6 +119,21 @@ public class DeleteEventHelper {
                 cursor.close();
                 DeleteEventHelper.this.delete(mStartMillis, mEndMillis, mModel, mWhichDelete);
             }
+
+            @Override
+            protected void onInsertComplete(int token, Object cookie, Uri uri) {
+                notifyEventChanged(cookie);
+            }
+
+            @Override
+            protected void onUpdateComplete(int token, Object cookie, int result) {
+                notifyEventChanged(cookie);
+            }
+
+            @Override
+            protected void onDeleteComplete(int token, Object cookie, int result) {
+                notifyEventChanged(cookie);
+            }
         };
         mExitWhenDone = exitWhenDone;
     }
@@ -136,7 +151,8 @@ public class DeleteEventHelper {
             deleteStarted();
             long id = mModel.mId; // mCursor.getInt(mEventIndexId);
             Uri uri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, id);
-            mService.startDelete(mService.getNextToken(), null, uri, null, null, Utils.UNDO_DELAY);
+            CalendarController.localChangeStarted();
+            mService.startDelete(mService.getNextToken(), id, uri, null, null, Utils.UNDO_DELAY);
             if (mCallback != null) {
                 mCallback.run();
             }
@@ -347,7 +363,8 @@ public class DeleteEventHelper {
         values.put(Events.STATUS, Events.STATUS_CANCELED);
 
         Uri uri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, id);
-        mService.startUpdate(mService.getNextToken(), null, uri, values, null, null,
+        CalendarController.localChangeStarted();
+        mService.startUpdate(mService.getNextToken(), id, uri, values, null, null,
                 Utils.UNDO_DELAY);
     }
 
@@ -388,13 +405,15 @@ public class DeleteEventHelper {
                 values.put(Events.ORIGINAL_INSTANCE_TIME, mStartMillis);
                 values.put(Events.STATUS, Events.STATUS_CANCELED);
 
-                mService.startInsert(mService.getNextToken(), null, Events.CONTENT_URI, values,
+                CalendarController.localChangeStarted();
+                mService.startInsert(mService.getNextToken(), id, Events.CONTENT_URI, values,
                         Utils.UNDO_DELAY);
                 break;
             }
             case DELETE_ALL: {
                 Uri uri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, id);
-                mService.startDelete(mService.getNextToken(), null, uri, null, null,
+                CalendarController.localChangeStarted();
+                mService.startDelete(mService.getNextToken(), id, uri, null, null,
                         Utils.UNDO_DELAY);
                 break;
             }
@@ -403,7 +422,8 @@ public class DeleteEventHelper {
                 // following events, then delete them all.
                 if (dtstart == mStartMillis) {
                     Uri uri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, id);
-                    mService.startDelete(mService.getNextToken(), null, uri, null, null,
+                    CalendarController.localChangeStarted();
+                    mService.startDelete(mService.getNextToken(), id, uri, null, null,
                             Utils.UNDO_DELAY);
                     break;
                 }
@@ -428,7 +448,8 @@ public class DeleteEventHelper {
                 values.put(Events.DTSTART, dtstart);
                 values.put(Events.RRULE, eventRecurrence.toString());
                 Uri uri = ContentUris.withAppendedId(CalendarContract.Events.CONTENT_URI, id);
-                mService.startUpdate(mService.getNextToken(), null, uri, values, null, null,
+                CalendarController.localChangeStarted();
+                mService.startUpdate(mService.getNextToken(), id, uri, values, null, null,
                         Utils.UNDO_DELAY);
                 break;
             }
@@ -445,6 +466,16 @@ public class DeleteEventHelper {
         mDeleteStartedListener = listener;
     }
 
+    /**
+     * Tells the views which event was changed by a completed operation so
+     * that they can refresh just that event. The cookie is the event id.
+     */
+    private void notifyEventChanged(Object cookie) {
+        if (cookie instanceof Long) {
+            CalendarController.localChangeFinished((Long) cookie);
+        }
+    }
+
     private void deleteStarted() {
         if (mDeleteStartedListener != null) {
             mDeleteStartedListener.onDeleteStarted();
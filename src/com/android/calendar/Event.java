@@ -23,6 +23,7 @@ import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Debug;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
@@ -34,8 +35,9 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.BitSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 // TODO: should Event be Parcelable so it can be passed via Intents?
 public class Event implements Cloneable {
@@ -53,14 +55,19 @@ public class Event implements Cloneable {
      * sorted correctly with respect to events that are >24 hours (and
      * therefore show up in the allday area).
      */
-    private static final String SORT_EVENTS_BY =
-            "begin ASC, end DESC, title ASC";
-    private static final String SORT_ALLDAY_BY =
-            "startDay ASC, endDay DESC, title ASC";
     private static final String DISPLAY_AS_ALLDAY = "dispAllday";
 
-    private static final String EVENTS_WHERE = DISPLAY_AS_ALLDAY + "=0";
-    private static final String ALLDAY_WHERE = DISPLAY_AS_ALLDAY + "=1";
+    /**
+     * Sorts the normal events before the all-day events so that a single
+     * query returns the rows in the same order as two separate queries
+     * sorted by "begin ASC, end DESC, title ASC" and
+     * "startDay ASC, endDay DESC, title ASC".
+     */
+    private static final String SORT_EVENTS_AND_ALLDAY_BY =
+            DISPLAY_AS_ALLDAY + " ASC, "
+            + "CASE " + DISPLAY_AS_ALLDAY + " WHEN 0 THEN begin ELSE startDay END ASC, "
+            + "CASE " + DISPLAY_AS_ALLDAY + " WHEN 0 THEN end ELSE endDay END DESC, "
+            + "title ASC";
 
     // The projection to use when querying instances to build a list of events
     public static final String[] EVENT_PROJECTION = new String[] {
@@ -117,10 +124,19 @@ public class Event implements Cloneable {
     private static String mNoTitleString;
     private static int mNoColorColor;
 
+    /** The longest title or location text that is drawn in the day view. */
+    public static final int MAX_DISPLAY_TEXT_LEN = 500;
+
+    private static final Pattern DISPLAY_TEXT_FILTER = Pattern.compile("[\t\n],");
+
     public long id;
     public int color;
     public CharSequence title;
     public CharSequence location;
+    // The title and location cleaned up for drawing, computed when the event
+    // is read from the cursor
+    public String displayTitle;
+    public String displayLocation;
     public boolean allDay;
     public String organizer;
     public boolean guestsCanModify;
@@ -161,6 +177,8 @@ public class Event implements Cloneable {
         e.title = title;
         e.color = color;
         e.location = location;
+        e.displayTitle = displayTitle;
+        e.displayLocation = displayLocation;
         e.allDay = allDay;
         e.startDay = startDay;
         e.endDay = endDay;
@@ -182,6 +200,8 @@ public class Event implements Cloneable {
         dest.title = title;
         dest.color = color;
         dest.location = location;
+        dest.displayTitle = displayTitle;
+        dest.displayLocation = displayLocation;
         dest.allDay = allDay;
         dest.startDay = startDay;
         dest.endDay = endDay;
@@ -203,6 +223,8 @@ public class Event implements Cloneable {
         e.title = null;
         e.color = 0;
         e.location = null;
+        e.displayTitle = null;
+        e.displayLocation = null;
         e.allDay = false;
         e.startDay = 0;
         e.endDay = 0;
@@ -219,69 +241,159 @@ public class Event implements Cloneable {
 
     /**
      * Loads <i>days</i> days worth of instances starting at <i>startDay</i>.
+     * Days that are already in the {@link EventCache} are served from memory
+     * and only the missing day ranges are queried.
      */
     public static void loadEvents(Context context, ArrayList<Event> events, int startDay, int days,
-            int requestId, AtomicInteger sequenceNumber) {
+            int requestId, AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
 
         if (PROFILE) {
             Debug.startMethodTracing("loadEvents");
         }
 
-        Cursor cEvents = null;
-        Cursor cAllday = null;
-
         events.clear();
         try {
             int endDay = startDay + days - 1;
 
-            // We use the byDay instances query to get a list of all events for
-            // the days we're interested in.
-            // The sort order is: events with an earlier start time occur
-            // first and if the start times are the same, then events with
-            // a later end time occur first. The later end time is ordered
-            // first so that long rectangles in the calendar views appear on
-            // the left side.  If the start and end times of two events are
-            // the same then we sort alphabetically on the title.  This isn't
-            // required for correctness, it just adds a nice touch.
-
             // Respect the preference to show/hide declined events
             SharedPreferences prefs = GeneralPreferences.getSharedPreferences(context);
             boolean hideDeclined = prefs.getBoolean(GeneralPreferences.KEY_HIDE_DECLINED,
                     false);
 
-            String where = EVENTS_WHERE;
-            String whereAllday = ALLDAY_WHERE;
-            if (hideDeclined) {
-                String hideString = " AND " + Instances.SELF_ATTENDEE_STATUS + "!="
-                        + Attendees.ATTENDEE_STATUS_DECLINED;
-                where += hideString;
-                whereAllday += hideString;
+            EventCache cache = EventCache.getInstance(context);
+            int generation = cache.getGeneration();
+            ArrayList<int[]> missing = cache.getDays(startDay, endDay, hideDeclined, events);
+            // A single query for the whole range is already in the right order
+            boolean needsSort = !events.isEmpty() || missing.size() > 1;
+            for (int[] range : missing) {
+                ArrayList<Event> loaded = new ArrayList<Event>();
+                if (!queryEvents(context, loaded, range[0], range[1], requestId,
+                        sequenceNumber, cancellationSignal)) {
+                    events.clear();
+                    return;
+                }
+                cache.putDays(range[0], range[1], loaded, generation);
+                for (Event e : loaded) {
+                    if (!hideDeclined
+                            || e.selfAttendeeStatus != Attendees.ATTENDEE_STATUS_DECLINED) {
+                        events.add(e);
+                    }
+                }
+            }
+            if (needsSort) {
+                EventCache.sortAndDedupe(events, EventCache.DAY_VIEW_ORDER);
+            }
+        } finally {
+            if (PROFILE) {
+                Debug.stopMethodTracing();
+            }
+        }
+    }
+
+    /**
+     * Loads the days between startDay and startDay + days - 1 that are not
+     * cached yet into the {@link EventCache}, so that a later call to
+     * {@link #loadEvents} for them does not have to query the provider.
+     * Stops as soon as a more recent load request is made.
+     */
+    public static void prefetchEvents(Context context, int startDay, int days, int requestId,
+            AtomicInteger sequenceNumber, CancellationSignal cancellationSignal) {
+        EventCache cache = EventCache.getInstance(context);
+        int generation = cache.getGeneration();
+        ArrayList<int[]> missing = cache.getDays(startDay, startDay + days - 1, false, null);
+        for (int[] range : missing) {
+            if (requestId != sequenceNumber.get()) {
+                return;
+            }
+            ArrayList<Event> loaded = new ArrayList<Event>();
+            if (!queryEvents(context, loaded, range[0], range[1], requestId, sequenceNumber,
+                    cancellationSignal)) {
+                return;
             }
+            cache.putDays(range[0], range[1], loaded, generation);
+        }
+    }
+
+    /**
+     * Loads the instances of a single event that fall between startDay and
+     * endDay, in the same order as {@link #loadEvents}. This is used to
+     * refresh one event after it was edited without reloading the others.
+     */
+    public static void loadEventInstances(Context context, ArrayList<Event> events, long eventId,
+            int startDay, int endDay) {
+        events.clear();
+
+        SharedPreferences prefs = GeneralPreferences.getSharedPreferences(context);
+        boolean hideDeclined = prefs.getBoolean(GeneralPreferences.KEY_HIDE_DECLINED,
+                false);
 
+        String where = Instances.EVENT_ID + "=?";
+        if (hideDeclined) {
+            where += " AND " + Instances.SELF_ATTENDEE_STATUS + "!="
+                    + Attendees.ATTENDEE_STATUS_DECLINED;
+        }
+
+        Cursor cEvents = null;
+        try {
             cEvents = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
-                    endDay, where, null, SORT_EVENTS_BY);
-            cAllday = instancesQuery(context.getContentResolver(), EVENT_PROJECTION, startDay,
-                    endDay, whereAllday, null, SORT_ALLDAY_BY);
+                    endDay, where, new String[] { Long.toString(eventId) },
+                    SORT_EVENTS_AND_ALLDAY_BY, null);
+            buildEventsFromCursor(events, cEvents, context, startDay, endDay);
+        } finally {
+            if (cEvents != null) {
+                cEvents.close();
+            }
+        }
+    }
+
+    /**
+     * Queries the provider for all the instances, including declined ones,
+     * between startDay and endDay. Returns false without loading anything if
+     * a more recent load request is waiting or the query was cancelled.
+     */
+    private static boolean queryEvents(Context context, ArrayList<Event> events, int startDay,
+            int endDay, int requestId, AtomicInteger sequenceNumber,
+            CancellationSignal cancellationSignal) {
+        Cursor cEvents = null;
+
+        try {
+            // We use the byDay instances query to get a list of all events for
+            // the days we're interested in. The normal and the all-day events
+            // come back from one query, normal events first, so the provider
+            // only has to expand the recurrences for this range once.
+            // Within each group the sort order is: events with an earlier
+            // start time occur first and if the start times are the same,
+            // then events with a later end time occur first. The later end
+            // time is ordered first so that long rectangles in the calendar
+            // views appear on the left side.  If the start and end times of
+            // two events are the same then we sort alphabetically on the
+            // title.  This isn't required for correctness, it just adds a
+            // nice touch.
+            try {
+                cEvents = instancesQuery(context.getContentResolver(), EVENT_PROJECTION,
+                        startDay, endDay, null, null, SORT_EVENTS_AND_ALLDAY_BY,
+                        cancellationSignal);
+            } catch (RuntimeException e) {
+                // The query throws an OperationCanceledException when it is
+                // cancelled
+                if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                    return false;
+                }
+                throw e;
+            }
 
             // Check if we should return early because there are more recent
             // load requests waiting.
             if (requestId != sequenceNumber.get()) {
-                return;
+                return false;
             }
 
             buildEventsFromCursor(events, cEvents, context, startDay, endDay);
-            buildEventsFromCursor(events, cAllday, context, startDay, endDay);
-
+            return true;
         } finally {
             if (cEvents != null) {
                 cEvents.close();
             }
-            if (cAllday != null) {
-                cAllday.close();
-            }
-            if (PROFILE) {
-                Debug.stopMethodTracing();
-            }
         }
     }
 
@@ -302,10 +414,13 @@ public class Event implements Cloneable {
      * @param selection Filter on the query as an SQL WHERE statement
      * @param selectionArgs Args to replace any '?'s in the selection
      * @param orderBy How to order the rows as an SQL ORDER BY statement
+     * @param cancellationSignal A signal to cancel the query with, or null.
+     *            Only used on Jellybean and later.
      * @return A Cursor of instances matching the selection
      */
     private static final Cursor instancesQuery(ContentResolver cr, String[] projection,
-            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy) {
+            int startDay, int endDay, String selection, String[] selectionArgs, String orderBy,
+            CancellationSignal cancellationSignal) {
         String WHERE_CALENDARS_SELECTED = Calendars.VISIBLE + "=?";
         String[] WHERE_CALENDARS_ARGS = {"1"};
         String DEFAULT_SORT_ORDER = "begin ASC";
@@ -325,6 +440,10 @@ public class Event implements Cloneable {
                 selectionArgs = WHERE_CALENDARS_ARGS;
             }
         }
+        if (cancellationSignal != null) {
+            return cr.query(builder.build(), projection, selection, selectionArgs,
+                    orderBy == null ? DEFAULT_SORT_ORDER : orderBy, cancellationSignal);
+        }
         return cr.query(builder.build(), projection, selection, selectionArgs,
                 orderBy == null ? DEFAULT_SORT_ORDER : orderBy);
     }
@@ -354,8 +473,8 @@ public class Event implements Cloneable {
         Resources res = context.getResources();
         mNoTitleString = res.getString(R.string.no_title_label);
         mNoColorColor = res.getColor(R.color.event_center);
-        // Sort events in two passes so we ensure the allday and standard events
-        // get sorted in the correct order
+        // The cursor may hold the standard events followed by the allday
+        // events, so keep the rows in cursor order.
         cEvents.moveToPosition(-1);
         while (cEvents.moveToNext()) {
             Event e = generateEventFromCursor(cEvents);
@@ -383,6 +502,8 @@ public class Event implements Cloneable {
         if (e.title == null || e.title.length() == 0) {
             e.title = mNoTitleString;
         }
+        e.displayTitle = sanitizeDisplayText(e.title);
+        e.displayLocation = sanitizeDisplayText(e.location);
 
         if (!cEvents.isNull(PROJECTION_COLOR_INDEX)) {
             // Read the color from the database
@@ -438,102 +559,247 @@ public class Event implements Cloneable {
             return;
         }
 
-        // Compute the column positions separately for the all-day events
-        doComputePositions(eventsList, minimumDurationMillis, false);
-        doComputePositions(eventsList, minimumDurationMillis, true);
+        EventBlock block = EventBlock.fromEvents(eventsList);
+        computePositions(block, minimumDurationMillis);
+        block.copyColumnsTo(eventsList);
     }
 
-    private static void doComputePositions(ArrayList<Event> eventsList,
-            long minimumDurationMillis, boolean doAlldayEvents) {
-        final ArrayList<Event> activeList = new ArrayList<Event>();
-        final ArrayList<Event> groupList = new ArrayList<Event>();
+    /**
+     * Computes a position for each event in the block. This is the same as
+     * {@link #computePositions(ArrayList, long)} but reads and writes the
+     * block's primitive arrays directly.
+     *
+     * @param block the events, sorted into increasing time order
+     * @param minimumDurationMillis minimum duration acceptable as cell height of each event
+     * rectangle in millisecond. Should be 0 when it is not determined.
+     */
+    /* package */ static void computePositions(EventBlock block, long minimumDurationMillis) {
+        computePositions(block, minimumDurationMillis, null);
+    }
+
+    /**
+     * Computes a position for the events in the block that belong to an
+     * overlap group containing a dirty event. The other events keep their
+     * current columns. A group is a run of events that transitively overlap
+     * each other, and its layout does not depend on any other group.
+     *
+     * @param block the events, sorted into increasing time order
+     * @param minimumDurationMillis minimum duration acceptable as cell height of each event
+     * rectangle in millisecond. Should be 0 when it is not determined.
+     * @param dirty which events changed, or null to lay out every event
+     */
+    /* package */ static void computePositions(EventBlock block, long minimumDurationMillis,
+            boolean[] dirty) {
+        if (block == null) {
+            return;
+        }
 
         if (minimumDurationMillis < 0) {
             minimumDurationMillis = 0;
         }
 
-        long colMask = 0;
+        // Compute the column positions separately for the all-day events
+        ActiveEventHeap active = new ActiveEventHeap(block.size);
+        int[] groupList = new int[block.size];
+        boolean[] include = null;
+        if (dirty != null) {
+            include = new boolean[block.size];
+            findDirtyGroups(block, minimumDurationMillis, dirty, include, false);
+            findDirtyGroups(block, minimumDurationMillis, dirty, include, true);
+        }
+        doComputePositions(block, active, groupList, include, minimumDurationMillis, false);
+        doComputePositions(block, active, groupList, include, minimumDurationMillis, true);
+    }
+
+    /**
+     * Marks every event that is in the same overlap group as a dirty event.
+     * Groups end where no earlier event is still active, which is exactly
+     * where the sweep in doComputePositions starts a new group.
+     */
+    private static void findDirtyGroups(EventBlock block, long minimumDurationMillis,
+            boolean[] dirty, boolean[] include, boolean doAlldayEvents) {
+        int groupStart = -1;
+        boolean groupDirty = false;
+        long groupEnd = Long.MIN_VALUE;
+        for (int i = 0; i <= block.size; i++) {
+            if (i < block.size && block.drawAsAllday(i) != doAlldayEvents) {
+                continue;
+            }
+            final boolean last = i == block.size;
+            final long start = last ? Long.MAX_VALUE
+                    : (doAlldayEvents ? block.startDay[i] : block.startMillis[i]);
+            if (groupStart != -1 && groupEnd <= start) {
+                // The previous group is complete
+                if (groupDirty) {
+                    for (int j = groupStart; j < i; j++) {
+                        if (block.drawAsAllday(j) == doAlldayEvents) {
+                            include[j] = true;
+                        }
+                    }
+                }
+                groupStart = -1;
+                groupDirty = false;
+                groupEnd = Long.MIN_VALUE;
+            }
+            if (last) {
+                break;
+            }
+            if (groupStart == -1) {
+                groupStart = i;
+            }
+            groupDirty |= dirty[i];
+            long inactiveAt;
+            if (doAlldayEvents) {
+                inactiveAt = block.endDay[i] + 1L;
+            } else {
+                inactiveAt = block.startMillis[i] + Math.max(
+                        block.endMillis[i] - block.startMillis[i], minimumDurationMillis);
+            }
+            if (groupEnd < inactiveAt) {
+                groupEnd = inactiveAt;
+            }
+        }
+    }
+
+    /**
+     * Sweeps over the events in start order. The active events are kept in
+     * a min-heap keyed on the time at which they stop overlapping later
+     * events, and the columns they occupy are tracked in a bit set, so there
+     * is no limit on the number of overlapping events.
+     */
+    private static void doComputePositions(EventBlock block, ActiveEventHeap active,
+            int[] groupList, boolean[] include, long minimumDurationMillis,
+            boolean doAlldayEvents) {
+        int groupCount = 0;
+        active.clear();
+
+        final int[] columns = block.column;
+        final BitSet usedColumns = new BitSet();
         int maxCols = 0;
-        for (Event event : eventsList) {
+        for (int i = 0; i < block.size; i++) {
             // Process all-day events separately
-            if (event.drawAsAllday() != doAlldayEvents)
+            if (block.drawAsAllday(i) != doAlldayEvents)
                 continue;
 
-           if (!doAlldayEvents) {
-                colMask = removeNonAlldayActiveEvents(
-                        event, activeList.iterator(), minimumDurationMillis, colMask);
-            } else {
-                colMask = removeAlldayActiveEvents(event, activeList.iterator(), colMask);
+            // Skip the groups that don't need a new layout. Whole groups are
+            // skipped, so the heap is always drained at the next group.
+            if (include != null && !include[i])
+                continue;
+
+            // Remove the inactive events. A normal event on the active list
+            // becomes inactive when its end time is less than or equal to
+            // the current event's start time. An allday event becomes
+            // inactive when its end day is less than the current event's
+            // start day, i.e. when endDay + 1 <= startDay.
+            final long start = doAlldayEvents ? block.startDay[i] : block.startMillis[i];
+            while (!active.isEmpty() && active.peekKey() <= start) {
+                usedColumns.clear(columns[active.poll()]);
             }
 
-            // If the active list is empty, then reset the max columns, clear
-            // the column bit mask, and empty the groupList.
-            if (activeList.isEmpty()) {
-                for (Event ev : groupList) {
-                    ev.setMaxColumns(maxCols);
+            // If the active list is empty, then reset the max columns and
+            // empty the groupList.
+            if (active.isEmpty()) {
+                for (int j = 0; j < groupCount; j++) {
+                    block.maxColumns[groupList[j]] = maxCols;
                 }
                 maxCols = 0;
-                colMask = 0;
-                groupList.clear();
+                groupCount = 0;
             }
 
-            // Find the first empty column.  Empty columns are represented by
-            // zero bits in the column mask "colMask".
-            int col = findFirstZeroBit(colMask);
-            if (col == 64)
-                col = 63;
-            colMask |= (1L << col);
-            event.setColumn(col);
-            activeList.add(event);
-            groupList.add(event);
-            int len = activeList.size();
-            if (maxCols < len)
-                maxCols = len;
-        }
-        for (Event ev : groupList) {
-            ev.setMaxColumns(maxCols);
-        }
-    }
+            // Take the first free column
+            int col = usedColumns.nextClearBit(0);
+            usedColumns.set(col);
+            columns[i] = col;
 
-    private static long removeAlldayActiveEvents(Event event, Iterator<Event> iter, long colMask) {
-        // Remove the inactive allday events. An event on the active list
-        // becomes inactive when the end day is less than the current event's
-        // start day.
-        while (iter.hasNext()) {
-            final Event active = iter.next();
-            if (active.endDay < event.startDay) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
+            long inactiveAt;
+            if (doAlldayEvents) {
+                inactiveAt = block.endDay[i] + 1L;
+            } else {
+                final long duration = Math.max(block.endMillis[i] - block.startMillis[i],
+                        minimumDurationMillis);
+                inactiveAt = block.startMillis[i] + duration;
             }
+            active.add(i, inactiveAt);
+            groupList[groupCount++] = i;
+            if (maxCols < active.size())
+                maxCols = active.size();
+        }
+        for (int j = 0; j < groupCount; j++) {
+            block.maxColumns[groupList[j]] = maxCols;
         }
-        return colMask;
     }
 
-    private static long removeNonAlldayActiveEvents(
-            Event event, Iterator<Event> iter, long minDurationMillis, long colMask) {
-        long start = event.getStartMillis();
-        // Remove the inactive events. An event on the active list
-        // becomes inactive when its end time is less than or equal to
-        // the current event's start time.
-        while (iter.hasNext()) {
-            final Event active = iter.next();
-
-            final long duration = Math.max(
-                    active.getEndMillis() - active.getStartMillis(), minDurationMillis);
-            if ((active.getStartMillis() + duration) <= start) {
-                colMask &= ~(1L << active.getColumn());
-                iter.remove();
+    /**
+     * A binary min-heap of event indices keyed on the time at which each
+     * event becomes inactive.
+     */
+    private static class ActiveEventHeap {
+        private final int[] mIndices;
+        private final long[] mKeys;
+        private int mSize;
+
+        ActiveEventHeap(int capacity) {
+            mIndices = new int[capacity];
+            mKeys = new long[capacity];
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long peekKey() {
+            return mKeys[0];
+        }
+
+        void add(int index, long key) {
+            int pos = mSize++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (mKeys[parent] <= key) {
+                    break;
+                }
+                mIndices[pos] = mIndices[parent];
+                mKeys[pos] = mKeys[parent];
+                pos = parent;
             }
+            mIndices[pos] = index;
+            mKeys[pos] = key;
         }
-        return colMask;
-    }
 
-    public static int findFirstZeroBit(long val) {
-        for (int ii = 0; ii < 64; ++ii) {
-            if ((val & (1L << ii)) == 0)
-                return ii;
+        int poll() {
+            final int result = mIndices[0];
+            final int lastIndex = mIndices[--mSize];
+            final long lastKey = mKeys[mSize];
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= mSize) {
+                    break;
+                }
+                if (child + 1 < mSize && mKeys[child + 1] < mKeys[child]) {
+                    child++;
+                }
+                if (lastKey <= mKeys[child]) {
+                    break;
+                }
+                mIndices[pos] = mIndices[child];
+                mKeys[pos] = mKeys[child];
+                pos = child;
+            }
+            if (mSize > 0) {
+                mIndices[pos] = lastIndex;
+                mKeys[pos] = lastKey;
+            }
+            return result;
         }
-        return 64;
     }
 
     public final void dump() {
@@ -581,6 +847,23 @@ public class Event implements Cloneable {
         return true;
     }
 
+    /**
+     * Sanitizes a string before it is passed to drawText or else we get little
+     * squares. Newlines and tabs before a comma are deleted, other newlines
+     * are replaced with a space. The result is truncated to
+     * {@link #MAX_DISPLAY_TEXT_LEN} characters.
+     */
+    public static String sanitizeDisplayText(CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+        String string = DISPLAY_TEXT_FILTER.matcher(text).replaceAll(",");
+        if (string.length() > MAX_DISPLAY_TEXT_LEN) {
+            string = string.substring(0, MAX_DISPLAY_TEXT_LEN);
+        }
+        return string.replace('\n', ' ');
+    }
+
     /**
      * Returns the event title and location separated by a comma.  If the
      * location is already part of the title (at the end of the title), then
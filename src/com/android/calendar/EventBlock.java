@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A columnar copy of a list of events for the per-frame code paths. The
+ * fields that the layout and drawing code reads are held in parallel
+ * primitive arrays indexed by the position of the event in the source list,
+ * and titles and locations are interned into a single string table.
+ *
+ * The block does not replace the {@link Event} objects, which are still
+ * used for selection and navigation. Index i of the block always refers to
+ * index i of the list it was built from.
+ */
+public class EventBlock {
+    public static final int FLAG_ALL_DAY = 1 << 0;
+    public static final int FLAG_DRAW_AS_ALLDAY = 1 << 1;
+    public static final int FLAG_HAS_ALARM = 1 << 2;
+    public static final int FLAG_REPEATING = 1 << 3;
+    public static final int FLAG_GUESTS_CAN_MODIFY = 1 << 4;
+
+    public static final int NO_STRING = -1;
+
+    private static final EventBlock EMPTY = new EventBlock(0);
+
+    public final int size;
+
+    public final long[] id;
+    public final long[] startMillis;
+    public final long[] endMillis;
+    public final int[] startDay;
+    public final int[] endDay;
+    public final int[] startTime;
+    public final int[] endTime;
+    public final int[] color;
+    public final int[] selfAttendeeStatus;
+    public final int[] flags;
+    public final int[] column;
+    public final int[] maxColumns;
+
+    // Indices into mStrings, or NO_STRING
+    public final int[] title;
+    public final int[] location;
+
+    // The coordinates of the event rectangles drawn on the screen
+    public final float[] left;
+    public final float[] right;
+    public final float[] top;
+    public final float[] bottom;
+
+    private String[] mStrings;
+
+    private EventBlock(int size) {
+        this.size = size;
+        id = new long[size];
+        startMillis = new long[size];
+        endMillis = new long[size];
+        startDay = new int[size];
+        endDay = new int[size];
+        startTime = new int[size];
+        endTime = new int[size];
+        color = new int[size];
+        selfAttendeeStatus = new int[size];
+        flags = new int[size];
+        column = new int[size];
+        maxColumns = new int[size];
+        title = new int[size];
+        location = new int[size];
+        left = new float[size];
+        right = new float[size];
+        top = new float[size];
+        bottom = new float[size];
+    }
+
+    /**
+     * Builds a block holding the given events in the same order.
+     */
+    public static EventBlock fromEvents(ArrayList<Event> events) {
+        if (events == null || events.isEmpty()) {
+            return EMPTY;
+        }
+        final int size = events.size();
+        EventBlock block = new EventBlock(size);
+        HashMap<String, Integer> table = new HashMap<String, Integer>();
+        ArrayList<String> strings = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            block.id[i] = e.id;
+            block.startMillis[i] = e.startMillis;
+            block.endMillis[i] = e.endMillis;
+            block.startDay[i] = e.startDay;
+            block.endDay[i] = e.endDay;
+            block.startTime[i] = e.startTime;
+            block.endTime[i] = e.endTime;
+            block.color[i] = e.color;
+            block.selfAttendeeStatus[i] = e.selfAttendeeStatus;
+            block.column[i] = e.getColumn();
+            block.maxColumns[i] = e.getMaxColumns();
+            block.left[i] = e.left;
+            block.right[i] = e.right;
+            block.top[i] = e.top;
+            block.bottom[i] = e.bottom;
+            block.title[i] = intern(table, strings, e.title);
+            block.location[i] = intern(table, strings, e.location);
+
+            int f = 0;
+            if (e.allDay) {
+                f |= FLAG_ALL_DAY;
+            }
+            if (e.drawAsAllday()) {
+                f |= FLAG_DRAW_AS_ALLDAY;
+            }
+            if (e.hasAlarm) {
+                f |= FLAG_HAS_ALARM;
+            }
+            if (e.isRepeating) {
+                f |= FLAG_REPEATING;
+            }
+            if (e.guestsCanModify) {
+                f |= FLAG_GUESTS_CAN_MODIFY;
+            }
+            block.flags[i] = f;
+        }
+        block.mStrings = strings.toArray(new String[strings.size()]);
+        return block;
+    }
+
+    private static int intern(HashMap<String, Integer> table, ArrayList<String> strings,
+            CharSequence text) {
+        if (text == null) {
+            return NO_STRING;
+        }
+        String s = text.toString();
+        Integer index = table.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            table.put(s, index);
+        }
+        return index;
+    }
+
+    public boolean drawAsAllday(int i) {
+        return (flags[i] & FLAG_DRAW_AS_ALLDAY) != 0;
+    }
+
+    public String getTitle(int i) {
+        return getString(title[i]);
+    }
+
+    public String getLocation(int i) {
+        return getString(location[i]);
+    }
+
+    private String getString(int index) {
+        return index == NO_STRING ? null : mStrings[index];
+    }
+
+    /**
+     * Copies the column layout of every event back to the list the block was
+     * built from.
+     */
+    public void copyColumnsTo(ArrayList<Event> events) {
+        final int count = Math.min(size, events.size());
+        for (int i = 0; i < count; i++) {
+            Event e = events.get(i);
+            e.setColumn(column[i]);
+            e.setMaxColumns(maxColumns[i]);
+        }
+    }
+
+    /**
+     * Copies the screen rectangle of event i to the given event.
+     */
+    public void copyRectTo(int i, Event event) {
+        event.left = left[i];
+        event.right = right[i];
+        event.top = top[i];
+        event.bottom = bottom[i];
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.Attendees;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of instances keyed by julian day. Each cached day
+ * holds every instance (including declined ones) that intersects that day,
+ * so callers can serve any range whose days are all cached without going
+ * back to the provider. Days are evicted in least recently viewed order
+ * once the estimated size of the cache exceeds its memory budget, and the
+ * whole cache is dropped whenever the calendar provider reports a change
+ * or the home time zone changes.
+ *
+ * Events handed out by the cache are always copies so that the views are
+ * free to lay them out without affecting each other.
+ */
+public class EventCache {
+    private static final String TAG = "EventCache";
+    private static final boolean DEBUG = false;
+
+    /** The default memory budget for the cached days, in bytes. */
+    public static final int DEFAULT_MAX_BYTES = 512 * 1024;
+
+    // Rough estimate of the size of an Event, not counting its strings.
+    private static final int EVENT_OVERHEAD_BYTES = 200;
+    // Rough estimate of the size of an empty day entry.
+    private static final int DAY_OVERHEAD_BYTES = 64;
+
+    private static EventCache sInstance;
+
+    private final Context mContext;
+
+    // Ordered by access so the eldest entry is the least recently viewed day
+    private final LinkedHashMap<Integer, DayBlock> mDays =
+            new LinkedHashMap<Integer, DayBlock>(64, 0.75f, true);
+
+    private int mMaxBytes = DEFAULT_MAX_BYTES;
+    private int mCurrentBytes;
+    private int mGeneration;
+    private String mTimeZone;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    private static class DayBlock {
+        final ArrayList<Event> events;
+        final int bytes;
+
+        DayBlock(ArrayList<Event> events, int bytes) {
+            this.events = events;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Sort order used by the day and week views. Timed events come first,
+     * ordered by begin ASC, end DESC, title ASC, followed by the events that
+     * are displayed as all-day, ordered by startDay ASC, endDay DESC,
+     * title ASC. This matches the order of the instances query in
+     * {@link Event#loadEvents}.
+     */
+    public static final Comparator<Event> DAY_VIEW_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            boolean lhsAllday = lhs.drawAsAllday();
+            boolean rhsAllday = rhs.drawAsAllday();
+            if (lhsAllday != rhsAllday) {
+                return lhsAllday ? 1 : -1;
+            }
+            int result;
+            if (lhsAllday) {
+                result = compareInts(lhs.startDay, rhs.startDay);
+                if (result == 0) {
+                    result = compareInts(rhs.endDay, lhs.endDay);
+                }
+            } else {
+                result = compareLongs(lhs.startMillis, rhs.startMillis);
+                if (result == 0) {
+                    result = compareLongs(rhs.endMillis, lhs.endMillis);
+                }
+            }
+            if (result == 0) {
+                result = compareTitles(lhs, rhs);
+            }
+            return result;
+        }
+    };
+
+    /**
+     * Sort order used by the month view: startDay, startMinute, title.
+     */
+    public static final Comparator<Event> MONTH_VIEW_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            int result = compareInts(lhs.startDay, rhs.startDay);
+            if (result == 0) {
+                result = compareInts(lhs.startTime, rhs.startTime);
+            }
+            if (result == 0) {
+                result = compareTitles(lhs, rhs);
+            }
+            return result;
+        }
+    };
+
+    private EventCache(Context context) {
+        mContext = context;
+        mTimeZone = Utils.getTimeZone(context, null);
+        context.getContentResolver().registerContentObserver(CalendarContract.CONTENT_URI,
+                true, mObserver);
+    }
+
+    /**
+     * Returns the process-wide cache, creating it on first use.
+     */
+    public static synchronized EventCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EventCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the memory budget for the cache. Days are evicted in least
+     * recently viewed order until the cache fits in the new budget.
+     *
+     * @param maxBytes the estimated number of bytes the cache may hold
+     */
+    public synchronized void setMaxBytes(int maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize();
+    }
+
+    /**
+     * Drops every cached day. Loads that were started before this call will
+     * not be added to the cache when they finish.
+     */
+    public synchronized void invalidate() {
+        if (DEBUG) {
+            Log.d(TAG, "Invalidating " + mDays.size() + " cached days");
+        }
+        mDays.clear();
+        mCurrentBytes = 0;
+        mGeneration++;
+    }
+
+    /**
+     * Returns the current generation of the cache. The generation changes
+     * every time the cache is invalidated and must be passed back to
+     * {@link #putDays} so that stale results are dropped.
+     */
+    public synchronized int getGeneration() {
+        checkTimeZone();
+        return mGeneration;
+    }
+
+    /**
+     * Copies the cached events for the given range into events and returns
+     * the ranges of days that are not cached. Events that intersect several
+     * cached days are only added once.
+     *
+     * @param startDay the first julian day of the range
+     * @param endDay the last julian day of the range, inclusive
+     * @param hideDeclined whether to leave out declined events
+     * @param events the list to add copies of the cached events to, or null
+     *            to only compute the missing ranges
+     * @return a list of {startDay, endDay} pairs that still have to be loaded
+     */
+    public synchronized ArrayList<int[]> getDays(int startDay, int endDay, boolean hideDeclined,
+            ArrayList<Event> events) {
+        checkTimeZone();
+        ArrayList<int[]> missing = new ArrayList<int[]>();
+        int missingStart = -1;
+        for (int day = startDay; day <= endDay; day++) {
+            DayBlock block = mDays.get(day);
+            if (block == null) {
+                if (missingStart == -1) {
+                    missingStart = day;
+                }
+                continue;
+            }
+            if (missingStart != -1) {
+                missing.add(new int[] { missingStart, day - 1 });
+                missingStart = -1;
+            }
+            if (events == null) {
+                continue;
+            }
+            for (Event e : block.events) {
+                // Only add multi-day events on the first day they are seen
+                if (e.startDay < day && day > startDay && mDays.containsKey(day - 1)) {
+                    continue;
+                }
+                if (hideDeclined
+                        && e.selfAttendeeStatus == Attendees.ATTENDEE_STATUS_DECLINED) {
+                    continue;
+                }
+                Event copy = new Event();
+                e.copyTo(copy);
+                events.add(copy);
+            }
+        }
+        if (missingStart != -1) {
+            missing.add(new int[] { missingStart, endDay });
+        }
+        return missing;
+    }
+
+    /**
+     * Returns a copy of the events in the given range if every day of the
+     * range is cached.
+     *
+     * @return true if all the days were cached and events was filled in
+     */
+    public synchronized boolean getEvents(int startDay, int endDay, boolean hideDeclined,
+            ArrayList<Event> events) {
+        for (int day = startDay; day <= endDay; day++) {
+            if (!mDays.containsKey(day)) {
+                return false;
+            }
+        }
+        getDays(startDay, endDay, hideDeclined, events);
+        return true;
+    }
+
+    /**
+     * Caches the events loaded for the given range. The events must contain
+     * every instance, including declined ones, that intersects the range.
+     *
+     * @param startDay the first julian day that was loaded
+     * @param endDay the last julian day that was loaded, inclusive
+     * @param events the loaded events
+     * @param generation the value of {@link #getGeneration} before the load
+     *            was started
+     */
+    public synchronized void putDays(int startDay, int endDay, ArrayList<Event> events,
+            int generation) {
+        checkTimeZone();
+        if (generation != mGeneration) {
+            if (DEBUG) {
+                Log.d(TAG, "Dropping stale load for " + startDay + "-" + endDay);
+            }
+            return;
+        }
+        int numDays = endDay - startDay + 1;
+        if (numDays <= 0) {
+            return;
+        }
+        ArrayList<ArrayList<Event>> dayLists = new ArrayList<ArrayList<Event>>(numDays);
+        int[] dayBytes = new int[numDays];
+        for (int i = 0; i < numDays; i++) {
+            dayLists.add(new ArrayList<Event>());
+        }
+        for (Event e : events) {
+            int first = Math.max(e.startDay, startDay) - startDay;
+            int last = Math.min(e.endDay, endDay) - startDay;
+            if (first > last) {
+                continue;
+            }
+            Event copy = new Event();
+            e.copyTo(copy);
+            int size = estimateSize(copy);
+            for (int i = first; i <= last; i++) {
+                dayLists.get(i).add(copy);
+                dayBytes[i] += size;
+            }
+        }
+        for (int i = 0; i < numDays; i++) {
+            int bytes = dayBytes[i] + DAY_OVERHEAD_BYTES;
+            DayBlock old = mDays.put(startDay + i, new DayBlock(dayLists.get(i), bytes));
+            if (old != null) {
+                mCurrentBytes -= old.bytes;
+            }
+            mCurrentBytes += bytes;
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<Integer, DayBlock>> iter = mDays.entrySet().iterator();
+        while (mCurrentBytes > mMaxBytes && iter.hasNext()) {
+            mCurrentBytes -= iter.next().getValue().bytes;
+            iter.remove();
+        }
+    }
+
+    private void checkTimeZone() {
+        // Julian days of cached instances depend on the home time zone
+        String tz = Utils.getTimeZone(mContext, null);
+        if (!TextUtils.equals(tz, mTimeZone)) {
+            mTimeZone = tz;
+            invalidate();
+        }
+    }
+
+    private static int estimateSize(Event e) {
+        int size = EVENT_OVERHEAD_BYTES;
+        if (e.title != null) {
+            size += 2 * e.title.length();
+        }
+        if (e.location != null) {
+            size += 2 * e.location.length();
+        }
+        if (e.organizer != null) {
+            size += 2 * e.organizer.length();
+        }
+        return size;
+    }
+
+    /**
+     * Sorts the events and removes duplicate instances, which can happen when
+     * a multi-day event is both cached and loaded again.
+     */
+    public static void sortAndDedupe(ArrayList<Event> events, Comparator<Event> order) {
+        Collections.sort(events, order);
+        int size = events.size();
+        int dest = 0;
+        for (int i = 0; i < size; i++) {
+            Event e = events.get(i);
+            boolean duplicate = false;
+            // Duplicates compare equal, so they are adjacent or separated only
+            // by other events that compare equal.
+            for (int j = dest - 1; j >= 0; j--) {
+                Event prev = events.get(j);
+                if (order.compare(prev, e) != 0) {
+                    break;
+                }
+                if (prev.id == e.id && prev.startMillis == e.startMillis
+                        && prev.endMillis == e.endMillis) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                events.set(dest++, e);
+            }
+        }
+        for (int i = size - 1; i >= dest; i--) {
+            events.remove(i);
+        }
+    }
+
+    private static int compareInts(int lhs, int rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    private static int compareTitles(Event lhs, Event rhs) {
+        String lhsTitle = lhs.title == null ? "" : lhs.title.toString();
+        String rhsTitle = rhs.title == null ? "" : rhs.title.toString();
+        return lhsTitle.compareTo(rhsTitle);
+    }
+}
@@ -103,6 +103,71 @@ public class EventGeometry {
         return true;
     }
 
+    // Computes the rectangle coordinates of event i of the block on the
+    // screen and stores them in the block. Returns true if the rectangle is
+    // visible on the screen.
+    public boolean computeEventRect(int date, int left, int top, int cellWidth,
+            EventBlock block, int i) {
+        if (block.drawAsAllday(i)) {
+            return false;
+        }
+
+        float cellMinuteHeight = mMinuteHeight;
+        int startDay = block.startDay[i];
+        int endDay = block.endDay[i];
+
+        if (startDay > date || endDay < date) {
+            return false;
+        }
+
+        int startTime = block.startTime[i];
+        int endTime = block.endTime[i];
+
+        // If the event started on a previous day, then show it starting
+        // at the beginning of this day.
+        if (startDay < date) {
+            startTime = 0;
+        }
+
+        // If the event ends on a future day, then show it extending to
+        // the end of this day.
+        if (endDay > date) {
+            endTime = DayView.MINUTES_PER_DAY;
+        }
+
+        int col = block.column[i];
+        int maxCols = block.maxColumns[i];
+        int startHour = startTime / 60;
+        int endHour = endTime / 60;
+
+        // If the end point aligns on a cell boundary then count it as
+        // ending in the previous cell so that we don't cross the border
+        // between hours.
+        if (endHour * 60 == endTime)
+            endHour -= 1;
+
+        float eventTop = top;
+        eventTop += (int) (startTime * cellMinuteHeight);
+        eventTop += startHour * mHourGap;
+
+        float eventBottom = top;
+        eventBottom += (int) (endTime * cellMinuteHeight);
+        eventBottom += endHour * mHourGap - 1;
+
+        // Make the rectangle be at least mMinEventHeight pixels high
+        if (eventBottom < eventTop + mMinEventHeight) {
+            eventBottom = eventTop + mMinEventHeight;
+        }
+
+        float colWidth = (float) (cellWidth - (maxCols + 1) * mCellMargin) / (float) maxCols;
+        float eventLeft = left + col * (colWidth + mCellMargin);
+        block.top[i] = eventTop;
+        block.bottom[i] = eventBottom;
+        block.left[i] = eventLeft;
+        block.right[i] = eventLeft + colWidth;
+        return true;
+    }
+
     /**
      * Returns true if this event intersects the selection region.
      */
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.text.StaticLayout;
+import android.text.TextUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of the text layouts drawn inside event
+ * rectangles. Layouts are keyed by the event, its display text, the layout
+ * width, the text size and the text color, so a layout can be reused across
+ * reloads of the events and across zoom steps that do not change the width
+ * of the event.
+ *
+ * This class is not thread safe and must only be used from the UI thread.
+ */
+public class EventLayoutCache {
+    /**
+     * Widths are rounded down to a multiple of this many pixels so that
+     * small changes in the width of an event do not create a new layout.
+     */
+    public static final int WIDTH_BUCKET = 4;
+
+    private final Key mLookupKey = new Key();
+    private final LinkedHashMap<Key, StaticLayout> mLayouts;
+
+    private static class Key {
+        long id;
+        String title;
+        String location;
+        int width;
+        float textSize;
+        int color;
+        int hash;
+
+        void set(long id, String title, String location, int width, float textSize,
+                int color) {
+            this.id = id;
+            this.title = title;
+            this.location = location;
+            this.width = width;
+            this.textSize = textSize;
+            this.color = color;
+
+            int h = (int) (id ^ (id >>> 32));
+            h = 31 * h + (title == null ? 0 : title.hashCode());
+            h = 31 * h + (location == null ? 0 : location.hashCode());
+            h = 31 * h + width;
+            h = 31 * h + Float.floatToIntBits(textSize);
+            h = 31 * h + color;
+            hash = h;
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.id = id;
+            key.title = title;
+            key.location = location;
+            key.width = width;
+            key.textSize = textSize;
+            key.color = color;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && id == other.id && width == other.width
+                    && textSize == other.textSize && color == other.color
+                    && TextUtils.equals(title, other.title)
+                    && TextUtils.equals(location, other.location);
+        }
+    }
+
+    /**
+     * @param maxLayouts the number of layouts to keep
+     */
+    public EventLayoutCache(final int maxLayouts) {
+        mLayouts = new LinkedHashMap<Key, StaticLayout>(maxLayouts / 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, StaticLayout> eldest) {
+                return size() > maxLayouts;
+            }
+        };
+    }
+
+    /**
+     * Rounds a width down to its bucket. Layouts should be built with the
+     * bucketed width so that they can be found again.
+     */
+    public static int bucketWidth(int width) {
+        return width - width % WIDTH_BUCKET;
+    }
+
+    /**
+     * Returns the cached layout for the given event text, or null.
+     */
+    public StaticLayout get(Event event, int width, float textSize, int color) {
+        mLookupKey.set(event.id, event.displayTitle, event.displayLocation, width, textSize,
+                color);
+        return mLayouts.get(mLookupKey);
+    }
+
+    /**
+     * Caches a layout for the given event text.
+     */
+    public void put(Event event, int width, float textSize, int color, StaticLayout layout) {
+        mLookupKey.set(event.id, event.displayTitle, event.displayLocation, width, textSize,
+                color);
+        mLayouts.put(mLookupKey.copy(), layout);
+    }
+
+    public void clear() {
+        mLayouts.clear();
+    }
+}
@@ -17,40 +17,111 @@
 package com.android.calendar;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Process;
 import android.provider.CalendarContract;
+import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.EventDays;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Loads events on a background thread. Requests are run one at a time in
+ * order of priority: loads for the visible view first, then prefetches of
+ * the adjacent windows, then the days with events for the mini-month. A
+ * new request replaces the pending requests it makes obsolete and, on
+ * Jellybean and later, cancels the provider query of an obsolete request
+ * that is already running.
+ */
 public class EventLoader {
 
+    /** Loads for the view that is on the screen. */
+    private static final int PRIORITY_VISIBLE = 0;
+    /** Speculative loads of the windows next to the visible one. */
+    private static final int PRIORITY_PREFETCH = 1;
+    /** Loads of the days that have events, for the mini-month. */
+    private static final int PRIORITY_EVENT_DAYS = 2;
+
     private Context mContext;
     private Handler mHandler = new Handler();
     private AtomicInteger mSequenceNumber = new AtomicInteger();
 
-    private LinkedBlockingQueue<LoadRequest> mLoaderQueue;
+    // The requests waiting to be run and the one that is running, guarded
+    // by mPending
+    private final ArrayList<LoadRequest> mPending = new ArrayList<LoadRequest>();
+    private LoadRequest mInFlight;
+
     private LoaderThread mLoaderThread;
     private ContentResolver mResolver;
 
-    private static interface LoadRequest {
-        public void processRequest(EventLoader eventLoader);
-        public void skipRequest(EventLoader eventLoader);
+    private static abstract class LoadRequest {
+        private boolean mCanceled;
+        private CancellationSignal mCancellationSignal;
+
+        public abstract void processRequest(EventLoader eventLoader);
+        public abstract void skipRequest(EventLoader eventLoader);
+
+        /**
+         * Returns the priority of the request. Requests with a lower value
+         * run first, and requests with the same priority run in the order
+         * they were made.
+         */
+        public abstract int getPriority();
+
+        /**
+         * Returns true if this request makes the other, older request
+         * obsolete.
+         */
+        public boolean supersedes(LoadRequest other) {
+            return false;
+        }
+
+        /**
+         * Returns a signal that cancels the provider queries of this request,
+         * or null if queries cannot be cancelled on this platform.
+         */
+        public synchronized CancellationSignal getCancellationSignal() {
+            if (mCancellationSignal == null && Utils.isJellybeanOrLater()) {
+                mCancellationSignal = new CancellationSignal();
+                if (mCanceled) {
+                    mCancellationSignal.cancel();
+                }
+            }
+            return mCancellationSignal;
+        }
+
+        public synchronized void cancel() {
+            mCanceled = true;
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
     }
 
-    private static class ShutdownRequest implements LoadRequest {
+    private static class ShutdownRequest extends LoadRequest {
         public void processRequest(EventLoader eventLoader) {
         }
 
         public void skipRequest(EventLoader eventLoader) {
         }
+
+        public int getPriority() {
+            return PRIORITY_VISIBLE;
+        }
+
+        @Override
+        public boolean supersedes(LoadRequest other) {
+            return true;
+        }
     }
 
     /**
@@ -59,7 +130,7 @@ public class EventLoader {
      * and filling in the eventDays array.
      *
      */
-    private static class LoadEventDaysRequest implements LoadRequest {
+    private static class LoadEventDaysRequest extends LoadRequest {
         public int startDay;
         public int numDays;
         public boolean[] eventDays;
@@ -72,6 +143,8 @@ public class EventLoader {
                 CalendarContract.EventDays.STARTDAY, CalendarContract.EventDays.ENDDAY
         };
 
+        private static final String SELECTION = Calendars.VISIBLE + "=1";
+
         public LoadEventDaysRequest(int startDay, int numDays, boolean[] eventDays,
                 final Runnable uiCallback)
         {
@@ -91,7 +164,26 @@ public class EventLoader {
             Arrays.fill(eventDays, false);
 
             //query which days have events
-            Cursor cursor = EventDays.query(cr, startDay, numDays, PROJECTION);
+            Cursor cursor;
+            CancellationSignal signal = getCancellationSignal();
+            if (signal != null) {
+                // Same query as EventDays.query(), but one that can be
+                // cancelled
+                Uri.Builder builder = EventDays.CONTENT_URI.buildUpon();
+                ContentUris.appendId(builder, startDay);
+                ContentUris.appendId(builder, startDay + numDays - 1);
+                try {
+                    cursor = cr.query(builder.build(), PROJECTION, SELECTION, null,
+                            EventDays.STARTDAY, signal);
+                } catch (RuntimeException e) {
+                    if (signal.isCanceled()) {
+                        return;
+                    }
+                    throw e;
+                }
+            } else {
+                cursor = EventDays.query(cr, startDay, numDays, PROJECTION);
+            }
             try {
                 int startDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.STARTDAY);
                 int endDayColumnIndex = cursor.getColumnIndexOrThrow(EventDays.ENDDAY);
@@ -119,9 +211,23 @@ public class EventLoader {
         @Override
         public void skipRequest(EventLoader eventLoader) {
         }
+
+        @Override
+        public int getPriority() {
+            return PRIORITY_EVENT_DAYS;
+        }
+
+        @Override
+        public boolean supersedes(LoadRequest other) {
+            if (!(other instanceof LoadEventDaysRequest)) {
+                return false;
+            }
+            LoadEventDaysRequest days = (LoadEventDaysRequest) other;
+            return rangesOverlap(startDay, numDays, days.startDay, days.numDays);
+        }
     }
 
-    private static class LoadEventsRequest implements LoadRequest {
+    private static class LoadEventsRequest extends LoadRequest {
 
         public int id;
         public int startDay;
@@ -142,11 +248,12 @@ public class EventLoader {
 
         public void processRequest(EventLoader eventLoader) {
             Event.loadEvents(eventLoader.mContext, events, startDay,
-                    numDays, id, eventLoader.mSequenceNumber);
+                    numDays, id, eventLoader.mSequenceNumber, getCancellationSignal());
 
             // Check if we are still the most recent request.
             if (id == eventLoader.mSequenceNumber.get()) {
                 eventLoader.mHandler.post(successCallback);
+                eventLoader.enqueueRequest(new PrefetchEventsRequest(id, startDay, numDays));
             } else {
                 eventLoader.mHandler.post(cancelCallback);
             }
@@ -155,26 +262,115 @@ public class EventLoader {
         public void skipRequest(EventLoader eventLoader) {
             eventLoader.mHandler.post(cancelCallback);
         }
+
+        public int getPriority() {
+            return PRIORITY_VISIBLE;
+        }
+
+        @Override
+        public boolean supersedes(LoadRequest other) {
+            // Only the most recent load is delivered, see processRequest()
+            return other instanceof LoadEventsRequest || other instanceof PrefetchEventsRequest;
+        }
+    }
+
+    /**
+     * Loads the windows before and after a window that was just shown into
+     * the {@link EventCache}. A newer load or prefetch request replaces this
+     * one, and a newer load request stops it between queries.
+     */
+    private static class PrefetchEventsRequest extends LoadRequest {
+
+        public int id;
+        public int startDay;
+        public int numDays;
+
+        public PrefetchEventsRequest(int id, int startDay, int numDays) {
+            this.id = id;
+            this.startDay = startDay;
+            this.numDays = numDays;
+        }
+
+        public void processRequest(EventLoader eventLoader) {
+            eventLoader.prefetchAdjacentDays(id, startDay, numDays, getCancellationSignal());
+        }
+
+        public void skipRequest(EventLoader eventLoader) {
+        }
+
+        public int getPriority() {
+            return PRIORITY_PREFETCH;
+        }
+
+        @Override
+        public boolean supersedes(LoadRequest other) {
+            // Loads that were requested before this one are no longer
+            // delivered, see LoadEventsRequest.processRequest()
+            return other instanceof PrefetchEventsRequest
+                    || (other instanceof LoadEventsRequest
+                            && ((LoadEventsRequest) other).id != id);
+        }
+    }
+
+    private static class LoadEventInstancesRequest extends LoadRequest {
+
+        public long eventId;
+        public int startDay;
+        public int numDays;
+        public ArrayList<Event> events;
+        public Runnable successCallback;
+        public Runnable cancelCallback;
+
+        public LoadEventInstancesRequest(long eventId, int startDay, int numDays,
+                ArrayList<Event> events, final Runnable successCallback,
+                final Runnable cancelCallback) {
+            this.eventId = eventId;
+            this.startDay = startDay;
+            this.numDays = numDays;
+            this.events = events;
+            this.successCallback = successCallback;
+            this.cancelCallback = cancelCallback;
+        }
+
+        public void processRequest(EventLoader eventLoader) {
+            Event.loadEventInstances(eventLoader.mContext, events, eventId, startDay,
+                    startDay + numDays - 1);
+            eventLoader.mHandler.post(successCallback);
+        }
+
+        public void skipRequest(EventLoader eventLoader) {
+            eventLoader.mHandler.post(cancelCallback);
+        }
+
+        public int getPriority() {
+            return PRIORITY_VISIBLE;
+        }
+
+        @Override
+        public boolean supersedes(LoadRequest other) {
+            if (!(other instanceof LoadEventInstancesRequest)) {
+                return false;
+            }
+            LoadEventInstancesRequest instances = (LoadEventInstancesRequest) other;
+            return eventId == instances.eventId
+                    && rangesOverlap(startDay, numDays, instances.startDay, instances.numDays);
+        }
+    }
+
+    private static boolean rangesOverlap(int startDay1, int numDays1, int startDay2,
+            int numDays2) {
+        return startDay1 < startDay2 + numDays2 && startDay2 < startDay1 + numDays1;
     }
 
     private static class LoaderThread extends Thread {
-        LinkedBlockingQueue<LoadRequest> mQueue;
         EventLoader mEventLoader;
 
-        public LoaderThread(LinkedBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
-            mQueue = queue;
+        public LoaderThread(EventLoader eventLoader) {
             mEventLoader = eventLoader;
         }
 
         public void shutdown() {
-            try {
-                mQueue.put(new ShutdownRequest());
-            } catch (InterruptedException ex) {
-                // The put() method fails with InterruptedException if the
-                // queue is full. This should never happen because the queue
-                // has no limit.
-                Log.e("Cal", "LoaderThread.shutdown() interrupted!");
-            }
+            mEventLoader.enqueueRequest(new ShutdownRequest());
         }
 
         @Override
@@ -182,23 +378,18 @@ public class EventLoader {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
             while (true) {
                 try {
-                    // Wait for the next request
-                    LoadRequest request = mQueue.take();
-
-                    // If there are a bunch of requests already waiting, then
-                    // skip all but the most recent request.
-                    while (!mQueue.isEmpty()) {
-                        // Let the request know that it was skipped
-                        request.skipRequest(mEventLoader);
-
-                        // Skip to the next request
-                        request = mQueue.take();
-                    }
+                    // Wait for the most important request
+                    LoadRequest request = mEventLoader.takeRequest();
 
                     if (request instanceof ShutdownRequest) {
+                        mEventLoader.finishRequest(request);
                         return;
                     }
-                    request.processRequest(mEventLoader);
+                    try {
+                        request.processRequest(mEventLoader);
+                    } finally {
+                        mEventLoader.finishRequest(request);
+                    }
                 } catch (InterruptedException ex) {
                     Log.e("Cal", "background LoaderThread interrupted!");
                 }
@@ -208,15 +399,64 @@ public class EventLoader {
 
     public EventLoader(Context context) {
         mContext = context;
-        mLoaderQueue = new LinkedBlockingQueue<LoadRequest>();
         mResolver = context.getContentResolver();
     }
 
+    /**
+     * Adds a request to the pending requests. The pending requests that the
+     * new one makes obsolete are skipped, and the running request is
+     * cancelled if it is obsolete too.
+     */
+    private void enqueueRequest(LoadRequest request) {
+        synchronized (mPending) {
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                LoadRequest pending = mPending.get(i);
+                if (request.supersedes(pending)) {
+                    mPending.remove(i);
+                    pending.skipRequest(this);
+                }
+            }
+            if (mInFlight != null && request.supersedes(mInFlight)) {
+                mInFlight.cancel();
+            }
+            mPending.add(request);
+            mPending.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for a pending request and removes the one with the highest
+     * priority.
+     */
+    private LoadRequest takeRequest() throws InterruptedException {
+        synchronized (mPending) {
+            while (mPending.isEmpty()) {
+                mPending.wait();
+            }
+            int best = 0;
+            for (int i = 1; i < mPending.size(); i++) {
+                if (mPending.get(i).getPriority() < mPending.get(best).getPriority()) {
+                    best = i;
+                }
+            }
+            mInFlight = mPending.remove(best);
+            return mInFlight;
+        }
+    }
+
+    private void finishRequest(LoadRequest request) {
+        synchronized (mPending) {
+            if (mInFlight == request) {
+                mInFlight = null;
+            }
+        }
+    }
+
     /**
      * Call this from the activity's onResume()
      */
     public void startBackgroundThread() {
-        mLoaderThread = new LoaderThread(mLoaderQueue, this);
+        mLoaderThread = new LoaderThread(this);
         mLoaderThread.start();
     }
 
@@ -248,16 +488,66 @@ public class EventLoader {
         LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays,
                 events, successCallback, cancelCallback);
 
+        enqueueRequest(request);
+    }
+
+    /**
+     * Copies the "numDays" days worth of events starting at startDay into
+     * events if they are all in the {@link EventCache}, so that the caller
+     * can show them without waiting for the background thread. Loads that
+     * are still pending are cancelled and the adjacent days are prefetched.
+     *
+     * @return true if the events were cached and events was filled in
+     */
+    public boolean loadCachedEvents(int numDays, ArrayList<Event> events, int startDay) {
+        SharedPreferences prefs = GeneralPreferences.getSharedPreferences(mContext);
+        boolean hideDeclined = prefs.getBoolean(GeneralPreferences.KEY_HIDE_DECLINED, false);
+
+        events.clear();
+        if (!EventCache.getInstance(mContext).getEvents(startDay, startDay + numDays - 1,
+                hideDeclined, events)) {
+            return false;
+        }
+        EventCache.sortAndDedupe(events, EventCache.DAY_VIEW_ORDER);
+
+        int id = mSequenceNumber.incrementAndGet();
+        enqueueRequest(new PrefetchEventsRequest(id, startDay, numDays));
+        return true;
+    }
+
+    /**
+     * Runs on the background thread after the events starting at startDay
+     * were loaded, and warms the cache with the windows of the same size
+     * after and before them at a lower thread priority.
+     */
+    private void prefetchAdjacentDays(int id, int startDay, int numDays,
+            CancellationSignal cancellationSignal) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
         try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventsInBackground() interrupted!");
+            Event.prefetchEvents(mContext, startDay + numDays, numDays, id, mSequenceNumber,
+                    cancellationSignal);
+            Event.prefetchEvents(mContext, startDay - numDays, numDays, id, mSequenceNumber,
+                    cancellationSignal);
+        } finally {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
         }
     }
 
+    /**
+     * Loads the instances of a single event in the "numDays" days starting at
+     * startDay into events. Posts successCallback to the {@link Handler} for
+     * this view once the instances are loaded, or cancelCallback if the
+     * request was skipped in favor of a newer one.
+     */
+    public void loadEventInstancesInBackground(long eventId, final int numDays,
+            final ArrayList<Event> events, int startDay, final Runnable successCallback,
+            final Runnable cancelCallback) {
+        LoadEventInstancesRequest request = new LoadEventInstancesRequest(eventId, startDay,
+                numDays, events, successCallback, cancelCallback);
+
+        enqueueRequest(request);
+    }
+
     /**
      * Sends a request for the days with events to be marked. Loads "numDays"
      * worth of days, starting at start, and fills in eventDays to express which
@@ -274,13 +564,6 @@ public class EventLoader {
         // Send load request to the background thread
         LoadEventDaysRequest request = new LoadEventDaysRequest(startDay, numDays,
                 eventDays, uiCallback);
-        try {
-            mLoaderQueue.put(request);
-        } catch (InterruptedException ex) {
-            // The put() method fails with InterruptedException if the
-            // queue is full. This should never happen because the queue
-            // has no limit.
-            Log.e("Cal", "loadEventDaysInBackground() interrupted!");
-        }
+        enqueueRequest(request);
     }
 }
@@ -53,7 +53,6 @@ import java.util.Formatter;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -762,7 +761,7 @@ public class Utils {
             return null;
         }
 
-        LinkedList<DNASegment> segments = new LinkedList<DNASegment>();
+        ArrayList<DNASegment> segments = new ArrayList<DNASegment>();
         HashMap<Integer, DNAStrand> strands = new HashMap<Integer, DNAStrand>();
         // add a black strand by default, other colors will get added in
         // the loop
@@ -842,7 +841,7 @@ public class Utils {
             }
             // Now compare our current start time to the end time of the last
             // segment in the list
-            DNASegment lastSegment = segments.getLast();
+            DNASegment lastSegment = segments.get(segments.size() - 1);
             int startMinute = (event.startDay - firstJulianDay) * DAY_IN_MINUTES + event.startTime;
             int endMinute = Math.max((event.endDay - firstJulianDay) * DAY_IN_MINUTES
                     + event.endTime, startMinute + minMinutes);
@@ -977,7 +976,7 @@ public class Utils {
 
     // This processes all the segments, sorts them by color, and generates a
     // list of points to draw
-    private static void weaveDNAStrands(LinkedList<DNASegment> segments, int firstJulianDay,
+    private static void weaveDNAStrands(ArrayList<DNASegment> segments, int firstJulianDay,
             HashMap<Integer, DNAStrand> strands, int top, int bottom, int[] dayXs) {
         // First, get rid of any colors that ended up with no segments
         Iterator<DNAStrand> strandIterator = strands.values().iterator();
@@ -1041,7 +1040,7 @@ public class Utils {
      * Add a new segment based on the event provided. This will handle splitting
      * segments across day boundaries and ensures a minimum size for segments.
      */
-    private static void addNewSegment(LinkedList<DNASegment> segments, Event event,
+    private static void addNewSegment(ArrayList<DNASegment> segments, Event event,
             HashMap<Integer, DNAStrand> strands, int firstJulianDay, int minStart, int minMinutes) {
         if (event.startDay > event.endDay) {
             Log.wtf(TAG, "Event starts after it ends: " + event.toString());
@@ -33,21 +33,18 @@ import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.Formatter;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Locale;
 
 public class AgendaByDayAdapter extends BaseAdapter {
-    private static final int TYPE_DAY = 0;
-    private static final int TYPE_MEETING = 1;
+    private static final int TYPE_DAY = AgendaRowIndex.TYPE_DAY;
+    private static final int TYPE_MEETING = AgendaRowIndex.TYPE_MEETING;
     static final int TYPE_LAST = 2;
 
     private final Context mContext;
     private final AgendaAdapter mAgendaAdapter;
     private final LayoutInflater mInflater;
-    private ArrayList<RowInfo> mRowInfo;
+    private AgendaRowIndex mRows;
     private int mTodayJulianDay;
     private Time mTmpTime;
     private String mTimeZone;
@@ -82,75 +79,61 @@ public class AgendaByDayAdapter extends BaseAdapter {
     }
 
     public long getInstanceId(int position) {
-        if (mRowInfo == null || position >= mRowInfo.size()) {
+        if (mRows == null || position >= mRows.getCount()) {
             return -1;
         }
-        return mRowInfo.get(position).mInstanceId;
+        return mRows.getInstanceId(position);
     }
 
     public long getStartTime(int position) {
-        if (mRowInfo == null || position >= mRowInfo.size()) {
+        if (mRows == null || position >= mRows.getCount()) {
             return -1;
         }
-        return mRowInfo.get(position).mEventStartTimeMilli;
+        return mRows.getStartTime(position);
     }
 
 
     // Returns the position of a header of a specific item
     public int getHeaderPosition(int position) {
-        if (mRowInfo == null || position >= mRowInfo.size()) {
+        if (mRows == null || position >= mRows.getCount()) {
             return -1;
         }
-
-        for (int i = position; i >=0; i --) {
-            RowInfo row = mRowInfo.get(i);
-            if (row != null && row.mType == TYPE_DAY)
-                return i;
-        }
-        return -1;
+        return mRows.getHeaderRow(position);
     }
 
     // Returns the number of items in a section defined by a specific header location
     public int getHeaderItemsCount(int position) {
-        if (mRowInfo == null) {
+        if (mRows == null) {
             return -1;
         }
-        int count = 0;
-        for (int i = position +1; i < mRowInfo.size(); i++) {
-            if (mRowInfo.get(i).mType != TYPE_MEETING) {
-                return count;
-            }
-            count ++;
-        }
-        return count;
+        return mRows.getRowsUntilNextHeader(position);
     }
 
     public int getCount() {
-        if (mRowInfo != null) {
-            return mRowInfo.size();
+        if (mRows != null) {
+            return mRows.getCount();
         }
         return mAgendaAdapter.getCount();
     }
 
     public Object getItem(int position) {
-        if (mRowInfo != null) {
-            RowInfo row = mRowInfo.get(position);
-            if (row.mType == TYPE_DAY) {
-                return row;
+        if (mRows != null) {
+            if (mRows.getType(position) == TYPE_DAY) {
+                // Day headers are identified by their Julian day
+                return mRows.getDay(position);
             } else {
-                return mAgendaAdapter.getItem(row.mPosition);
+                return mAgendaAdapter.getItem(mRows.getCursorPosition(position));
             }
         }
         return mAgendaAdapter.getItem(position);
     }
 
     public long getItemId(int position) {
-        if (mRowInfo != null) {
-            RowInfo row = mRowInfo.get(position);
-            if (row.mType == TYPE_DAY) {
+        if (mRows != null) {
+            if (mRows.getType(position) == TYPE_DAY) {
                 return -position;
             } else {
-                return mAgendaAdapter.getItemId(row.mPosition);
+                return mAgendaAdapter.getItemId(mRows.getCursorPosition(position));
             }
         }
         return mAgendaAdapter.getItemId(position);
@@ -163,8 +146,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     @Override
     public int getItemViewType(int position) {
-        return mRowInfo != null && mRowInfo.size() > position ?
-                mRowInfo.get(position).mType : TYPE_DAY;
+        return mRows != null && mRows.getCount() > position ?
+                mRows.getType(position) : TYPE_DAY;
     }
 
     public boolean isDayHeaderView(int position) {
@@ -172,13 +155,15 @@ public class AgendaByDayAdapter extends BaseAdapter {
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
-        if ((mRowInfo == null) || (position > mRowInfo.size())) {
+        if ((mRows == null) || (position > mRows.getCount())) {
             // If we have no row info, mAgendaAdapter returns the view.
             return mAgendaAdapter.getView(position, convertView, parent);
         }
 
-        RowInfo row = mRowInfo.get(position);
-        if (row.mType == TYPE_DAY) {
+        final AgendaRowIndex rows = mRows;
+        final int type = rows.getType(position);
+        final int day = rows.getDay(position);
+        if (type == TYPE_DAY) {
             ViewHolder holder = null;
             View agendaDayView = null;
             if ((convertView != null) && (convertView.getTag() != null)) {
@@ -188,7 +173,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 if (tag instanceof ViewHolder) {
                     agendaDayView = convertView;
                     holder = (ViewHolder) tag;
-                    holder.julianDay = row.mDay;
+                    holder.julianDay = day;
                 }
             }
 
@@ -199,7 +184,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 agendaDayView = mInflater.inflate(R.layout.agenda_day, parent, false);
                 holder.dayView = (TextView) agendaDayView.findViewById(R.id.day);
                 holder.dateView = (TextView) agendaDayView.findViewById(R.id.date);
-                holder.julianDay = row.mDay;
+                holder.julianDay = day;
                 holder.grayed = false;
                 agendaDayView.setTag(holder);
             }
@@ -218,11 +203,11 @@ public class AgendaByDayAdapter extends BaseAdapter {
             // Should be yesterday/today/tomorrow (if applicable) + day of the week
 
             Time date = mTmpTime;
-            long millis = date.setJulianDay(row.mDay);
+            long millis = date.setJulianDay(day);
             int flags = DateUtils.FORMAT_SHOW_WEEKDAY;
             mStringBuilder.setLength(0);
 
-            String dayViewText = Utils.getDayOfWeekString(row.mDay, mTodayJulianDay, millis,
+            String dayViewText = Utils.getDayOfWeekString(day, mTodayJulianDay, millis,
                     mContext);
 
             // Build text for the date
@@ -241,7 +226,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
             holder.dateView.setText(dateViewText);
 
             // Set the background of the view, it is grayed for day that are in the past and today
-            if (row.mDay > mTodayJulianDay) {
+            if (day > mTodayJulianDay) {
                 agendaDayView.setBackgroundResource(R.drawable.agenda_item_bg_primary);
                 holder.grayed = false;
             } else {
@@ -249,14 +234,16 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 holder.grayed = true;
             }
             return agendaDayView;
-        } else if (row.mType == TYPE_MEETING) {
-            View itemView = mAgendaAdapter.getView(row.mPosition, convertView, parent);
+        } else if (type == TYPE_MEETING) {
+            View itemView = mAgendaAdapter.getView(rows.getCursorPosition(position), convertView,
+                    parent);
             AgendaAdapter.ViewHolder holder = ((AgendaAdapter.ViewHolder) itemView.getTag());
             TextView title = holder.title;
             // The holder in the view stores information from the cursor, but the cursor has no
             // notion of multi-day event and the start time of each instance of a multi-day event
-            // is the same.  RowInfo has the correct info , so take it from there.
-            holder.startTimeMilli = row.mEventStartTimeMilli;
+            // is the same.  The row index has the correct info , so take it from there.
+            long startTime = rows.getStartTime(position);
+            holder.startTimeMilli = startTime;
             boolean allDay = holder.allDay;
             if (AgendaWindowAdapter.BASICLOG) {
                 title.setText(title.getText() + " P:" + position);
@@ -265,8 +252,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
             }
 
             // if event in the past or started already, un-bold the title and set the background
-            if ((!allDay && row.mEventStartTimeMilli <= System.currentTimeMillis()) ||
-                    (allDay && row.mDay <= mTodayJulianDay)) {
+            if ((!allDay && startTime <= System.currentTimeMillis()) ||
+                    (allDay && day <= mTodayJulianDay)) {
                 itemView.setBackgroundResource(R.drawable.agenda_item_bg_secondary);
                 title.setTypeface(Typeface.DEFAULT);
                 holder.grayed = true;
@@ -275,220 +262,43 @@ public class AgendaByDayAdapter extends BaseAdapter {
                 title.setTypeface(Typeface.DEFAULT_BOLD);
                 holder.grayed = false;
             }
-            holder.julianDay = row.mDay;
+            holder.julianDay = day;
             return itemView;
         } else {
             // Error
-            throw new IllegalStateException("Unknown event type:" + row.mType);
+            throw new IllegalStateException("Unknown event type:" + type);
         }
     }
 
     public void clearDayHeaderInfo() {
-        mRowInfo = null;
+        mRows = null;
     }
 
-    public void changeCursor(DayAdapterInfo info) {
-        calculateDays(info);
+    /**
+     * Switches to the cursor of info, with rows that were already built from
+     * it, e.g. on a background thread.
+     */
+    void changeCursor(DayAdapterInfo info, AgendaRowIndex rows) {
+        setRows(rows);
         mAgendaAdapter.changeCursor(info.cursor);
     }
 
-    public void calculateDays(DayAdapterInfo dayAdapterInfo) {
-        Cursor cursor = dayAdapterInfo.cursor;
-        ArrayList<RowInfo> rowInfo = new ArrayList<RowInfo>();
-        int prevStartDay = -1;
+    /**
+     * Lets go of the cursor without closing it, so that it can be kept in
+     * the window cache.
+     */
+    void detachCursor() {
+        mRows = null;
+        mAgendaAdapter.swapCursor(null);
+    }
 
+    private void setRows(AgendaRowIndex rows) {
         Time tempTime = new Time(mTimeZone);
         long now = System.currentTimeMillis();
         tempTime.set(now);
         mTodayJulianDay = Time.getJulianDay(now, tempTime.gmtoff);
 
-        LinkedList<MultipleDayInfo> multipleDayList = new LinkedList<MultipleDayInfo>();
-        for (int position = 0; cursor.moveToNext(); position++) {
-            int startDay = cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
-            long id = cursor.getLong(AgendaWindowAdapter.INDEX_EVENT_ID);
-            long startTime =  cursor.getLong(AgendaWindowAdapter.INDEX_BEGIN);
-            long endTime =  cursor.getLong(AgendaWindowAdapter.INDEX_END);
-            long instanceId = cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
-            boolean allDay = cursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0;
-            if (allDay) {
-                startTime = Utils.convertAlldayUtcToLocal(tempTime, startTime, mTimeZone);
-                endTime = Utils.convertAlldayUtcToLocal(tempTime, endTime, mTimeZone);
-            }
-            // Skip over the days outside of the adapter's range
-            startDay = Math.max(startDay, dayAdapterInfo.start);
-            // Make sure event's start time is not before the start of the day
-            // (setJulianDay sets the time to 12:00am)
-            long adapterStartTime = tempTime.setJulianDay(startDay);
-            startTime = Math.max(startTime, adapterStartTime);
-
-            if (startDay != prevStartDay) {
-                // Check if we skipped over any empty days
-                if (prevStartDay == -1) {
-                    rowInfo.add(new RowInfo(TYPE_DAY, startDay));
-                } else {
-                    // If there are any multiple-day events that span the empty
-                    // range of days, then create day headers and events for
-                    // those multiple-day events.
-                    boolean dayHeaderAdded = false;
-                    for (int currentDay = prevStartDay + 1; currentDay <= startDay; currentDay++) {
-                        dayHeaderAdded = false;
-                        Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
-                        while (iter.hasNext()) {
-                            MultipleDayInfo info = iter.next();
-                            // If this event has ended then remove it from the
-                            // list.
-                            if (info.mEndDay < currentDay) {
-                                iter.remove();
-                                continue;
-                            }
-
-                            // If this is the first event for the day, then
-                            // insert a day header.
-                            if (!dayHeaderAdded) {
-                                rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
-                                dayHeaderAdded = true;
-                            }
-                            long nextMidnight = Utils.getNextMidnight(tempTime,
-                                    info.mEventStartTimeMilli, mTimeZone);
-
-                            long infoEndTime = (info.mEndDay == currentDay) ?
-                                    info.mEventEndTimeMilli : nextMidnight;
-                            rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
-                                    info.mEventId, info.mEventStartTimeMilli,
-                                    infoEndTime, info.mInstanceId, info.mAllDay));
-
-                            info.mEventStartTimeMilli = nextMidnight;
-                        }
-                    }
-
-                    // If the day header was not added for the start day, then
-                    // add it now.
-                    if (!dayHeaderAdded) {
-                        rowInfo.add(new RowInfo(TYPE_DAY, startDay));
-                    }
-                }
-                prevStartDay = startDay;
-            }
-
-            // If this event spans multiple days, then add it to the multipleDay
-            // list.
-            int endDay = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
-
-            // Skip over the days outside of the adapter's range
-            endDay = Math.min(endDay, dayAdapterInfo.end);
-            if (endDay > startDay) {
-                long nextMidnight = Utils.getNextMidnight(tempTime, startTime, mTimeZone);
-                multipleDayList.add(new MultipleDayInfo(position, endDay, id, nextMidnight,
-                        endTime, instanceId, allDay));
-                // Add in the event for this cursor position - since it is the start of a multi-day
-                // event, the end time is midnight
-                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime,
-                        nextMidnight, instanceId, allDay));
-            } else {
-                // Add in the event for this cursor position
-                rowInfo.add(new RowInfo(TYPE_MEETING, startDay, position, id, startTime, endTime,
-                        instanceId, allDay));
-            }
-        }
-
-        // There are no more cursor events but we might still have multiple-day
-        // events left.  So create day headers and events for those.
-        if (prevStartDay > 0) {
-            for (int currentDay = prevStartDay + 1; currentDay <= dayAdapterInfo.end;
-                    currentDay++) {
-                boolean dayHeaderAdded = false;
-                Iterator<MultipleDayInfo> iter = multipleDayList.iterator();
-                while (iter.hasNext()) {
-                    MultipleDayInfo info = iter.next();
-                    // If this event has ended then remove it from the
-                    // list.
-                    if (info.mEndDay < currentDay) {
-                        iter.remove();
-                        continue;
-                    }
-
-                    // If this is the first event for the day, then
-                    // insert a day header.
-                    if (!dayHeaderAdded) {
-                        rowInfo.add(new RowInfo(TYPE_DAY, currentDay));
-                        dayHeaderAdded = true;
-                    }
-                    long nextMidnight = Utils.getNextMidnight(tempTime, info.mEventStartTimeMilli,
-                            mTimeZone);
-                    long infoEndTime =
-                            (info.mEndDay == currentDay) ? info.mEventEndTimeMilli : nextMidnight;
-                    rowInfo.add(new RowInfo(TYPE_MEETING, currentDay, info.mPosition,
-                            info.mEventId, info.mEventStartTimeMilli, infoEndTime,
-                            info.mInstanceId, info.mAllDay));
-
-                    info.mEventStartTimeMilli = nextMidnight;
-                }
-            }
-        }
-        mRowInfo = rowInfo;
-    }
-
-    private static class RowInfo {
-        // mType is either a day header (TYPE_DAY) or an event (TYPE_MEETING)
-        final int mType;
-
-        final int mDay;          // Julian day
-        final int mPosition;     // cursor position (not used for TYPE_DAY)
-        // This is used to mark a day header as the first day with events that is "today"
-        // or later. This flag is used by the adapter to create a view with a visual separator
-        // between the past and the present/future
-        boolean mFirstDayAfterYesterday;
-        final long mEventId;
-        final long mEventStartTimeMilli;
-        final long mEventEndTimeMilli;
-        final long mInstanceId;
-        final boolean mAllDay;
-
-        RowInfo(int type, int julianDay, int position, long id, long startTime, long endTime,
-                long instanceId, boolean allDay) {
-            mType = type;
-            mDay = julianDay;
-            mPosition = position;
-            mEventId = id;
-            mEventStartTimeMilli = startTime;
-            mEventEndTimeMilli = endTime;
-            mFirstDayAfterYesterday = false;
-            mInstanceId = instanceId;
-            mAllDay = allDay;
-        }
-
-        RowInfo(int type, int julianDay) {
-            mType = type;
-            mDay = julianDay;
-            mPosition = 0;
-            mEventId = 0;
-            mEventStartTimeMilli = 0;
-            mEventEndTimeMilli = 0;
-            mFirstDayAfterYesterday = false;
-            mInstanceId = -1;
-            mAllDay = false;
-        }
-    }
-
-    private static class MultipleDayInfo {
-        final int mPosition;
-        final int mEndDay;
-        final long mEventId;
-        long mEventStartTimeMilli;
-        long mEventEndTimeMilli;
-        final long mInstanceId;
-        final boolean mAllDay;
-
-        MultipleDayInfo(int position, int endDay, long id, long startTime, long endTime,
-                long instanceId, boolean allDay) {
-            mPosition = position;
-            mEndDay = endDay;
-            mEventId = id;
-            mEventStartTimeMilli = startTime;
-            mEventEndTimeMilli = endTime;
-            mInstanceId = instanceId;
-            mAllDay = allDay;
-        }
+        mRows = rows;
     }
 
     /**
@@ -503,7 +313,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
      *         Zero if no event found
      */
     public int findEventPositionNearestTime(Time time, long id) {
-        if (mRowInfo == null) {
+        final AgendaRowIndex rows = mRows;
+        if (rows == null) {
             return 0;
         }
         long millis = time.toMillis(false /* use isDst */);
@@ -516,7 +327,7 @@ public class AgendaByDayAdapter extends BaseAdapter {
         int allDayEventDay = 0;
         int minDay = 0;
         boolean idFound = false;
-        int len = mRowInfo.size();
+        int len = rows.getCount();
 
         // Loop through the events and find the best match
         // 1. Event id and start time matches requested id and time
@@ -527,19 +338,19 @@ public class AgendaByDayAdapter extends BaseAdapter {
         // 6. The closest event to the requested time
 
         for (int index = 0; index < len; index++) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mType == TYPE_DAY) {
+            if (rows.getType(index) == TYPE_DAY) {
                 continue;
             }
+            long startTime = rows.getStartTime(index);
 
             // Found exact match - done
-            if (row.mEventId == id) {
-                if (row.mEventStartTimeMilli == millis) {
+            if (rows.getEventId(index) == id) {
+                if (startTime == millis) {
                     return index;
                 }
 
                 // Not an exact match, Save event index if it is the closest to time so far
-                long distance = Math.abs(millis - row.mEventStartTimeMilli);
+                long distance = Math.abs(millis - startTime);
                 if (distance < idFoundMinDistance) {
                     idFoundMinDistance = distance;
                     idFoundMinIndex = index;
@@ -548,22 +359,22 @@ public class AgendaByDayAdapter extends BaseAdapter {
             }
             if (!idFound) {
                 // Found an event that contains the requested time
-                if (millis >= row.mEventStartTimeMilli && millis <= row.mEventEndTimeMilli) {
-                    if (row.mAllDay) {
+                if (millis >= startTime && millis <= rows.getEndTime(index)) {
+                    if (rows.isAllDay(index)) {
                         if (allDayEventInTimeIndex == -1) {
                             allDayEventInTimeIndex = index;
-                            allDayEventDay = row.mDay;
+                            allDayEventDay = rows.getDay(index);
                         }
                     } else if (eventInTimeIndex == -1){
                         eventInTimeIndex = index;
                     }
                 } else if (eventInTimeIndex == -1){
                     // Save event index if it is the closest to time so far
-                    long distance = Math.abs(millis - row.mEventStartTimeMilli);
+                    long distance = Math.abs(millis - startTime);
                     if (distance < minDistance) {
                         minDistance = distance;
                         minIndex = index;
-                        minDay = row.mDay;
+                        minDay = rows.getDay(index);
                     }
                 }
             }
@@ -594,9 +405,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
      */
     public boolean isFirstDayAfterYesterday(int position) {
         int headerPos = getHeaderPosition(position);
-        RowInfo row = mRowInfo.get(headerPos);
-        if (row != null) {
-            return row.mFirstDayAfterYesterday;
+        if (headerPos >= 0) {
+            return mRows.isFirstDayAfterYesterday(headerPos);
         }
         return false;
     }
@@ -608,20 +418,28 @@ public class AgendaByDayAdapter extends BaseAdapter {
      * @return the Julian day containing that event
      */
     public int findJulianDayFromPosition(int position) {
-        if (mRowInfo == null || position < 0) {
+        if (mRows == null || position < 0) {
             return 0;
         }
 
-        int len = mRowInfo.size();
+        int len = mRows.getCount();
         if (position >= len) return 0;  // no row info at this position
 
-        for (int index = position; index >= 0; index--) {
-            RowInfo row = mRowInfo.get(index);
-            if (row.mType == TYPE_DAY) {
-                return row.mDay;
-            }
+        int headerPos = mRows.getHeaderRow(position);
+        return headerPos >= 0 ? mRows.getDay(headerPos) : 0;
+    }
+
+    /**
+     * Finds the position of the first day header on or after the given day.
+     *
+     * @param julianDay the Julian day to look for
+     * @return the position of the day header or -1 if there is none
+     */
+    public int findHeaderPositionOnOrAfter(int julianDay) {
+        if (mRows == null) {
+            return -1;
         }
-        return 0;
+        return mRows.getHeaderRowOnOrAfter(julianDay);
     }
 
     /**
@@ -631,11 +449,10 @@ public class AgendaByDayAdapter extends BaseAdapter {
      * @param position in the adapter
      */
     public void setAsFirstDayAfterYesterday(int position) {
-        if (mRowInfo == null || position < 0 || position > mRowInfo.size()) {
+        if (mRows == null || position < 0 || position >= mRows.getCount()) {
             return;
         }
-        RowInfo row = mRowInfo.get(position);
-        row.mFirstDayAfterYesterday = true;
+        mRows.setFirstDayAfterYesterday(position);
     }
 
     /**
@@ -648,13 +465,12 @@ public class AgendaByDayAdapter extends BaseAdapter {
      *         negated.
      */
     public int getCursorPosition(int listPos) {
-        if (mRowInfo != null && listPos >= 0) {
-            RowInfo row = mRowInfo.get(listPos);
-            if (row.mType == TYPE_MEETING) {
-                return row.mPosition;
+        if (mRows != null && listPos >= 0) {
+            if (mRows.getType(listPos) == TYPE_MEETING) {
+                return mRows.getCursorPosition(listPos);
             } else {
                 int nextPos = listPos + 1;
-                if (nextPos < mRowInfo.size()) {
+                if (nextPos < mRows.getCount()) {
                     nextPos = getCursorPosition(nextPos);
                     if (nextPos >= 0) {
                         return -nextPos;
@@ -672,9 +488,8 @@ public class AgendaByDayAdapter extends BaseAdapter {
 
     @Override
     public boolean isEnabled(int position) {
-        if (mRowInfo != null && position < mRowInfo.size()) {
-            RowInfo row = mRowInfo.get(position);
-            return row.mType == TYPE_MEETING;
+        if (mRows != null && position < mRows.getCount()) {
+            return mRows.getType(position) == TYPE_MEETING;
         }
         return true;
     }
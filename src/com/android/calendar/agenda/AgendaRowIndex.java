@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import com.android.calendar.Utils;
+
+import android.database.Cursor;
+import android.text.format.Time;
+
+import java.util.Arrays;
+
+/**
+ * The rows of an {@link AgendaByDayAdapter}: a header for every day that has
+ * events, followed by a row for each event on that day. Events that span
+ * several days get a row on every day they cover.
+ *
+ * The rows are kept in parallel primitive arrays instead of one object per
+ * row, and are built in a single pass over an agenda cursor, so a window with
+ * many multi-day events doesn't produce garbage for every row.
+ */
+class AgendaRowIndex {
+    static final int TYPE_DAY = 0;
+    static final int TYPE_MEETING = 1;
+
+    private static final int FLAG_ALL_DAY = 1;
+    // Marks a day header as the first day with events that is "today" or later.
+    // This flag is used by the adapter to create a view with a visual separator
+    // between the past and the present/future
+    private static final int FLAG_FIRST_DAY_AFTER_YESTERDAY = 2;
+
+    private static final long NO_MIDNIGHT = Long.MIN_VALUE;
+
+    private int mCount;
+    private int[] mTypes;
+    private int[] mDays;           // Julian day
+    private int[] mPositions;      // cursor position (not used for TYPE_DAY)
+    private int[] mFlags;
+    private long[] mEventIds;
+    private long[] mStartTimes;
+    private long[] mEndTimes;
+    private long[] mInstanceIds;
+
+    // The rows of the day headers. Days increase with the rows, so both the
+    // rows and their days are sorted.
+    private int mHeaderCount;
+    private int[] mHeaderRows;
+
+    // The multi-day events that still need a row on the coming days, in the
+    // order they were read. mPendingRows is the row of their first day.
+    private int mPendingCount;
+    private int[] mPendingRows;
+    private int[] mPendingEndDays;
+    private long[] mPendingStartTimes;
+    private long[] mPendingEndTimes;
+
+    private final Time mTime;
+    private final String mTimeZone;
+    // The start of each day of the adapter's range, computed once per day
+    private final int mFirstMidnightDay;
+    private final long[] mMidnights;
+
+    /**
+     * Builds the rows for the events of the cursor, from its current position
+     * to the end. Days outside of startDay to endDay are skipped.
+     *
+     * @param cursor a cursor with the columns of the agenda query, sorted by
+     *            start day
+     * @param startDay the first Julian day of the cursor's coverage
+     * @param endDay the last Julian day of the cursor's coverage
+     * @param timeZone the time zone to display the events in
+     */
+    AgendaRowIndex(Cursor cursor, int startDay, int endDay, String timeZone) {
+        mTimeZone = timeZone;
+        mTime = new Time(timeZone);
+        mFirstMidnightDay = startDay;
+        mMidnights = new long[Math.max(endDay - startDay + 2, 0)];
+        Arrays.fill(mMidnights, NO_MIDNIGHT);
+
+        int capacity = Math.max(cursor.getCount() * 2, 16);
+        mTypes = new int[capacity];
+        mDays = new int[capacity];
+        mPositions = new int[capacity];
+        mFlags = new int[capacity];
+        mEventIds = new long[capacity];
+        mStartTimes = new long[capacity];
+        mEndTimes = new long[capacity];
+        mInstanceIds = new long[capacity];
+        mHeaderRows = new int[16];
+        mPendingRows = new int[8];
+        mPendingEndDays = new int[8];
+        mPendingStartTimes = new long[8];
+        mPendingEndTimes = new long[8];
+
+        build(cursor, startDay, endDay);
+    }
+
+    private void build(Cursor cursor, int rangeStart, int rangeEnd) {
+        Time tempTime = mTime;
+        int prevStartDay = -1;
+        for (int position = cursor.getPosition() + 1; cursor.moveToNext(); position++) {
+            int startDay = cursor.getInt(AgendaWindowAdapter.INDEX_START_DAY);
+            long id = cursor.getLong(AgendaWindowAdapter.INDEX_EVENT_ID);
+            long startTime = cursor.getLong(AgendaWindowAdapter.INDEX_BEGIN);
+            long endTime = cursor.getLong(AgendaWindowAdapter.INDEX_END);
+            long instanceId = cursor.getLong(AgendaWindowAdapter.INDEX_INSTANCE_ID);
+            boolean allDay = cursor.getInt(AgendaWindowAdapter.INDEX_ALL_DAY) != 0;
+            if (allDay) {
+                startTime = Utils.convertAlldayUtcToLocal(tempTime, startTime, mTimeZone);
+                endTime = Utils.convertAlldayUtcToLocal(tempTime, endTime, mTimeZone);
+            }
+            // Skip over the days outside of the adapter's range
+            startDay = Math.max(startDay, rangeStart);
+            // Make sure event's start time is not before the start of the day
+            startTime = Math.max(startTime, getMidnight(startDay));
+
+            if (startDay != prevStartDay) {
+                // Check if we skipped over any empty days
+                if (prevStartDay == -1) {
+                    addDay(startDay);
+                } else {
+                    // If there are any multiple-day events that span the empty
+                    // range of days, then create day headers and events for
+                    // those multiple-day events.
+                    boolean dayHeaderAdded = false;
+                    for (int currentDay = prevStartDay + 1; currentDay <= startDay; currentDay++) {
+                        dayHeaderAdded = addPendingRows(currentDay);
+                    }
+
+                    // If the day header was not added for the start day, then
+                    // add it now.
+                    if (!dayHeaderAdded) {
+                        addDay(startDay);
+                    }
+                }
+                prevStartDay = startDay;
+            }
+
+            // If this event spans multiple days, then add it to the pending
+            // events.
+            int endDay = cursor.getInt(AgendaWindowAdapter.INDEX_END_DAY);
+
+            // Skip over the days outside of the adapter's range
+            endDay = Math.min(endDay, rangeEnd);
+            int flags = allDay ? FLAG_ALL_DAY : 0;
+            if (endDay > startDay) {
+                long nextMidnight = getNextMidnight(startTime, startDay);
+                // Add in the event for this cursor position - since it is the start of a multi-day
+                // event, the end time is midnight
+                int row = addMeeting(startDay, position, id, startTime, nextMidnight, instanceId,
+                        flags);
+                addPending(row, endDay, nextMidnight, endTime);
+            } else {
+                // Add in the event for this cursor position
+                addMeeting(startDay, position, id, startTime, endTime, instanceId, flags);
+            }
+        }
+
+        // There are no more cursor events but we might still have multiple-day
+        // events left.  So create day headers and events for those.
+        if (prevStartDay > 0) {
+            for (int currentDay = prevStartDay + 1; currentDay <= rangeEnd; currentDay++) {
+                addPendingRows(currentDay);
+            }
+        }
+        mPendingRows = null;
+        mPendingEndDays = null;
+        mPendingStartTimes = null;
+        mPendingEndTimes = null;
+    }
+
+    /**
+     * Adds a row on the given day for each pending multi-day event that
+     * covers it, preceded by a day header, and drops the events that have
+     * ended.
+     *
+     * @return true if a day header was added
+     */
+    private boolean addPendingRows(int day) {
+        boolean dayHeaderAdded = false;
+        int kept = 0;
+        for (int i = 0; i < mPendingCount; i++) {
+            int endDay = mPendingEndDays[i];
+            // If this event has ended then remove it from the list.
+            if (endDay < day) {
+                continue;
+            }
+
+            // If this is the first event for the day, then insert a day header.
+            if (!dayHeaderAdded) {
+                addDay(day);
+                dayHeaderAdded = true;
+            }
+            int row = mPendingRows[i];
+            long startTime = mPendingStartTimes[i];
+            long nextMidnight = getNextMidnight(startTime, day);
+            long endTime = (endDay == day) ? mPendingEndTimes[i] : nextMidnight;
+            addMeeting(day, mPositions[row], mEventIds[row], startTime, endTime,
+                    mInstanceIds[row], mFlags[row] & FLAG_ALL_DAY);
+
+            mPendingRows[kept] = row;
+            mPendingEndDays[kept] = endDay;
+            mPendingStartTimes[kept] = nextMidnight;
+            mPendingEndTimes[kept] = mPendingEndTimes[i];
+            kept++;
+        }
+        mPendingCount = kept;
+        return dayHeaderAdded;
+    }
+
+    private void addPending(int row, int endDay, long startTime, long endTime) {
+        if (mPendingCount == mPendingRows.length) {
+            int capacity = mPendingCount * 2;
+            mPendingRows = Arrays.copyOf(mPendingRows, capacity);
+            mPendingEndDays = Arrays.copyOf(mPendingEndDays, capacity);
+            mPendingStartTimes = Arrays.copyOf(mPendingStartTimes, capacity);
+            mPendingEndTimes = Arrays.copyOf(mPendingEndTimes, capacity);
+        }
+        mPendingRows[mPendingCount] = row;
+        mPendingEndDays[mPendingCount] = endDay;
+        mPendingStartTimes[mPendingCount] = startTime;
+        mPendingEndTimes[mPendingCount] = endTime;
+        mPendingCount++;
+    }
+
+    private void addDay(int day) {
+        int row = addRow(TYPE_DAY, day, 0, 0, 0, 0, -1, 0);
+        if (mHeaderCount == mHeaderRows.length) {
+            mHeaderRows = Arrays.copyOf(mHeaderRows, mHeaderCount * 2);
+        }
+        mHeaderRows[mHeaderCount++] = row;
+    }
+
+    private int addMeeting(int day, int position, long id, long startTime, long endTime,
+            long instanceId, int flags) {
+        return addRow(TYPE_MEETING, day, position, id, startTime, endTime, instanceId, flags);
+    }
+
+    private int addRow(int type, int day, int position, long id, long startTime, long endTime,
+            long instanceId, int flags) {
+        if (mCount == mTypes.length) {
+            int capacity = mCount * 2;
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mDays = Arrays.copyOf(mDays, capacity);
+            mPositions = Arrays.copyOf(mPositions, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mEventIds = Arrays.copyOf(mEventIds, capacity);
+            mStartTimes = Arrays.copyOf(mStartTimes, capacity);
+            mEndTimes = Arrays.copyOf(mEndTimes, capacity);
+            mInstanceIds = Arrays.copyOf(mInstanceIds, capacity);
+        }
+        int row = mCount++;
+        mTypes[row] = type;
+        mDays[row] = day;
+        mPositions[row] = position;
+        mFlags[row] = flags;
+        mEventIds[row] = id;
+        mStartTimes[row] = startTime;
+        mEndTimes[row] = endTime;
+        mInstanceIds[row] = instanceId;
+        return row;
+    }
+
+    /**
+     * Returns the start of the given day, see {@link Time#setJulianDay}.
+     */
+    private long getMidnight(int julianDay) {
+        int i = julianDay - mFirstMidnightDay;
+        if (i < 0 || i >= mMidnights.length) {
+            return mTime.setJulianDay(julianDay);
+        }
+        long midnight = mMidnights[i];
+        if (midnight == NO_MIDNIGHT) {
+            midnight = mTime.setJulianDay(julianDay);
+            mMidnights[i] = midnight;
+        }
+        return midnight;
+    }
+
+    /**
+     * Returns the first midnight after the given time, like
+     * {@link Utils#getNextMidnight}, looking up the cached day boundaries
+     * starting from julianDay instead of normalizing a {@link Time}.
+     */
+    private long getNextMidnight(long millis, int julianDay) {
+        int day = julianDay;
+        while (getMidnight(day) > millis) {
+            day--;
+        }
+        long next = getMidnight(day + 1);
+        while (next <= millis) {
+            day++;
+            next = getMidnight(day + 1);
+        }
+        return next;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the row of the day header of the given row, which is the row
+     * itself for a header, or -1 if there is none.
+     */
+    int getHeaderRow(int row) {
+        int i = findHeader(row);
+        return i >= 0 ? mHeaderRows[i] : -1;
+    }
+
+    /**
+     * Returns the number of event rows under the day header that precedes
+     * or is at the given row, counted from the row after it.
+     */
+    int getRowsUntilNextHeader(int row) {
+        int next = findHeader(row) + 1;
+        int nextRow = next < mHeaderCount ? mHeaderRows[next] : mCount;
+        return Math.max(nextRow - row - 1, 0);
+    }
+
+    /**
+     * Returns the row of the first day header on or after the given Julian
+     * day, or -1 if there is none.
+     */
+    int getHeaderRowOnOrAfter(int julianDay) {
+        int low = 0;
+        int high = mHeaderCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mDays[mHeaderRows[mid]] < julianDay) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low < mHeaderCount ? mHeaderRows[low] : -1;
+    }
+
+    /**
+     * Returns the index in mHeaderRows of the last header at or before the
+     * row, or -1 if the row precedes the first header.
+     */
+    private int findHeader(int row) {
+        int low = 0;
+        int high = mHeaderCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mHeaderRows[mid] <= row) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    int getType(int row) {
+        return mTypes[row];
+    }
+
+    int getDay(int row) {
+        return mDays[row];
+    }
+
+    int getCursorPosition(int row) {
+        return mPositions[row];
+    }
+
+    long getEventId(int row) {
+        return mEventIds[row];
+    }
+
+    long getStartTime(int row) {
+        return mStartTimes[row];
+    }
+
+    long getEndTime(int row) {
+        return mEndTimes[row];
+    }
+
+    long getInstanceId(int row) {
+        return mInstanceIds[row];
+    }
+
+    boolean isAllDay(int row) {
+        return (mFlags[row] & FLAG_ALL_DAY) != 0;
+    }
+
+    boolean isFirstDayAfterYesterday(int row) {
+        return (mFlags[row] & FLAG_FIRST_DAY_AFTER_YESTERDAY) != 0;
+    }
+
+    void setFirstDayAfterYesterday(int row) {
+        mFlags[row] |= FLAG_FIRST_DAY_AFTER_YESTERDAY;
+    }
+}
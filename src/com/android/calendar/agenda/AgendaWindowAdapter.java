@@ -24,6 +24,8 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.Calendars;
@@ -131,10 +133,16 @@ public class AgendaWindowAdapter extends BaseAdapter
     // position == positionInListView - OFF_BY_ONE_BUG
     // TODO Need to look into this.
     private static final int OFF_BY_ONE_BUG = 1;
-    private static final int MAX_NUM_OF_ADAPTERS = 5;
+    private static final int MAX_NUM_OF_ADAPTERS = 20;
+    private static final int MIN_NUM_OF_ADAPTERS = 2;
+    // Estimated memory the cursors shown in the list may use, see AgendaWindowCache
+    private static final int MAX_LIVE_WINDOW_BYTES = 512 * 1024;
+    // Estimated memory the snapshots of the dropped cursors may use
+    private static final int MAX_CACHED_WINDOW_BYTES = 1024 * 1024;
     private static final int IDEAL_NUM_OF_EVENTS = 50;
     private static final int MIN_QUERY_DURATION = 7; // days
     private static final int MAX_QUERY_DURATION = 60; // days
+    private static final int MAX_PREDICTED_QUERY_DURATION = 180; // days
     private static final int PREFETCH_BOUNDARY = 1;
 
     /** Times to auto-expand/retry query after getting no data */
@@ -151,11 +159,25 @@ public class AgendaWindowAdapter extends BaseAdapter
     /** The number of times we have queried and gotten no results back */
     private int mEmptyCursorCount;
 
+    /** The number of rows per day of past queries, used to size the next ones */
+    private final EventDensityEstimator mDensity = new EventDensityEstimator();
+
     /** Cached value of the last used adapter */
     private DayAdapterInfo mLastUsedInfo;
 
     private final LinkedList<DayAdapterInfo> mAdapterInfos =
             new LinkedList<DayAdapterInfo>();
+    /**
+     * The same adapters as mAdapterInfos, sorted by offset and by day, for
+     * binary searches. Updated whenever mAdapterInfos changes.
+     */
+    private DayAdapterInfo[] mAdapterInfoArray = new DayAdapterInfo[0];
+
+    /** The windows dropped from mAdapterInfos, kept to be shown again */
+    private final AgendaWindowCache mWindowCache =
+            new AgendaWindowCache(MAX_CACHED_WINDOW_BYTES);
+    private final int[] mCachedRange = new int[2];
+
     private final ConcurrentLinkedQueue<QuerySpec> mQueryQueue =
             new ConcurrentLinkedQueue<QuerySpec>();
     private final TextView mHeaderView;
@@ -214,6 +236,19 @@ public class AgendaWindowAdapter extends BaseAdapter
     private boolean mShuttingDown;
     private boolean mHideDeclined;
 
+    /**
+     * Builds the rows of the query results off the UI thread. Shared by all
+     * the agenda adapters.
+     */
+    private static Handler sRowsHandler;
+
+    /**
+     * Incremented whenever the rows being built for earlier queries become
+     * obsolete, e.g. by a clean query. Rows built for another generation are
+     * dropped instead of being shown.
+     */
+    private int mRowsGeneration;
+
     // Used to stop a fling motion if the ListView is set to a specific position
     int mListViewScrollState = OnScrollListener.SCROLL_STATE_IDLE;
 
@@ -231,6 +266,11 @@ public class AgendaWindowAdapter extends BaseAdapter
     private static final int QUERY_TYPE_NEWER = 1; // Query for newer events
     private static final int QUERY_TYPE_CLEAN = 2; // Delete everything and query around a date
 
+    // An older and a newer query can run at the same time, so each type of
+    // query has its own token
+    private static final int[] QUERY_TOKENS = { QUERY_TYPE_OLDER, QUERY_TYPE_NEWER,
+            QUERY_TYPE_CLEAN };
+
     private static class QuerySpec {
         long queryStartMillis;
         Time goToTime;
@@ -239,6 +279,9 @@ public class AgendaWindowAdapter extends BaseAdapter
         String searchQuery;
         int queryType;
         long id;
+        int rowsGeneration;
+        int cacheVersion;
+        boolean inFlight;
 
         public QuerySpec(int queryType) {
             this.queryType = queryType;
@@ -304,6 +347,7 @@ public class AgendaWindowAdapter extends BaseAdapter
         int end; // end day of the cursor's coverage
         int offset; // offset in position in the list view
         int size; // dayAdapter.getCount()
+        int cacheVersion; // version of the window cache when the cursor was queried
 
         public DayAdapterInfo(Context context) {
             dayAdapter = new AgendaByDayAdapter(context);
@@ -538,9 +582,21 @@ public class AgendaWindowAdapter extends BaseAdapter
                     && position < (mLastUsedInfo.offset + mLastUsedInfo.size)) {
                 return mLastUsedInfo;
             }
-            for (DayAdapterInfo info : mAdapterInfos) {
-                if (info.offset <= position
-                        && position < (info.offset + info.size)) {
+            // Find the last adapter that starts at or before the position
+            final DayAdapterInfo[] infos = mAdapterInfoArray;
+            int low = 0;
+            int high = infos.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (infos[mid].offset <= position) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (high >= 0) {
+                DayAdapterInfo info = infos[high];
+                if (position < (info.offset + info.size)) {
                     mLastUsedInfo = info;
                     return info;
                 }
@@ -556,15 +612,54 @@ public class AgendaWindowAdapter extends BaseAdapter
         long timeInMillis = tmpTime.normalize(true);
         int day = Time.getJulianDay(timeInMillis, tmpTime.gmtoff);
         synchronized (mAdapterInfos) {
-            for (DayAdapterInfo info : mAdapterInfos) {
-                if (info.start <= day && day <= info.end) {
-                    return info;
+            // Find the last adapter that starts on or before the day
+            final DayAdapterInfo[] infos = mAdapterInfoArray;
+            int low = 0;
+            int high = infos.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (infos[mid].start <= day) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
                 }
             }
+            if (high >= 0 && day <= infos[high].end) {
+                return infos[high];
+            }
         }
         return null;
     }
 
+    /**
+     * Returns false if an older or a newer query no longer borders the
+     * loaded range, because the adapter next to it has been pruned.
+     */
+    private boolean isAdjacent(QuerySpec data) {
+        synchronized (mAdapterInfos) {
+            if (mAdapterInfos.isEmpty()) {
+                return true;
+            }
+            switch (data.queryType) {
+                case QUERY_TYPE_OLDER:
+                    return data.end + 1 >= mAdapterInfos.getFirst().start;
+                case QUERY_TYPE_NEWER:
+                    return data.start - 1 <= mAdapterInfos.getLast().end;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Copies mAdapterInfos into mAdapterInfoArray. Must be called with
+     * mAdapterInfos locked, after every change to it.
+     */
+    private void updateAdapterInfoArray() {
+        mAdapterInfoArray = mAdapterInfos.toArray(new DayAdapterInfo[mAdapterInfos.size()]);
+        mLastUsedInfo = null;
+    }
+
     public EventInfo getEventByPosition(final int positionInListView) {
         return getEventByPosition(positionInListView, true);
     }
@@ -655,8 +750,17 @@ public class AgendaWindowAdapter extends BaseAdapter
     public void refresh(Time goToTime, long id, String searchQuery, boolean forced,
             boolean refreshEventInfo) {
         if (searchQuery != null) {
+            if (!searchQuery.equals(mSearchQuery)) {
+                // A different search has a different density of events
+                mDensity.reset();
+                mWindowCache.clear();
+            }
             mSearchQuery = searchQuery;
         }
+        if (forced) {
+            // The events may have changed
+            mWindowCache.clear();
+        }
 
         if (DEBUGLOG) {
             Log.e(TAG, this + ": refresh " + goToTime.toString() + " id " + id
@@ -728,28 +832,58 @@ public class AgendaWindowAdapter extends BaseAdapter
 
     public void close() {
         mShuttingDown = true;
-        pruneAdapterInfo(QUERY_TYPE_CLEAN);
+        mRowsGeneration++;
+        mWindowCache.clear();
+        pruneAdapterInfo(QUERY_TYPE_CLEAN, 0, 0);
         if (mQueryHandler != null) {
-            mQueryHandler.cancelOperation(0);
+            for (int token : QUERY_TOKENS) {
+                mQueryHandler.cancelOperation(token);
+            }
         }
     }
 
-    private DayAdapterInfo pruneAdapterInfo(int queryType) {
+    /**
+     * Drops the adapters that make room for a new cursor, from the end
+     * opposite to where it goes. Adapters are dropped while the estimated
+     * size of the cursors is over MAX_LIVE_WINDOW_BYTES, keeping at least
+     * MIN_NUM_OF_ADAPTERS of them. Their cursors move to the window cache.
+     *
+     * @param queryType the type of the query that returned the new cursor
+     * @param incomingBytes the estimated size of the new cursor
+     * @param centerDay the day the cached windows are kept closest to
+     * @return an adapter to reuse, whose size is the number of rows removed
+     *         from the beginning, or null
+     */
+    private DayAdapterInfo pruneAdapterInfo(int queryType, int incomingBytes, int centerDay) {
         synchronized (mAdapterInfos) {
             DayAdapterInfo recycleMe = null;
             if (!mAdapterInfos.isEmpty()) {
-                if (mAdapterInfos.size() >= MAX_NUM_OF_ADAPTERS) {
-                    if (queryType == QUERY_TYPE_NEWER) {
-                        recycleMe = mAdapterInfos.removeFirst();
-                    } else if (queryType == QUERY_TYPE_OLDER) {
-                        recycleMe = mAdapterInfos.removeLast();
-                        // Keep the size only if the oldest items are removed.
-                        recycleMe.size = 0;
+                if (queryType == QUERY_TYPE_NEWER || queryType == QUERY_TYPE_OLDER) {
+                    int liveBytes = incomingBytes;
+                    for (DayAdapterInfo info : mAdapterInfos) {
+                        liveBytes += AgendaWindowCache.estimateBytes(info.cursor);
                     }
-                    if (recycleMe != null) {
-                        if (recycleMe.cursor != null) {
-                            recycleMe.cursor.close();
+                    int removedRows = 0;
+                    while (mAdapterInfos.size() > MIN_NUM_OF_ADAPTERS
+                            && (mAdapterInfos.size() >= MAX_NUM_OF_ADAPTERS
+                                    || liveBytes > MAX_LIVE_WINDOW_BYTES)) {
+                        DayAdapterInfo info;
+                        if (queryType == QUERY_TYPE_NEWER) {
+                            info = mAdapterInfos.removeFirst();
+                            removedRows += info.size;
+                        } else {
+                            // Keep the size only if the oldest items are removed.
+                            info = mAdapterInfos.removeLast();
                         }
+                        liveBytes -= AgendaWindowCache.estimateBytes(info.cursor);
+                        spillAdapterInfo(info, centerDay);
+                        if (recycleMe == null) {
+                            recycleMe = info;
+                        }
+                    }
+                    if (recycleMe != null) {
+                        recycleMe.size = removedRows;
+                        updateAdapterInfoArray();
                         return recycleMe;
                     }
                 }
@@ -761,8 +895,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                     do {
                         info = mAdapterInfos.poll();
                         if (info != null) {
-                            // TODO the following causes ANR's. Do this in a thread.
-                            info.cursor.close();
+                            spillAdapterInfo(info, centerDay);
                             deletedRows += info.size;
                             recycleMe = info;
                         }
@@ -772,12 +905,43 @@ public class AgendaWindowAdapter extends BaseAdapter
                         recycleMe.cursor = null;
                         recycleMe.size = deletedRows;
                     }
+                    updateAdapterInfoArray();
                 }
             }
             return recycleMe;
         }
     }
 
+    /**
+     * Takes the cursor away from a dropped adapter and, on the rows worker
+     * thread, moves a snapshot of it to the window cache. The cursor is
+     * closed instead if its events may be out of date.
+     */
+    private void spillAdapterInfo(DayAdapterInfo info, final int centerDay) {
+        final Cursor cursor = info.cursor;
+        if (cursor == null) {
+            return;
+        }
+        info.cursor = null;
+        info.dayAdapter.detachCursor();
+
+        final boolean keep = !mShuttingDown;
+        final int start = info.start;
+        final int end = info.end;
+        final int version = info.cacheVersion;
+        getRowsHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (keep) {
+                    mWindowCache.put(start, end, AgendaWindowCache.snapshot(cursor), centerDay,
+                            version);
+                } else {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
     private String buildQuerySelection() {
         // Respect the preference to show/hide declined events
 
@@ -812,7 +976,16 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
     }
 
-    private int calculateQueryDuration(int start, int end) {
+    private int calculateQueryDuration(int queryType, int start, int end) {
+        // Aim for the number of events seen in the past queries in that
+        // direction, if any
+        int direction = queryType == QUERY_TYPE_OLDER ?
+                EventDensityEstimator.PAST : EventDensityEstimator.FUTURE;
+        if (mDensity.hasEstimate(direction)) {
+            return mDensity.predictDays(direction, IDEAL_NUM_OF_EVENTS, MIN_QUERY_DURATION,
+                    MAX_PREDICTED_QUERY_DURATION);
+        }
+
         int queryDuration = MAX_QUERY_DURATION;
         if (mRowCount != 0) {
             queryDuration = IDEAL_NUM_OF_EVENTS * (end - start + 1) / mRowCount;
@@ -840,24 +1013,90 @@ public class AgendaWindowAdapter extends BaseAdapter
 
     private boolean queueQuery(QuerySpec queryData) {
         queryData.searchQuery = mSearchQuery;
-        Boolean queuedQuery;
         synchronized (mQueryQueue) {
-            queuedQuery = false;
-            Boolean doQueryNow = mQueryQueue.isEmpty();
             mQueryQueue.add(queryData);
-            queuedQuery = true;
-            if (doQueryNow) {
-                doQuery(queryData);
+            startQueuedQueries();
+        }
+        return true;
+    }
+
+    /**
+     * Starts the queued queries that can run now. An older and a newer query
+     * can run at the same time, but a clean query waits for every query in
+     * flight and holds back the ones queued after it. Queries for a range
+     * that is already loaded are dropped. Must be called with mQueryQueue
+     * locked.
+     */
+    private void startQueuedQueries() {
+        boolean olderInFlight = false;
+        boolean newerInFlight = false;
+        boolean cleanInFlight = false;
+        for (QuerySpec queryData : mQueryQueue) {
+            if (queryData.inFlight) {
+                olderInFlight |= queryData.queryType == QUERY_TYPE_OLDER;
+                newerInFlight |= queryData.queryType == QUERY_TYPE_NEWER;
+                cleanInFlight |= queryData.queryType == QUERY_TYPE_CLEAN;
+            }
+        }
+        if (cleanInFlight) {
+            return;
+        }
+
+        Iterator<QuerySpec> it = mQueryQueue.iterator();
+        while (it.hasNext()) {
+            QuerySpec queryData = it.next();
+            if (queryData.inFlight) {
+                continue;
+            }
+            if (queryData.queryType == QUERY_TYPE_CLEAN) {
+                if (!olderInFlight && !newerInFlight) {
+                    if (DEBUGLOG) Log.e(TAG, "Query accepted. QueueSize:" + mQueryQueue.size());
+                    doQuery(queryData, false);
+                }
+                return;
+            }
+            if (isInRange(queryData.start, queryData.end)) {
+                // Query rejected
+                it.remove();
+                if (DEBUGLOG) Log.e(TAG, "Query rejected. QueueSize:" + mQueryQueue.size());
+                continue;
+            }
+            if (queryData.queryType == QUERY_TYPE_OLDER && !olderInFlight) {
+                if (DEBUGLOG) Log.e(TAG, "Query accepted. QueueSize:" + mQueryQueue.size());
+                doQuery(queryData, newerInFlight);
+                olderInFlight = true;
+            } else if (queryData.queryType == QUERY_TYPE_NEWER && !newerInFlight) {
+                if (DEBUGLOG) Log.e(TAG, "Query accepted. QueueSize:" + mQueryQueue.size());
+                doQuery(queryData, olderInFlight);
+                newerInFlight = true;
+            }
+            if (queryData.queryType == QUERY_TYPE_CLEAN) {
+                // The query was compacted, see doQuery
+                return;
             }
         }
-        return queuedQuery;
     }
 
-    private void doQuery(QuerySpec queryData) {
+    /**
+     * Removes the query from mQueryQueue. QuerySpec.equals() compares the
+     * query parameters, so look for this very instance instead.
+     */
+    private void removeQuery(QuerySpec queryData) {
+        Iterator<QuerySpec> it = mQueryQueue.iterator();
+        while (it.hasNext()) {
+            if (it.next() == queryData) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    private void doQuery(QuerySpec queryData, boolean otherQueryInFlight) {
+        queryData.inFlight = true;
         if (!mAdapterInfos.isEmpty()) {
             int start = mAdapterInfos.getFirst().start;
             int end = mAdapterInfos.getLast().end;
-            int queryDuration = calculateQueryDuration(start, end);
+            int queryDuration = calculateQueryDuration(queryData.queryType, start, end);
             switch(queryData.queryType) {
                 case QUERY_TYPE_OLDER:
                     queryData.end = start - 1;
@@ -871,7 +1110,10 @@ public class AgendaWindowAdapter extends BaseAdapter
 
             // By "compacting" cursors, this fixes the disco/ping-pong problem
             // b/5311977
-            if (mRowCount < 20 && queryData.queryType != QUERY_TYPE_CLEAN) {
+            // This turns the query into a clean query, so it is only done
+            // when no other query is running.
+            if (mRowCount < 20 && queryData.queryType != QUERY_TYPE_CLEAN
+                    && !otherQueryInFlight) {
                 if (DEBUGLOG) {
                     Log.e(TAG, "Compacting cursor: mRowCount=" + mRowCount
                             + " totalStart:" + start
@@ -891,6 +1133,25 @@ public class AgendaWindowAdapter extends BaseAdapter
             }
         }
 
+        // Windows that were dropped from the list may still be cached
+        Cursor cachedCursor = null;
+        if (queryData.queryType == QUERY_TYPE_CLEAN) {
+            cachedCursor = mWindowCache.takeCovering(queryData.start, queryData.end,
+                    mCachedRange);
+        } else if (!mAdapterInfos.isEmpty()) {
+            if (queryData.queryType == QUERY_TYPE_OLDER) {
+                cachedCursor = mWindowCache.takeEndingOn(mAdapterInfos.getFirst().start - 1,
+                        mCachedRange);
+            } else {
+                cachedCursor = mWindowCache.takeStartingOn(mAdapterInfos.getLast().end + 1,
+                        mCachedRange);
+            }
+        }
+        if (cachedCursor != null) {
+            queryData.start = mCachedRange[0];
+            queryData.end = mCachedRange[1];
+        }
+
         if (BASICLOG) {
             Time time = new Time(mTimeZone);
             time.setJulianDay(queryData.start);
@@ -900,12 +1161,30 @@ public class AgendaWindowAdapter extends BaseAdapter
                     + time2.toString() + " then go to " + queryData.goToTime);
         }
 
-        mQueryHandler.cancelOperation(0);
+        if (queryData.queryType == QUERY_TYPE_CLEAN) {
+            // Rows still being built for earlier queries are now obsolete
+            mRowsGeneration++;
+        }
+        queryData.rowsGeneration = mRowsGeneration;
+        queryData.cacheVersion = mWindowCache.getVersion();
+
         if (BASICLOG) queryData.queryStartMillis = System.nanoTime();
 
+        if (cachedCursor != null) {
+            final QuerySpec cachedQuery = queryData;
+            final Cursor cursor = cachedCursor;
+            mDataChangedHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mQueryHandler.onQueryComplete(cachedQuery.queryType, cachedQuery, cursor);
+                }
+            });
+            return;
+        }
+
         Uri queryUri = buildQueryUri(
                 queryData.start, queryData.end, queryData.searchQuery);
-        mQueryHandler.startQuery(0, queryData, queryUri,
+        mQueryHandler.startQuery(queryData.queryType, queryData, queryUri,
                 PROJECTION, buildQuerySelection(), null,
                 AGENDA_SORT_ORDER);
     }
@@ -927,6 +1206,16 @@ public class AgendaWindowAdapter extends BaseAdapter
                 formatDateString(end)));
     }
 
+    private static synchronized Handler getRowsHandler() {
+        if (sRowsHandler == null) {
+            HandlerThread thread = new HandlerThread("AgendaRowsWorker",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sRowsHandler = new Handler(thread.getLooper());
+        }
+        return sRowsHandler;
+    }
+
     private class QueryHandler extends AsyncQueryHandler {
 
         public QueryHandler(ContentResolver cr) {
@@ -934,8 +1223,8 @@ public class AgendaWindowAdapter extends BaseAdapter
         }
 
         @Override
-        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
-            QuerySpec data = (QuerySpec)cookie;
+        protected void onQueryComplete(int token, Object cookie, final Cursor cursor) {
+            final QuerySpec data = (QuerySpec)cookie;
             if (BASICLOG) {
                 long queryEndMillis = System.nanoTime();
                 Log.e(TAG, "Query time(ms): "
@@ -943,6 +1232,29 @@ public class AgendaWindowAdapter extends BaseAdapter
                         + " Count: " + cursor.getCount());
             }
 
+            if (mShuttingDown) {
+                cursor.close();
+                return;
+            }
+
+            // Build the rows in the background and finish up on the UI thread
+            final String timeZone = mTimeZone;
+            getRowsHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    final AgendaRowIndex rows = new AgendaRowIndex(cursor, data.start, data.end,
+                            timeZone);
+                    mDataChangedHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onRowsReady(data, cursor, rows);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void onRowsReady(QuerySpec data, Cursor cursor, AgendaRowIndex rows) {
             if (data.queryType == QUERY_TYPE_CLEAN) {
                 mCleanQueryInitiated = false;
             }
@@ -951,11 +1263,36 @@ public class AgendaWindowAdapter extends BaseAdapter
                 cursor.close();
                 return;
             }
+            if (data.rowsGeneration != mRowsGeneration || !isAdjacent(data)) {
+                // The query was overtaken by a clean query, or by a query in
+                // the other direction that dropped the adapter next to it
+                if (DEBUGLOG) Log.e(TAG, "Dropping rows of generation " + data.rowsGeneration);
+                cursor.close();
+                if (data.queryType == QUERY_TYPE_NEWER) {
+                    mNewerRequestsProcessed++;
+                } else if (data.queryType == QUERY_TYPE_OLDER) {
+                    mOlderRequestsProcessed++;
+                }
+                synchronized (mQueryQueue) {
+                    removeQuery(data);
+                    startQueuedQueries();
+                }
+                return;
+            }
+
+            // Size the next queries from the density of this one
+            int days = data.end - data.start + 1;
+            if (data.queryType != QUERY_TYPE_NEWER) {
+                mDensity.addSample(EventDensityEstimator.PAST, days, rows.getCount());
+            }
+            if (data.queryType != QUERY_TYPE_OLDER) {
+                mDensity.addSample(EventDensityEstimator.FUTURE, days, rows.getCount());
+            }
 
             // Notify Listview of changes and update position
             int cursorSize = cursor.getCount();
             if (cursorSize > 0 || mAdapterInfos.isEmpty() || data.queryType == QUERY_TYPE_CLEAN) {
-                final int listPositionOffset = processNewCursor(data, cursor);
+                final int listPositionOffset = processNewCursor(data, cursor, rows);
                 int newPosition = -1;
                 if (data.goToTime == null) { // Typical Scrolling type query
                     notifyDataSetChanged();
@@ -1068,12 +1405,10 @@ public class AgendaWindowAdapter extends BaseAdapter
                 int totalAgendaRangeStart = -1;
                 int totalAgendaRangeEnd = -1;
 
+                data.inFlight = false;
                 if (cursorSize != 0) {
                     // Remove the query that just completed
-                    QuerySpec x = mQueryQueue.poll();
-                    if (BASICLOG && !x.equals(data)) {
-                        Log.e(TAG, "onQueryComplete - cookie != head of queue");
-                    }
+                    removeQuery(data);
                     mEmptyCursorCount = 0;
                     if (data.queryType == QUERY_TYPE_NEWER) {
                         mNewerRequestsProcessed++;
@@ -1084,7 +1419,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                     totalAgendaRangeStart = mAdapterInfos.getFirst().start;
                     totalAgendaRangeEnd = mAdapterInfos.getLast().end;
                 } else { // CursorSize == 0
-                    QuerySpec querySpec = mQueryQueue.peek();
+                    QuerySpec querySpec = data;
 
                     // Update Adapter Info with new start and end date range
                     if (!mAdapterInfos.isEmpty()) {
@@ -1127,7 +1462,7 @@ public class AgendaWindowAdapter extends BaseAdapter
 
                     if (++mEmptyCursorCount > RETRIES_ON_NO_DATA) {
                         // Nothing in the cursor again. Dropping query
-                        mQueryQueue.poll();
+                        removeQuery(querySpec);
                     }
                 }
 
@@ -1149,33 +1484,17 @@ public class AgendaWindowAdapter extends BaseAdapter
                         boolean foundDay = false;
                         while (iter.hasNext() && !foundDay) {
                             info = iter.next();
-                            for (int i = 0; i < info.size; i++) {
-                                if (info.dayAdapter.findJulianDayFromPosition(i) >= JulianToday) {
-                                    info.dayAdapter.setAsFirstDayAfterYesterday(i);
-                                    foundDay = true;
-                                    break;
-                                }
+                            int i = info.dayAdapter.findHeaderPositionOnOrAfter(JulianToday);
+                            if (i >= 0 && i < info.size) {
+                                info.dayAdapter.setAsFirstDayAfterYesterday(i);
+                                foundDay = true;
                             }
                         }
                     }
                 }
 
-                // Fire off the next query if any
-                Iterator<QuerySpec> it = mQueryQueue.iterator();
-                while (it.hasNext()) {
-                    QuerySpec queryData = it.next();
-                    if (queryData.queryType == QUERY_TYPE_CLEAN
-                            || !isInRange(queryData.start, queryData.end)) {
-                        // Query accepted
-                        if (DEBUGLOG) Log.e(TAG, "Query accepted. QueueSize:" + mQueryQueue.size());
-                        doQuery(queryData);
-                        break;
-                    } else {
-                        // Query rejected
-                        it.remove();
-                        if (DEBUGLOG) Log.e(TAG, "Query rejected. QueueSize:" + mQueryQueue.size());
-                    }
-                }
+                // Fire off the next queries if any
+                startQueuedQueries();
             }
             if (BASICLOG) {
                 for (DayAdapterInfo info3 : mAdapterInfos) {
@@ -1190,10 +1509,11 @@ public class AgendaWindowAdapter extends BaseAdapter
          *
          * @return number of rows removed from the beginning
          */
-        private int processNewCursor(QuerySpec data, Cursor cursor) {
+        private int processNewCursor(QuerySpec data, Cursor cursor, AgendaRowIndex rows) {
             synchronized (mAdapterInfos) {
                 // Remove adapter info's from adapterInfos as needed
-                DayAdapterInfo info = pruneAdapterInfo(data.queryType);
+                DayAdapterInfo info = pruneAdapterInfo(data.queryType,
+                        AgendaWindowCache.estimateBytes(cursor), (data.start + data.end) / 2);
                 int listPositionOffset = 0;
                 if (info == null) {
                     info = new DayAdapterInfo(mContext);
@@ -1208,7 +1528,8 @@ public class AgendaWindowAdapter extends BaseAdapter
                 info.start = data.start;
                 info.end = data.end;
                 info.cursor = cursor;
-                info.dayAdapter.changeCursor(info);
+                info.cacheVersion = data.cacheVersion;
+                info.dayAdapter.changeCursor(info, rows);
                 info.size = info.dayAdapter.getCount();
 
                 // Insert into adapterInfos
@@ -1231,7 +1552,7 @@ public class AgendaWindowAdapter extends BaseAdapter
                     info3.offset = mRowCount;
                     mRowCount += info3.size;
                 }
-                mLastUsedInfo = null;
+                updateAdapterInfoArray();
 
                 return listPositionOffset;
             }
@@ -1262,6 +1583,10 @@ public class AgendaWindowAdapter extends BaseAdapter
     }
 
     public void setHideDeclinedEvents(boolean hideDeclined) {
+        if (hideDeclined != mHideDeclined) {
+            mDensity.reset();
+            mWindowCache.clear();
+        }
         mHideDeclined = hideDeclined;
     }
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the agenda windows that have been dropped from the list as in-memory
+ * snapshots, so scrolling back to a range that was seen recently doesn't
+ * query the provider again. The snapshots are bounded by an estimate of
+ * their size; when over budget, the windows farthest from the days being
+ * shown are evicted first.
+ *
+ * The methods are synchronized since the snapshots are taken on a worker
+ * thread.
+ */
+class AgendaWindowCache {
+    /** A rough estimate of the memory used by one row of the agenda query */
+    static final int BYTES_PER_ROW = 512;
+
+    private static class Window {
+        final int start;
+        final int end;
+        final Cursor cursor;
+        final int bytes;
+
+        Window(int start, int end, Cursor cursor) {
+            this.start = start;
+            this.end = end;
+            this.cursor = cursor;
+            this.bytes = estimateBytes(cursor);
+        }
+    }
+
+    private final int mMaxBytes;
+    private final ArrayList<Window> mWindows = new ArrayList<Window>();
+    private int mBytes;
+    private int mVersion;
+
+    AgendaWindowCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the estimated memory used by the rows of a cursor.
+     */
+    static int estimateBytes(Cursor cursor) {
+        return cursor == null ? 0 : cursor.getCount() * BYTES_PER_ROW;
+    }
+
+    /**
+     * Copies the rows of a cursor into a {@link MatrixCursor}, which doesn't
+     * hold on to the provider. A cursor that already is one is returned as
+     * is, otherwise the cursor is closed.
+     */
+    static Cursor snapshot(Cursor cursor) {
+        if (cursor instanceof MatrixCursor) {
+            return cursor;
+        }
+        String[] columns = cursor.getColumnNames();
+        int columnCount = columns.length;
+        MatrixCursor snapshot = new MatrixCursor(columns, cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                        break;
+                }
+            }
+            snapshot.addRow(row);
+        }
+        cursor.close();
+        return snapshot;
+    }
+
+    /**
+     * Returns the version of the cache, which changes every time it is
+     * cleared.
+     */
+    synchronized int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Adds the snapshot of a window covering the days start to end, then
+     * evicts the windows farthest from centerDay until the cache fits in its
+     * budget, which may evict the new window itself. The snapshot is closed
+     * instead if the cache has been cleared since version.
+     */
+    synchronized void put(int start, int end, Cursor snapshot, int centerDay, int version) {
+        if (version != mVersion) {
+            snapshot.close();
+            return;
+        }
+        // The windows it overlaps are older
+        for (int i = mWindows.size() - 1; i >= 0; i--) {
+            Window window = mWindows.get(i);
+            if (window.start < end + 1 && start < window.end + 1) {
+                remove(i).cursor.close();
+            }
+        }
+        Window window = new Window(start, end, snapshot);
+        mWindows.add(window);
+        mBytes += window.bytes;
+        trim(centerDay);
+    }
+
+    private void trim(int centerDay) {
+        while (mBytes > mMaxBytes && !mWindows.isEmpty()) {
+            int farthest = 0;
+            int farthestDistance = -1;
+            for (int i = 0; i < mWindows.size(); i++) {
+                Window window = mWindows.get(i);
+                int distance = Math.max(window.start - centerDay, centerDay - window.end);
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            remove(farthest).cursor.close();
+        }
+    }
+
+    private Window remove(int index) {
+        Window window = mWindows.remove(index);
+        mBytes -= window.bytes;
+        return window;
+    }
+
+    /**
+     * Removes and returns the window that ends on the given day, or null.
+     * Its range is written to range[0] and range[1].
+     */
+    synchronized Cursor takeEndingOn(int day, int[] range) {
+        for (int i = 0; i < mWindows.size(); i++) {
+            if (mWindows.get(i).end == day) {
+                return take(i, range);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the window that starts on the given day, or null.
+     * Its range is written to range[0] and range[1].
+     */
+    synchronized Cursor takeStartingOn(int day, int[] range) {
+        for (int i = 0; i < mWindows.size(); i++) {
+            if (mWindows.get(i).start == day) {
+                return take(i, range);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns a window that covers the days start to end, or
+     * null. Its range is written to range[0] and range[1].
+     */
+    synchronized Cursor takeCovering(int start, int end, int[] range) {
+        for (int i = 0; i < mWindows.size(); i++) {
+            Window window = mWindows.get(i);
+            if (window.start <= start && end <= window.end) {
+                return take(i, range);
+            }
+        }
+        return null;
+    }
+
+    private Cursor take(int index, int[] range) {
+        Window window = remove(index);
+        range[0] = window.start;
+        range[1] = window.end;
+        window.cursor.moveToPosition(-1);
+        return window.cursor;
+    }
+
+    /**
+     * Drops every window, e.g. when the events have changed.
+     */
+    synchronized void clear() {
+        for (Window window : mWindows) {
+            window.cursor.close();
+        }
+        mWindows.clear();
+        mBytes = 0;
+        mVersion++;
+    }
+}
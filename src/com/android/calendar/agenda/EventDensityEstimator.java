@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+/**
+ * Estimates how many agenda rows a day holds from the results of past
+ * queries, separately for the past and the future, so the agenda can size
+ * its next query to fill the list in one round trip. Queries that come back
+ * empty count too, so a sparse calendar quickly gets long queries.
+ */
+class EventDensityEstimator {
+    static final int PAST = 0;
+    static final int FUTURE = 1;
+
+    // Weight of the newest query in the running average
+    private static final float SMOOTHING = 0.5f;
+
+    private final float[] mRowsPerDay = new float[2];
+    private final boolean[] mHasEstimate = new boolean[2];
+
+    /**
+     * Records the number of rows a query returned.
+     *
+     * @param direction {@link #PAST} or {@link #FUTURE}
+     * @param days the number of days the query covered
+     * @param rows the number of rows, headers included, it produced
+     */
+    void addSample(int direction, int days, int rows) {
+        if (days <= 0) {
+            return;
+        }
+        float rowsPerDay = (float) rows / days;
+        if (mHasEstimate[direction]) {
+            mRowsPerDay[direction] += SMOOTHING * (rowsPerDay - mRowsPerDay[direction]);
+        } else {
+            mRowsPerDay[direction] = rowsPerDay;
+            mHasEstimate[direction] = true;
+        }
+    }
+
+    boolean hasEstimate(int direction) {
+        return mHasEstimate[direction];
+    }
+
+    /**
+     * Predicts the number of days a query needs to return the given number
+     * of rows.
+     *
+     * @param direction {@link #PAST} or {@link #FUTURE}
+     * @param rows the number of rows wanted
+     * @param minDays the shortest query to return
+     * @param maxDays the longest query to return, also used when nothing is
+     *            known yet or the recent queries were empty
+     * @return the number of days, between minDays and maxDays
+     */
+    int predictDays(int direction, int rows, int minDays, int maxDays) {
+        float rowsPerDay = mRowsPerDay[direction];
+        if (!mHasEstimate[direction] || rowsPerDay * maxDays <= rows) {
+            return maxDays;
+        }
+        int days = (int) Math.ceil(rows / rowsPerDay);
+        return Math.max(minDays, Math.min(days, maxDays));
+    }
+
+    /**
+     * Forgets everything, e.g. when the agenda starts showing a different
+     * set of events.
+     */
+    void reset() {
+        mHasEstimate[PAST] = false;
+        mHasEstimate[FUTURE] = false;
+    }
+}
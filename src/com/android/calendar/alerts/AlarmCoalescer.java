@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * Keeps the sorted set of times the app needs to be woken up at to fire
+ * alerts, so that a single wakeup alarm is armed for all of them. Alert times
+ * within the tolerance of the earliest one are merged into a single wakeup at
+ * the latest of them, since an alert can only be shown once its alarm time
+ * has passed. A notification refresh that falls within the tolerance of that
+ * wakeup doesn't need an alarm of its own either.
+ *
+ * The pending alert times are saved in their own preferences file, so they
+ * survive the process being killed while the alarm is armed.
+ */
+public class AlarmCoalescer {
+    private static final String TAG = "AlarmCoalescer";
+
+    /** Returned when there is no alarm to arm */
+    static final long NONE = -1;
+
+    // Kept apart from the fired alerts table, which is cleared on upgrade
+    private static final String PREFS_NAME = "calendar_alarms";
+
+    // Pending alert times, comma separated
+    private static final String KEY_PENDING_ALARMS = "preference_pendingAlarms";
+
+    private static AlarmCoalescer sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final long mToleranceMs;
+    private final TreeSet<Long> mAlarmTimes = new TreeSet<Long>();
+    private long mArmedTime = NONE;
+
+    /**
+     * Returns the coalescer of the app, loading the pending alert times on
+     * first use.
+     */
+    public static synchronized AlarmCoalescer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new AlarmCoalescer(
+                    context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                    AlertUtils.ALARM_COALESCING_TOLERANCE_MS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param prefs where the pending alert times are saved, or null to keep
+     *            them in memory only
+     * @param toleranceMs how much later than its time an alert may be fired
+     *            to share a wakeup with another one
+     */
+    AlarmCoalescer(SharedPreferences prefs, long toleranceMs) {
+        mPrefs = prefs;
+        mToleranceMs = toleranceMs;
+        if (prefs == null) {
+            return;
+        }
+        String saved = prefs.getString(KEY_PENDING_ALARMS, null);
+        if (TextUtils.isEmpty(saved)) {
+            return;
+        }
+        for (String time : TextUtils.split(saved, ",")) {
+            try {
+                mAlarmTimes.add(Long.parseLong(time));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring pending alarm " + time);
+            }
+        }
+    }
+
+    private void save() {
+        if (mPrefs != null) {
+            mPrefs.edit().putString(KEY_PENDING_ALARMS, TextUtils.join(",", mAlarmTimes))
+                    .apply();
+        }
+    }
+
+    /**
+     * Adds the alarm time of an alert to wake up for.
+     */
+    public synchronized void addAlarm(long alarmTime) {
+        if (mAlarmTimes.add(alarmTime)) {
+            save();
+        }
+    }
+
+    /**
+     * Adds the first count alarm times of the array.
+     */
+    public synchronized void addAlarms(long[] alarmTimes, int count) {
+        boolean changed = false;
+        for (int i = 0; i < count; i++) {
+            changed |= mAlarmTimes.add(alarmTimes[i]);
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Removes the alarm times up to the given time, whose alerts are shown by
+     * the update that runs when an alarm fires. Forgets the armed alarm if it
+     * was for one of them.
+     */
+    public synchronized void removeAlarmsUpTo(long time) {
+        boolean changed = false;
+        Iterator<Long> it = mAlarmTimes.iterator();
+        while (it.hasNext() && it.next() <= time) {
+            it.remove();
+            changed = true;
+        }
+        if (mArmedTime != NONE && mArmedTime <= time) {
+            mArmedTime = NONE;
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Returns the time the single wakeup alarm should be armed for, which is
+     * the latest alarm time within the tolerance of the earliest one, or
+     * {@link #NONE}.
+     */
+    public synchronized long getNextAlarmTime() {
+        if (mAlarmTimes.isEmpty()) {
+            return NONE;
+        }
+        long earliest = mAlarmTimes.first();
+        return mAlarmTimes.floor(earliest + mToleranceMs);
+    }
+
+    /**
+     * Returns true if a notification refresh at refreshTime can be left to
+     * the next wakeup alarm, which updates the notifications too.
+     */
+    public synchronized boolean coversRefresh(long refreshTime) {
+        long next = getNextAlarmTime();
+        return next != NONE && Math.abs(next - refreshTime) <= mToleranceMs;
+    }
+
+    /**
+     * Returns the time of the wakeup alarm that was armed last, or
+     * {@link #NONE} if it isn't known to be armed.
+     */
+    public synchronized long getArmedTime() {
+        return mArmedTime;
+    }
+
+    public synchronized void setArmedTime(long armedTime) {
+        mArmedTime = armedTime;
+    }
+
+    /**
+     * Returns the number of pending alarm times.
+     */
+    synchronized int getAlarmCount() {
+        return mAlarmTimes.size();
+    }
+}
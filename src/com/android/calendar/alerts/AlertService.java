@@ -19,11 +19,13 @@ package com.android.calendar.alerts;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
@@ -34,6 +36,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Process;
+import android.os.RemoteException;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.CalendarAlerts;
@@ -103,6 +106,12 @@ public class AlertService extends Service {
 
     private static final int MINUTE_MS = 60 * 1000;
 
+    // How recent an alarm time must be for the alert to ring even though it
+    // is already marked as fired.  The first alerts of a coalesced wakeup are
+    // up to the coalescing tolerance late, see AlarmCoalescer.
+    private static final long NEW_ALERT_WINDOW_MS =
+            MINUTE_MS + AlertUtils.ALARM_COALESCING_TOLERANCE_MS;
+
     // The grace period before changing a notification's priority bucket.
     private static final int MIN_DEPRIORITIZE_GRACE_PERIOD_MS = 15 * MINUTE_MS;
 
@@ -140,6 +149,11 @@ public class AlertService extends Service {
         }
     }
 
+    // What the alert notifications were last posted with.  Shared by the managers
+    // created for every update since they all post to the same notification ids.
+    private static final NotificationState sNotificationState =
+            new NotificationState(MAX_NOTIFICATIONS);
+
     // Added wrapper for testing
     public static class NotificationMgrWrapper extends NotificationMgr {
         NotificationManager mNm;
@@ -157,6 +171,20 @@ public class AlertService extends Service {
         public void notify(int id, NotificationWrapper nw) {
             mNm.notify(id, nw.mNotification);
         }
+
+        @Override
+        public NotificationState getState() {
+            return sNotificationState;
+        }
+    }
+
+    /**
+     * Forgets what the alert notifications were posted with, so the next update
+     * posts or cancels all of them.  Must be called after changing the alert
+     * notifications without going through {@link #generateAlerts}.
+     */
+    static void resetNotificationState() {
+        sNotificationState.reset();
     }
 
     void processMessage(Message msg) {
@@ -173,9 +201,19 @@ public class AlertService extends Service {
         if (action.equals(Intent.ACTION_PROVIDER_CHANGED) ||
                 action.equals(android.provider.CalendarContract.ACTION_EVENT_REMINDER) ||
                 action.equals(Intent.ACTION_LOCALE_CHANGED)) {
+            if (action.equals(Intent.ACTION_LOCALE_CHANGED)) {
+                // The text of every notification changes
+                resetNotificationState();
+            } else if (action.equals(
+                    android.provider.CalendarContract.ACTION_EVENT_REMINDER)) {
+                AlertUtils.onAlarmFired(this, AlertUtils.createAlarmManager(this),
+                        System.currentTimeMillis());
+            }
             updateAlertNotification(this);
         } else if (action.equals(Intent.ACTION_BOOT_COMPLETED)
                 || action.equals(Intent.ACTION_TIME_CHANGED)) {
+            // Also sent when the time format changes
+            resetNotificationState();
             doTimeChanged();
         } else if (action.equals(AlertReceiver.ACTION_DISMISS_OLD_REMINDERS)) {
             dismissOldAlerts(this);
@@ -259,6 +297,14 @@ public class AlertService extends Service {
         NotificationPrefs notificationPrefs = new NotificationPrefs(context, prefs,
                 (numFired == 0));
 
+        // Notifications that were posted with the same content are left alone, unless
+        // they are for a new alert and must ring.
+        NotificationState state = nm.getState();
+        long baseHash = 0;
+        if (state != null) {
+            baseHash = getBaseContentHash(context, currentTime, notificationPrefs);
+        }
+
         // If there are more high/medium priority events than we can show, bump some to
         // the low priority digest.
         redistributeBuckets(highPriorityEvents, mediumPriorityEvents, lowPriorityEvents,
@@ -269,10 +315,8 @@ public class AlertService extends Service {
         // the notification list.
         for (int i = 0; i < highPriorityEvents.size(); i++) {
             NotificationInfo info = highPriorityEvents.get(i);
-            String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
-                    info.allDay, info.location);
-            postNotification(info, summaryText, context, true, notificationPrefs, nm,
-                    currentNotificationId++);
+            postNotificationIfChanged(info, context, true, notificationPrefs, nm,
+                    currentNotificationId++, baseHash);
 
             // Keep concurrent events high priority (to appear higher in the notification list)
             // until 15 minutes into the event.
@@ -288,10 +332,8 @@ public class AlertService extends Service {
             NotificationInfo info = mediumPriorityEvents.get(i);
             // TODO: Change to a relative time description like: "Started 40 minutes ago".
             // This requires constant refreshing to the message as time goes.
-            String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
-                    info.allDay, info.location);
-            postNotification(info, summaryText, context, false, notificationPrefs, nm,
-                    currentNotificationId++);
+            postNotificationIfChanged(info, context, false, notificationPrefs, nm,
+                    currentNotificationId++, baseHash);
 
             // Refresh when concurrent event ends so it will drop into the expired digest.
             nextRefreshTime = Math.min(nextRefreshTime, getNextRefreshTime(info, currentTime));
@@ -299,7 +341,16 @@ public class AlertService extends Service {
 
         // Post the low priority events as 1 combined notification.
         int numLowPriority = lowPriorityEvents.size();
-        if (numLowPriority > 0) {
+        long digestHash = 0;
+        if (numLowPriority > 0 && state != null) {
+            digestHash = getDigestContentHash(lowPriorityEvents, baseHash);
+        }
+        if (numLowPriority > 0 && state != null
+                && state.isPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, digestHash)) {
+            if (DEBUG) {
+                Log.d(TAG, "Digest notification unchanged, numEvents:" + numLowPriority);
+            }
+        } else if (numLowPriority > 0) {
             String expiredDigestTitle = getDigestTitle(lowPriorityEvents);
             NotificationWrapper notification;
             if (numLowPriority == 1) {
@@ -329,8 +380,12 @@ public class AlertService extends Service {
 
             // Post the new notification for the group.
             nm.notify(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, notification);
+            if (state != null) {
+                state.setPosted(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID, digestHash);
+            }
         } else {
-            nm.cancel(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
+            nm.cancelAllBetween(AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID,
+                    AlertUtils.EXPIRED_GROUP_NOTIFICATION_ID);
             if (DEBUG) {
                 Log.d(TAG, "No low priority events, canceling the digest notification.");
             }
@@ -480,8 +535,25 @@ public class AlertService extends Service {
             final long currentTime, ArrayList<NotificationInfo> highPriorityEvents,
             ArrayList<NotificationInfo> mediumPriorityEvents,
             ArrayList<NotificationInfo> lowPriorityEvents) {
-        ContentResolver cr = context.getContentResolver();
+        return processQuery(alertCursor, context.getContentResolver(),
+                AlertUtils.BYPASS_DB ? FiredAlertLedger.getInstance(context) : null,
+                currentTime, highPriorityEvents, mediumPriorityEvents, lowPriorityEvents);
+    }
+
+    /**
+     * Same as above, with the resolver the alert states are written to and
+     * the ledger of fired alerts, which is only used if
+     * {@link AlertUtils#BYPASS_DB} is set.
+     */
+    static int processQuery(final Cursor alertCursor, final ContentResolver cr,
+            final FiredAlertLedger firedAlerts, final long currentTime,
+            ArrayList<NotificationInfo> highPriorityEvents,
+            ArrayList<NotificationInfo> mediumPriorityEvents,
+            ArrayList<NotificationInfo> lowPriorityEvents) {
         HashMap<Long, NotificationInfo> eventIds = new HashMap<Long, NotificationInfo>();
+        // The alert rows to update, written in one batch at the end
+        ArrayList<Uri> updateUris = new ArrayList<Uri>();
+        ArrayList<ContentValues> updateValues = new ArrayList<ContentValues>();
         int numFired = 0;
         try {
             while (alertCursor.moveToNext()) {
@@ -504,13 +576,12 @@ public class AlertService extends Service {
                 // Use app local storage to keep track of fired alerts to fix problem of multiple
                 // installed calendar apps potentially causing missed alarms.
                 boolean newAlertOverride = false;
-                if (AlertUtils.BYPASS_DB && ((currentTime - alarmTime) / MINUTE_MS < 1)) {
+                if (AlertUtils.BYPASS_DB && currentTime - alarmTime < NEW_ALERT_WINDOW_MS) {
                     // To avoid re-firing alerts, only fire if alarmTime is very recent.  Otherwise
                     // we can get refires for non-dismissed alerts after app installation, or if the
-                    // SharedPrefs was cleared too early.  This means alerts that were timed while
+                    // ledger was flushed too early.  This means alerts that were timed while
                     // the phone was off may show up silently in the notification bar.
-                    boolean alreadyFired = AlertUtils.hasAlertFiredInSharedPrefs(context, eventId,
-                            beginTime, alarmTime);
+                    boolean alreadyFired = firedAlerts.hasFired(eventId, beginTime, alarmTime);
                     if (!alreadyFired) {
                         newAlertOverride = true;
                     }
@@ -566,8 +637,7 @@ public class AlertService extends Service {
                     state = newState;
 
                     if (AlertUtils.BYPASS_DB) {
-                        AlertUtils.setAlertFiredInSharedPrefs(context, eventId, beginTime,
-                                alarmTime);
+                        firedAlerts.setFired(eventId, beginTime, alarmTime);
                     }
                 }
 
@@ -578,7 +648,10 @@ public class AlertService extends Service {
                 }
 
                 // Write row to if anything changed
-                if (values.size() > 0) cr.update(alertUri, values, null, null);
+                if (values.size() > 0) {
+                    updateUris.add(alertUri);
+                    updateValues.add(values);
+                }
 
                 if (state != CalendarAlerts.STATE_FIRED) {
                     continue;
@@ -661,10 +734,40 @@ public class AlertService extends Service {
             if (alertCursor != null) {
                 alertCursor.close();
             }
+            updateAlerts(cr, updateUris, updateValues);
         }
         return numFired;
     }
 
+    /**
+     * Writes the new values of the alert rows to the provider in a single
+     * batch, or one row at a time if the batch fails.
+     */
+    private static void updateAlerts(ContentResolver cr, ArrayList<Uri> uris,
+            ArrayList<ContentValues> values) {
+        int count = uris.size();
+        if (count == 0) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> ops =
+                new ArrayList<ContentProviderOperation>(count);
+        for (int i = 0; i < count; i++) {
+            ops.add(ContentProviderOperation.newUpdate(uris.get(i))
+                    .withValues(values.get(i)).build());
+        }
+        try {
+            cr.applyBatch(CalendarContract.AUTHORITY, ops);
+            return;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Batch update of " + count + " alerts failed, updating one by one", e);
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Batch update of " + count + " alerts failed, updating one by one", e);
+        }
+        for (int i = 0; i < count; i++) {
+            cr.update(uris.get(i), values.get(i), null, null);
+        }
+    }
+
     /**
      * High priority cutoff should be 1/4 event duration or 15 min, whichever is longer.
      */
@@ -691,6 +794,71 @@ public class AlertService extends Service {
         return digestTitle.toString();
     }
 
+    /**
+     * Returns the hash of what the content of every notification depends on
+     * besides its event: the day, for the "tomorrow" and date labels, the time
+     * zone and the popup preference.
+     */
+    private static long getBaseContentHash(Context context, long currentTime,
+            NotificationPrefs prefs) {
+        String tz = Utils.getTimeZone(context, null);
+        Time time = new Time(tz);
+        time.set(currentTime);
+        long hash = NotificationState.newHash();
+        hash = NotificationState.hash(hash, Time.getJulianDay(currentTime, time.gmtoff));
+        hash = NotificationState.hash(hash, tz);
+        hash = NotificationState.hash(hash, prefs.getDoPopup() ? 1 : 0);
+        return hash;
+    }
+
+    private static long getContentHash(NotificationInfo info, long hash) {
+        hash = NotificationState.hash(hash, info.eventId);
+        hash = NotificationState.hash(hash, info.startMillis);
+        hash = NotificationState.hash(hash, info.endMillis);
+        hash = NotificationState.hash(hash, info.allDay ? 1 : 0);
+        hash = NotificationState.hash(hash, info.eventName);
+        hash = NotificationState.hash(hash, info.location);
+        hash = NotificationState.hash(hash, info.description);
+        return hash;
+    }
+
+    private static long getDigestContentHash(ArrayList<NotificationInfo> events, long hash) {
+        hash = NotificationState.hash(hash, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            hash = getContentHash(events.get(i), hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Posts the notification of an event unless it was last posted with the
+     * same content and priority.  New alerts are always posted.
+     */
+    private static void postNotificationIfChanged(NotificationInfo info, Context context,
+            boolean highPriority, NotificationPrefs prefs, NotificationMgr notificationMgr,
+            int notificationId, long baseHash) {
+        NotificationState state = notificationMgr.getState();
+        long hash = 0;
+        if (state != null) {
+            hash = NotificationState.hash(getContentHash(info, baseHash), highPriority ? 1 : 0);
+            if (!info.newAlert && state.isPosted(notificationId, hash)) {
+                if (DEBUG) {
+                    Log.d(TAG, "Notification unchanged, eventId:" + info.eventId
+                            + ", notificationId:" + notificationId);
+                }
+                return;
+            }
+        }
+
+        String summaryText = AlertUtils.formatTimeLocation(context, info.startMillis,
+                info.allDay, info.location);
+        postNotification(info, summaryText, context, highPriority, prefs, notificationMgr,
+                notificationId);
+        if (state != null) {
+            state.setPosted(notificationId, hash);
+        }
+    }
+
     private static void postNotification(NotificationInfo info, String summaryText,
             Context context, boolean highPriority, NotificationPrefs prefs,
             NotificationMgr notificationMgr, int notificationId) {
@@ -840,14 +1008,24 @@ public class AlertService extends Service {
 
     private void doTimeChanged() {
         ContentResolver cr = getContentResolver();
+        AlarmManagerInterface manager = AlertUtils.createAlarmManager(this);
         // TODO Move this into Provider
-        rescheduleMissedAlarms(cr, this, AlertUtils.createAlarmManager(this));
+        rescheduleMissedAlarms(cr, this, manager);
+        // The reminder alarm doesn't survive a reboot
+        AlertUtils.rearmAlarms(this, manager);
         updateAlertNotification(this);
     }
 
-    private static final String SORT_ORDER_ALARMTIME_ASC =
-            CalendarContract.CalendarAlerts.ALARM_TIME + " ASC";
+    // Number of distinct missed alarm times fetched per query, and the most
+    // queries made, so rescheduling after a long power off stays quick
+    private static final int MISSED_ALARMS_PAGE_SIZE = 100;
+    private static final int MISSED_ALARMS_MAX_PAGES = 5;
+
+    private static final String SORT_ORDER_MISSED_ALARMS =
+            CalendarContract.CalendarAlerts.ALARM_TIME + " ASC LIMIT " + MISSED_ALARMS_PAGE_SIZE;
 
+    // Ends with a cheap hack to make WHERE a GROUP BY query, so that each
+    // alarm time is only returned once
     private static final String WHERE_RESCHEDULE_MISSED_ALARMS =
             CalendarContract.CalendarAlerts.STATE
             + "="
@@ -859,13 +1037,20 @@ public class AlertService extends Service {
             + CalendarContract.CalendarAlerts.ALARM_TIME
             + ">?"
             + " AND "
-            + CalendarContract.CalendarAlerts.END + ">=?";
+            + CalendarContract.CalendarAlerts.END + ">=?"
+            + ") GROUP BY (" + CalendarContract.CalendarAlerts.ALARM_TIME;
 
     /**
      * Searches the CalendarAlerts table for alarms that should have fired but
      * have not and then reschedules them. This method can be called at boot
      * time to restore alarms that may have been lost due to a phone reboot.
      *
+     * The distinct alarm times are read a page at a time, each page starting
+     * after the last time of the previous one. At most
+     * MISSED_ALARMS_MAX_PAGES pages are read, which is enough since the
+     * alarms are all due: the notification update that runs when the first
+     * one goes off shows every missed alert, not just the rescheduled ones.
+     *
      * @param cr the ContentResolver
      * @param context the Context
      * @param manager the AlarmManager
@@ -880,36 +1065,42 @@ public class AlertService extends Service {
             CalendarContract.CalendarAlerts.ALARM_TIME,
         };
 
-        // TODO: construct an explicit SQL query so that we can add
-        // "GROUPBY" instead of doing a sort and de-dup
-        Cursor cursor = cr.query(CalendarAlerts.CONTENT_URI, projection,
-                WHERE_RESCHEDULE_MISSED_ALARMS, (new String[] {
-                        Long.toString(now), Long.toString(ancient), Long.toString(now)
-                }), SORT_ORDER_ALARMTIME_ASC);
-        if (cursor == null) {
-            return;
-        }
-
-        if (DEBUG) {
-            Log.d(TAG, "missed alarms found: " + cursor.getCount());
-        }
-
-        try {
-            long alarmTime = -1;
+        long[] alarmTimes = new long[MISSED_ALARMS_PAGE_SIZE * MISSED_ALARMS_MAX_PAGES];
+        int count = 0;
+        long after = ancient;
+        for (int page = 0; page < MISSED_ALARMS_MAX_PAGES; page++) {
+            Cursor cursor = cr.query(CalendarAlerts.CONTENT_URI, projection,
+                    WHERE_RESCHEDULE_MISSED_ALARMS, (new String[] {
+                            Long.toString(now), Long.toString(after), Long.toString(now)
+                    }), SORT_ORDER_MISSED_ALARMS);
+            if (cursor == null) {
+                break;
+            }
 
-            while (cursor.moveToNext()) {
-                long newAlarmTime = cursor.getLong(0);
-                if (alarmTime != newAlarmTime) {
+            int rows;
+            try {
+                rows = cursor.getCount();
+                while (cursor.moveToNext() && count < alarmTimes.length) {
+                    long alarmTime = cursor.getLong(0);
                     if (DEBUG) {
-                        Log.w(TAG, "rescheduling missed alarm. alarmTime: " + newAlarmTime);
+                        Log.w(TAG, "rescheduling missed alarm. alarmTime: " + alarmTime);
                     }
-                    AlertUtils.scheduleAlarm(context, manager, newAlarmTime);
-                    alarmTime = newAlarmTime;
+                    alarmTimes[count++] = alarmTime;
+                    after = alarmTime;
                 }
+            } finally {
+                cursor.close();
             }
-        } finally {
-            cursor.close();
+            if (rows < MISSED_ALARMS_PAGE_SIZE) {
+                break;
+            }
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "missed alarms found: " + count);
         }
+        // They are all due, so the one alarm armed for them goes off right away
+        AlertUtils.scheduleAlarms(context, manager, alarmTimes, count);
     }
 
     private final class ServiceHandler extends Handler {
@@ -18,7 +18,6 @@ package com.android.calendar.alerts;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -37,7 +36,6 @@ import com.android.calendar.R;
 import com.android.calendar.Utils;
 
 import java.util.Locale;
-import java.util.Map;
 import java.util.TimeZone;
 
 public class AlertUtils {
@@ -62,23 +60,24 @@ public class AlertUtils {
     // alerts from other apps.
     static boolean BYPASS_DB = true;
 
-    // SharedPrefs table name for storing fired alerts.  This prevents other installed
+    // SharedPrefs table name for the fired alerts bookkeeping.  The fired alerts
+    // themselves are kept in FiredAlertLedger, which prevents other installed
     // Calendar apps from eating the alerts.
     private static final String ALERTS_SHARED_PREFS_NAME = "calendar_alerts";
 
-    // Keyname prefix for the alerts data in SharedPrefs.  The key will contain a combo
-    // of event ID, begin time, and alarm time.  The value will be the fired time.
-    private static final String KEY_FIRED_ALERT_PREFIX = "preference_alert_";
+    // The last time the fired alerts ledger was flushed of old alerts data.  Older
+    // versions kept the fired alerts in this table, with their own flush time key.
+    private static final String KEY_LAST_FLUSH_TIME_MS = "preference_ledgerFlushTimeMs";
 
-    // The last time the SharedPrefs was scanned and flushed of old alerts data.
-    private static final String KEY_LAST_FLUSH_TIME_MS = "preference_flushTimeMs";
-
-    // The # of days to save alert states in the shared prefs table, before flushing.  This
+    // The # of days to save alert states in the fired alerts ledger, before flushing.  This
     // can be any value, since AlertService will also check for a recent alertTime before
     // ringing the alert.
     private static final int FLUSH_INTERVAL_DAYS = 1;
     private static final int FLUSH_INTERVAL_MS = FLUSH_INTERVAL_DAYS * 24 * 60 * 60 * 1000;
 
+    // Alerts whose alarm times are this close share a single wakeup, see AlarmCoalescer.
+    static final long ALARM_COALESCING_TOLERANCE_MS = 60 * 1000;
+
     /**
      * Creates an AlarmManagerInterface that wraps a real AlarmManager.  The alarm code
      * was abstracted to an interface to make it testable.
@@ -100,21 +99,87 @@ public class AlertUtils {
      * functionality without modifying the reminders table. Scheduled alarms
      * will generate an intent using {@link #ACTION_EVENT_REMINDER}.
      *
+     * The app only keeps one wakeup alarm armed, for the earliest alarm time,
+     * and alarm times close to each other share it (see {@link AlarmCoalescer}).
+     *
      * @param context A context for referencing system resources
      * @param manager The AlarmManager to use or null
      * @param alarmTime The time to fire the intent in UTC millis since epoch
      */
     public static void scheduleAlarm(Context context, AlarmManagerInterface manager,
             long alarmTime) {
+        AlarmCoalescer alarms = AlarmCoalescer.getInstance(context);
+        synchronized (alarms) {
+            alarms.addAlarm(alarmTime);
+            armNextAlarm(context, manager, alarms, false);
+        }
+    }
+
+    /**
+     * Schedules the first count alarm times of the array at once.
+     *
+     * @see #scheduleAlarm
+     */
+    static void scheduleAlarms(Context context, AlarmManagerInterface manager,
+            long[] alarmTimes, int count) {
+        AlarmCoalescer alarms = AlarmCoalescer.getInstance(context);
+        synchronized (alarms) {
+            alarms.addAlarms(alarmTimes, count);
+            armNextAlarm(context, manager, alarms, false);
+        }
+    }
+
+    /**
+     * Called when a reminder alarm fires.  The alarm times up to now are taken
+     * care of by the notification update that follows, so this arms the wakeup
+     * alarm for the next ones.
+     */
+    static void onAlarmFired(Context context, AlarmManagerInterface manager, long currentTime) {
+        AlarmCoalescer alarms = AlarmCoalescer.getInstance(context);
+        synchronized (alarms) {
+            alarms.removeAlarmsUpTo(currentTime);
+            armNextAlarm(context, manager, alarms, false);
+        }
+    }
+
+    /**
+     * Arms the wakeup alarm again, e.g. after a reboot cleared it.
+     */
+    static void rearmAlarms(Context context, AlarmManagerInterface manager) {
+        AlarmCoalescer alarms = AlarmCoalescer.getInstance(context);
+        synchronized (alarms) {
+            armNextAlarm(context, manager, alarms, true);
+        }
+    }
+
+    private static void armNextAlarm(Context context, AlarmManagerInterface manager,
+            AlarmCoalescer alarms, boolean force) {
+        long alarmTime = alarms.getNextAlarmTime();
+        if (alarmTime == AlarmCoalescer.NONE
+                || (!force && alarmTime == alarms.getArmedTime())) {
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Arming the reminder alarm for " + alarmTime);
+        }
         scheduleAlarmHelper(context, manager, alarmTime, false);
+        alarms.setArmedTime(alarmTime);
     }
 
     /**
      * Schedules the next alarm to silently refresh the notifications.  Note that if there
-     * is a pending silent refresh alarm, it will be replaced with this one.
+     * is a pending silent refresh alarm, it will be replaced with this one.  No alarm is
+     * needed if the reminder alarm goes off around the same time, since it refreshes the
+     * notifications too.
      */
     static void scheduleNextNotificationRefresh(Context context, AlarmManagerInterface manager,
             long alarmTime) {
+        if (AlarmCoalescer.getInstance(context).coversRefresh(alarmTime)) {
+            if (DEBUG) {
+                Log.d(TAG, "Leaving the notification refresh to the reminder alarm");
+            }
+            return;
+        }
         scheduleAlarmHelper(context, manager, alarmTime, true);
     }
 
@@ -126,11 +191,10 @@ public class AlertUtils {
         if (quietUpdate) {
             alarmType = AlarmManager.RTC;
         } else {
-            // Set data field so we get a unique PendingIntent instance per alarm or else alarms
-            // may be dropped.
-            Uri.Builder builder = CalendarAlerts.CONTENT_URI.buildUpon();
-            ContentUris.appendId(builder, alarmTime);
-            intent.setData(builder.build());
+            // Set data field so the reminder alarm gets a PendingIntent of its own, apart
+            // from the refresh one.  It is the same for every alarm time, so arming the
+            // reminder alarm again replaces it.
+            intent.setData(CalendarAlerts.CONTENT_URI);
         }
 
         intent.putExtra(CalendarContract.CalendarAlerts.ALARM_TIME, alarmTime);
@@ -226,41 +290,8 @@ public class AlertUtils {
         return context.getSharedPreferences(ALERTS_SHARED_PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    private static String getFiredAlertsKey(long eventId, long beginTime,
-            long alarmTime) {
-        StringBuilder sb = new StringBuilder(KEY_FIRED_ALERT_PREFIX);
-        sb.append(eventId);
-        sb.append("_");
-        sb.append(beginTime);
-        sb.append("_");
-        sb.append(alarmTime);
-        return sb.toString();
-    }
-
     /**
-     * Returns whether the SharedPrefs storage indicates we have fired the alert before.
-     */
-    static boolean hasAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
-            long alarmTime) {
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        return prefs.contains(getFiredAlertsKey(eventId, beginTime, alarmTime));
-    }
-
-    /**
-     * Store fired alert info in the SharedPrefs.
-     */
-    static void setAlertFiredInSharedPrefs(Context context, long eventId, long beginTime,
-            long alarmTime) {
-        // Store alarm time as the value too so we don't have to parse all the keys to flush
-        // old alarms out of the table later.
-        SharedPreferences prefs = getFiredAlertsTable(context);
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putLong(getFiredAlertsKey(eventId, beginTime, alarmTime), alarmTime);
-        editor.apply();
-    }
-
-    /**
-     * Scans and flushes the internal storage of old alerts.  Looks up the previous flush
+     * Flushes the internal storage of old alerts.  Looks up the previous flush
      * time in SharedPrefs, and performs the flush if overdue.  Otherwise, no-op.
      */
     static void flushOldAlertsFromInternalStorage(Context context) {
@@ -272,52 +303,19 @@ public class AlertUtils {
             long lastFlushTimeMs = prefs.getLong(KEY_LAST_FLUSH_TIME_MS, 0);
             if (nowTime - lastFlushTimeMs > FLUSH_INTERVAL_MS) {
                 if (DEBUG) {
-                    Log.d(TAG, "Flushing old alerts from shared prefs table");
+                    Log.d(TAG, "Flushing old alerts from the fired alerts ledger");
                 }
+                FiredAlertLedger.getInstance(context).expire(nowTime - FLUSH_INTERVAL_MS);
 
-                // Scan through all fired alert entries, removing old ones.
                 SharedPreferences.Editor editor = prefs.edit();
-                Time timeObj = new Time();
-                for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
-                    String key = entry.getKey();
-                    Object value = entry.getValue();
-                    if (key.startsWith(KEY_FIRED_ALERT_PREFIX)) {
-                        long alertTime;
-                        if (value instanceof Long) {
-                            alertTime = (Long) value;
-                        } else {
-                            // Should never occur.
-                            Log.e(TAG,"SharedPrefs key " + key + " did not have Long value: " +
-                                    value);
-                            continue;
-                        }
-
-                        if (nowTime - alertTime >= FLUSH_INTERVAL_MS) {
-                            editor.remove(key);
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": removed (" + ageInDays +
-                                        " days old)");
-                            }
-                        } else {
-                            if (DEBUG) {
-                                int ageInDays = getIntervalInDays(alertTime, nowTime, timeObj);
-                                Log.d(TAG, "SharedPrefs key " + key + ": keep (" + ageInDays +
-                                        " days old)");
-                            }
-                        }
-                    }
+                if (lastFlushTimeMs == 0) {
+                    // Drop the fired alerts older versions kept in this table.  They
+                    // only matter for a minute after their alarm time anyway.
+                    editor.clear();
                 }
                 editor.putLong(KEY_LAST_FLUSH_TIME_MS, nowTime);
                 editor.apply();
             }
         }
     }
-
-    private static int getIntervalInDays(long startMillis, long endMillis, Time timeObj) {
-        timeObj.set(startMillis);
-        int startDay = Time.getJulianDay(startMillis, timeObj.gmtoff);
-        timeObj.set(endMillis);
-        return Time.getJulianDay(endMillis, timeObj.gmtoff) - startDay;
-    }
 }
@@ -81,6 +81,8 @@ public class DismissAlarmsService extends IntentService {
                     (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
             nm.cancel(notificationId);
         }
+        // The notification may also have been swiped away
+        AlertService.resetNotificationState();
 
         if (showEvent) {
             // Show event on Calendar app by building an intent and task stack to start
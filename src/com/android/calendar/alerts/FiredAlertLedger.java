@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Remembers the alerts this app has fired, so that they aren't fired again
+ * (see {@link AlertUtils#BYPASS_DB}).
+ *
+ * The alerts are bucketed by the day of their alarm time. Each bucket is an
+ * append-only file of (event id, begin, alarm time) records, loaded into an
+ * open addressing hash table, so recording an alert appends one record and
+ * old alerts are dropped a whole bucket at a time by deleting its file.
+ */
+public class FiredAlertLedger {
+    private static final String TAG = "FiredAlertLedger";
+
+    private static final String DIR_NAME = "fired_alerts";
+    private static final long BUCKET_MS = DateUtils.DAY_IN_MILLIS;
+    private static final int RECORD_SIZE = 3 * 8;
+
+    private static FiredAlertLedger sInstance;
+
+    private final File mDir;
+    private final HashMap<Long, Bucket> mBuckets = new HashMap<Long, Bucket>();
+
+    /**
+     * The fired alerts of one day, in an open addressing hash table with
+     * linear probing.
+     */
+    private static class Bucket {
+        private static final int INITIAL_CAPACITY = 16;
+
+        final File file;
+        long[] eventIds = new long[INITIAL_CAPACITY];
+        long[] begins = new long[INITIAL_CAPACITY];
+        long[] alarmTimes = new long[INITIAL_CAPACITY];
+        boolean[] used = new boolean[INITIAL_CAPACITY];
+        int size;
+
+        Bucket(File file) {
+            this.file = file;
+        }
+
+        private static int hash(long eventId, long begin, long alarmTime) {
+            long h = eventId * 31 + begin;
+            h = h * 31 + alarmTime;
+            h ^= (h >>> 32);
+            int i = (int) h;
+            return i ^ (i >>> 16);
+        }
+
+        private int indexOf(long eventId, long begin, long alarmTime) {
+            int mask = used.length - 1;
+            int i = hash(eventId, begin, alarmTime) & mask;
+            while (used[i]) {
+                if (eventIds[i] == eventId && begins[i] == begin && alarmTimes[i] == alarmTime) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1 - i;
+        }
+
+        boolean contains(long eventId, long begin, long alarmTime) {
+            return indexOf(eventId, begin, alarmTime) >= 0;
+        }
+
+        /**
+         * Returns false if the alert was already in the bucket.
+         */
+        boolean add(long eventId, long begin, long alarmTime) {
+            int i = indexOf(eventId, begin, alarmTime);
+            if (i >= 0) {
+                return false;
+            }
+            if ((size + 1) * 2 > used.length) {
+                grow();
+                i = indexOf(eventId, begin, alarmTime);
+            }
+            i = -1 - i;
+            used[i] = true;
+            eventIds[i] = eventId;
+            begins[i] = begin;
+            alarmTimes[i] = alarmTime;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldEventIds = eventIds;
+            long[] oldBegins = begins;
+            long[] oldAlarmTimes = alarmTimes;
+            boolean[] oldUsed = used;
+            int capacity = oldUsed.length * 2;
+            eventIds = new long[capacity];
+            begins = new long[capacity];
+            alarmTimes = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i]) {
+                    add(oldEventIds[i], oldBegins[i], oldAlarmTimes[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ledger of the app, loading it on first use.
+     */
+    public static synchronized FiredAlertLedger getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FiredAlertLedger(new File(context.getFilesDir(), DIR_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Creates a ledger stored in the given directory and loads the alerts
+     * already in it.
+     */
+    FiredAlertLedger(File dir) {
+        mDir = dir;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            long day;
+            try {
+                day = Long.parseLong(file.getName());
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring " + file);
+                continue;
+            }
+            Bucket bucket = new Bucket(file);
+            load(bucket);
+            mBuckets.put(day, bucket);
+        }
+    }
+
+    private static void load(Bucket bucket) {
+        // A record cut short by a crash is ignored
+        long records = bucket.file.length() / RECORD_SIZE;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(bucket.file)));
+            for (long i = 0; i < records; i++) {
+                bucket.add(in.readLong(), in.readLong(), in.readLong());
+            }
+        } catch (EOFException e) {
+            // The file was shorter than it seemed, keep what was read
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't read " + bucket.file, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static long getDay(long alarmTime) {
+        // Floor division, so alarm times before 1970 still get their own day
+        long day = alarmTime / BUCKET_MS;
+        return alarmTime < 0 && alarmTime % BUCKET_MS != 0 ? day - 1 : day;
+    }
+
+    /**
+     * Returns whether the alert has been recorded as fired.
+     */
+    public synchronized boolean hasFired(long eventId, long begin, long alarmTime) {
+        Bucket bucket = mBuckets.get(getDay(alarmTime));
+        return bucket != null && bucket.contains(eventId, begin, alarmTime);
+    }
+
+    /**
+     * Records the alert as fired.
+     */
+    public synchronized void setFired(long eventId, long begin, long alarmTime) {
+        long day = getDay(alarmTime);
+        Bucket bucket = mBuckets.get(day);
+        if (bucket == null) {
+            bucket = new Bucket(new File(mDir, Long.toString(day)));
+            mBuckets.put(day, bucket);
+        }
+        if (!bucket.add(eventId, begin, alarmTime)) {
+            return;
+        }
+
+        FileOutputStream out = null;
+        try {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                Log.e(TAG, "Couldn't create " + mDir);
+                return;
+            }
+            out = new FileOutputStream(bucket.file, true);
+            // Written at once, so a record is either complete or cut short
+            byte[] record = new byte[RECORD_SIZE];
+            putLong(record, 0, eventId);
+            putLong(record, 8, begin);
+            putLong(record, 16, alarmTime);
+            out.write(record);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't write " + bucket.file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Forgets the alerts whose alarm time is before cutoffMillis. Whole days
+     * are dropped, so some alerts may be kept up to a day longer.
+     */
+    public synchronized void expire(long cutoffMillis) {
+        long cutoffDay = getDay(cutoffMillis);
+        Iterator<Map.Entry<Long, Bucket>> it = mBuckets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Bucket> entry = it.next();
+            if (entry.getKey() < cutoffDay) {
+                File file = entry.getValue().file;
+                if (file.exists() && !file.delete()) {
+                    Log.e(TAG, "Couldn't delete " + file);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of days that have alerts in the ledger.
+     */
+    synchronized int getDayCount() {
+        return mBuckets.size();
+    }
+}
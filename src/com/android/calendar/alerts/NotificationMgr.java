@@ -6,6 +6,14 @@ public abstract class NotificationMgr {
     public abstract void notify(int id, NotificationWrapper notification);
     public abstract void cancel(int id);
 
+    /**
+     * Returns what was last posted through this manager, so unchanged
+     * notifications can be skipped, or null to always post and cancel them.
+     */
+    public NotificationState getState() {
+        return null;
+    }
+
     /**
      * Don't actually use the notification framework's cancelAll since the SyncAdapter
      * might post notifications and we don't want to affect those.
@@ -15,11 +23,18 @@ public abstract class NotificationMgr {
     }
 
     /**
-     * Cancels IDs between the specified bounds, inclusively.
+     * Cancels IDs between the specified bounds, inclusively.  IDs known to be
+     * cancelled already are skipped.
      */
     public void cancelAllBetween(int from, int to) {
+        NotificationState state = getState();
         for (int i = from; i <= to; i++) {
-            cancel(i);
+            if (state == null) {
+                cancel(i);
+            } else if (!state.isCancelled(i)) {
+                cancel(i);
+                state.setCancelled(i);
+            }
         }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.calendar.alerts;
+
+/**
+ * Remembers what was last posted for each alert notification id, as a hash
+ * of the content of the notification, so that a refresh only posts the
+ * notifications that changed and only cancels the ones that are showing.
+ *
+ * Nothing is known about a notification until it is posted or cancelled
+ * here, e.g. after the process was restarted, so it is posted or cancelled
+ * as if it changed.
+ */
+public class NotificationState {
+    private static final byte UNKNOWN = 0;
+    private static final byte CANCELLED = 1;
+    private static final byte POSTED = 2;
+
+    // FNV-1a parameters
+    private static final long HASH_SEED = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private final byte[] mStates;
+    private final long[] mHashes;
+
+    /**
+     * @param maxId the highest notification id to keep track of
+     */
+    public NotificationState(int maxId) {
+        mStates = new byte[maxId + 1];
+        mHashes = new long[maxId + 1];
+    }
+
+    /**
+     * Returns true if the notification with this id was posted with the
+     * same content hash.
+     */
+    public synchronized boolean isPosted(int id, long hash) {
+        return id < mStates.length && mStates[id] == POSTED && mHashes[id] == hash;
+    }
+
+    public synchronized void setPosted(int id, long hash) {
+        if (id < mStates.length) {
+            mStates[id] = POSTED;
+            mHashes[id] = hash;
+        }
+    }
+
+    /**
+     * Returns true if the notification with this id is known to be
+     * cancelled.
+     */
+    public synchronized boolean isCancelled(int id) {
+        return id < mStates.length && mStates[id] == CANCELLED;
+    }
+
+    public synchronized void setCancelled(int id) {
+        if (id < mStates.length) {
+            mStates[id] = CANCELLED;
+        }
+    }
+
+    /**
+     * Forgets everything, e.g. when the notifications were changed by
+     * someone else.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mStates.length; i++) {
+            mStates[i] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the start value of a content hash.
+     */
+    public static long newHash() {
+        return HASH_SEED;
+    }
+
+    /**
+     * Mixes a value into a content hash.
+     */
+    public static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xff;
+            hash *= HASH_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes a string, which may be null, into a content hash.
+     */
+    public static long hash(long hash, String value) {
+        if (value == null) {
+            return hash(hash, -1L);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            hash ^= value.charAt(i);
+            hash *= HASH_PRIME;
+        }
+        return hash(hash, length);
+    }
+}
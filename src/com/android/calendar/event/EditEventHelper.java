@@ -37,6 +37,8 @@ import android.view.View;
 
 import com.android.calendar.AbstractCalendarActivity;
 import com.android.calendar.AsyncQueryService;
+import com.android.calendar.CalendarController;
+import com.android.calendar.CalendarController.LocalChange;
 import com.android.calendar.CalendarEventModel;
 import com.android.calendar.CalendarEventModel.Attendee;
 import com.android.calendar.CalendarEventModel.ReminderEntry;
@@ -531,8 +533,21 @@ public class EditEventHelper {
         }
 
 
-        mService.startBatch(mService.getNextToken(), null, android.provider.CalendarContract.AUTHORITY, ops,
-                Utils.UNDO_DELAY);
+        // Tell the views which event to refresh once the batch completes. A new
+        // event is only known by the id the provider gives it, and exceptions
+        // and split recurrences change the instances of more than one event,
+        // so those are reloaded in full.
+        LocalChange change;
+        if (uri == null) {
+            change = new LocalChange(-1, eventIdIndex);
+        } else if (newEvent) {
+            change = new LocalChange(-1, -1);
+        } else {
+            change = new LocalChange(ContentUris.parseId(uri), -1);
+        }
+        CalendarController.localChangeStarted();
+        mService.startBatch(mService.getNextToken(), change,
+                android.provider.CalendarContract.AUTHORITY, ops, Utils.UNDO_DELAY);
 
         return true;
     }
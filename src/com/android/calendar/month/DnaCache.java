@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import com.android.calendar.Event;
+import com.android.calendar.R;
+import com.android.calendar.Utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes the DNA of the month view weeks on a background thread and keeps
+ * the most recent results, so a week view that is recycled for a week that
+ * was seen before draws its DNA right away instead of weaving it again on the
+ * UI thread.
+ */
+public class DnaCache {
+    private static final int MAX_WEEKS = 32;
+
+    private static DnaCache sInstance;
+
+    private final Context mContext;
+    private final int mConflictColor;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler;
+
+    // Access ordered, so the least recently used week is evicted first
+    private final LinkedHashMap<Key, WeekDna> mWeeks =
+            new LinkedHashMap<Key, WeekDna>(MAX_WEEKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, WeekDna> eldest) {
+            return size() > MAX_WEEKS;
+        }
+    };
+
+    /**
+     * Identifies the DNA of a week: the days it covers, the size it is drawn
+     * at, the x position of each day's strands and the set of events it was
+     * computed from.
+     */
+    public static final class Key {
+        private final int mFirstJulianDay;
+        private final int mWidth;
+        private final int mHeight;
+        private final int[] mDayXs;
+        private final int mEventsVersion;
+
+        public Key(int firstJulianDay, int width, int height, int[] dayXs, int eventsVersion) {
+            mFirstJulianDay = firstJulianDay;
+            mWidth = width;
+            mHeight = height;
+            mDayXs = dayXs.clone();
+            mEventsVersion = eventsVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mFirstJulianDay == other.mFirstJulianDay && mWidth == other.mWidth
+                    && mHeight == other.mHeight && mEventsVersion == other.mEventsVersion
+                    && Arrays.equals(mDayXs, other.mDayXs);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mFirstJulianDay;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + Arrays.hashCode(mDayXs);
+            result = 31 * result + mEventsVersion;
+            return result;
+        }
+    }
+
+    /**
+     * The DNA of a single week, flattened into primitive arrays. Instances
+     * are never modified once created, so they can be shared by any number of
+     * views.
+     */
+    public static final class WeekDna {
+        /**
+         * The color of each strand. The conflict strand, if any, is last so
+         * it is drawn on top.
+         */
+        public final int[] colors;
+        /**
+         * The lines of strand i are at points[offsets[i]] to
+         * points[offsets[i + 1] - 1], 4 values per line.
+         */
+        public final int[] offsets;
+        public final float[] points;
+        /**
+         * The all day color of each day, 0 for no all day event, or null if
+         * the week has no all day events.
+         */
+        public final int[] allDays;
+
+        WeekDna(HashMap<Integer, Utils.DNAStrand> strands, int conflictColor) {
+            int numStrands = 0;
+            int numPoints = 0;
+            Utils.DNAStrand conflict = null;
+            if (strands != null) {
+                for (Utils.DNAStrand strand : strands.values()) {
+                    if (strand.color == conflictColor) {
+                        conflict = strand;
+                    }
+                    if (strand.points != null && strand.points.length != 0) {
+                        numStrands++;
+                        numPoints += strand.points.length;
+                    }
+                }
+            }
+            colors = new int[numStrands];
+            offsets = new int[numStrands + 1];
+            points = new float[numPoints];
+            allDays = conflict != null ? conflict.allDays : null;
+            if (strands == null) {
+                return;
+            }
+            int i = 0;
+            for (Utils.DNAStrand strand : strands.values()) {
+                if (strand != conflict) {
+                    i = addStrand(strand, i);
+                }
+            }
+            if (conflict != null) {
+                addStrand(conflict, i);
+            }
+        }
+
+        private int addStrand(Utils.DNAStrand strand, int i) {
+            if (strand.points == null || strand.points.length == 0) {
+                return i;
+            }
+            colors[i] = strand.color;
+            System.arraycopy(strand.points, 0, points, offsets[i], strand.points.length);
+            offsets[i + 1] = offsets[i] + strand.points.length;
+            return i + 1;
+        }
+    }
+
+    /**
+     * Receives the DNA computed in the background.
+     */
+    public interface Listener {
+        /**
+         * Called on the worker thread before the DNA is computed, to skip the
+         * requests of views that have been recycled since.
+         */
+        boolean isWaitingFor(Key key);
+
+        /**
+         * Called on the UI thread once the DNA is ready.
+         */
+        void onDnaReady(Key key, WeekDna dna);
+    }
+
+    public static synchronized DnaCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DnaCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DnaCache(Context context) {
+        mContext = context;
+        mConflictColor = context.getResources().getColor(R.color.month_dna_conflict_time_color);
+        HandlerThread thread = new HandlerThread("DnaWorker",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWorkerHandler = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Returns the cached DNA for the key, or null if it hasn't been computed.
+     */
+    public synchronized WeekDna get(Key key) {
+        return mWeeks.get(key);
+    }
+
+    private synchronized void put(Key key, WeekDna dna) {
+        mWeeks.put(key, dna);
+    }
+
+    /**
+     * Computes the DNA of a week in the background, see
+     * {@link Utils#createDNAStrands}, and hands it to the listener on the UI
+     * thread. The events must not be modified afterwards.
+     */
+    public void requestDna(final Key key, final ArrayList<Event> events, final int top,
+            final int bottom, final int minPixels, final Listener listener) {
+        mWorkerHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!listener.isWaitingFor(key)) {
+                    return;
+                }
+                WeekDna dna = get(key);
+                if (dna == null) {
+                    HashMap<Integer, Utils.DNAStrand> strands = Utils.createDNAStrands(
+                            key.mFirstJulianDay, events, top, bottom, minPixels, key.mDayXs, mContext);
+                    dna = new WeekDna(strands, mConflictColor);
+                    put(key, dna);
+                }
+                final WeekDna result = dna;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onDnaReady(key, result);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -54,7 +54,7 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
     protected int mOrientation = Configuration.ORIENTATION_LANDSCAPE;
     private final boolean mShowAgendaWithMonth;
 
-    protected ArrayList<ArrayList<Event>> mEventDayList = new ArrayList<ArrayList<Event>>();
+    protected MonthEventIndex mEventIndex = null;
     protected ArrayList<Event> mEvents = null;
 
     private boolean mAnimateToday = false;
@@ -131,64 +131,26 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
         mEvents = events;
         mFirstJulianDay = firstJulianDay;
         mQueryDays = numDays;
-        // Create a new list, this is necessary since the weeks are referencing
-        // pieces of the old list
-        ArrayList<ArrayList<Event>> eventDayList = new ArrayList<ArrayList<Event>>();
-        for (int i = 0; i < numDays; i++) {
-            eventDayList.add(new ArrayList<Event>());
-        }
-
-        if (events == null || events.size() == 0) {
-            if(Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "No events. Returning early--go schedule something fun.");
-            }
-            mEventDayList = eventDayList;
-            refresh();
-            return;
-        }
-
-        // Compute the new set of days with events
-        for (Event event : events) {
-            int startDay = event.startDay - mFirstJulianDay;
-            int endDay = event.endDay - mFirstJulianDay + 1;
-            if (startDay < numDays || endDay >= 0) {
-                if (startDay < 0) {
-                    startDay = 0;
-                }
-                if (startDay > numDays) {
-                    continue;
-                }
-                if (endDay < 0) {
-                    continue;
-                }
-                if (endDay > numDays) {
-                    endDay = numDays;
-                }
-                for (int j = startDay; j < endDay; j++) {
-                    eventDayList.get(j).add(event);
-                }
-            }
-        }
+        // Create a new index, the weeks are still referencing the old one
+        mEventIndex = new MonthEventIndex(firstJulianDay, numDays, events);
         if(Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "Processed " + events.size() + " events.");
+            Log.d(TAG, "Processed " + (events == null ? 0 : events.size()) + " events.");
         }
-        mEventDayList = eventDayList;
         refresh();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         if (mIsMiniMonth) {
             return super.getView(position, convertView, parent);
         }
         MonthWeekEventsView v;
-        LayoutParams params = new LayoutParams(
-                LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
-        HashMap<String, Integer> drawingParams = null;
+        WeekParams drawingParams = null;
         boolean isAnimatingToday = false;
         if (convertView != null) {
             v = (MonthWeekEventsView) convertView;
+            // We store the drawing parameters in the view so it can be recycled
+            drawingParams = (WeekParams) v.getTag();
             // Checking updateToday uses the current params instead of the new
             // params, so this is assuming the view is relatively stable
             if (mAnimateToday && v.updateToday(mSelectedDay.timezone)) {
@@ -201,52 +163,51 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
                     mAnimateTime = 0;
                 } else {
                     isAnimatingToday = true;
-                    // There is a bug that causes invalidates to not work some
-                    // of the time unless we recreate the view.
-                    v = new MonthWeekEventsView(mContext);
                 }
-            } else {
-                drawingParams = (HashMap<String, Integer>) v.getTag();
             }
         } else {
             v = new MonthWeekEventsView(mContext);
+            // Set up the new view
+            LayoutParams params = new LayoutParams(
+                    LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+            v.setLayoutParams(params);
+            v.setClickable(true);
+            v.setOnTouchListener(this);
         }
         if (drawingParams == null) {
-            drawingParams = new HashMap<String, Integer>();
+            drawingParams = new WeekParams();
         }
         drawingParams.clear();
 
-        v.setLayoutParams(params);
-        v.setClickable(true);
-        v.setOnTouchListener(this);
-
         int selectedDay = -1;
         if (mSelectedWeek == position) {
             selectedDay = mSelectedDay.weekDay;
         }
 
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_HEIGHT,
-                (parent.getHeight() + parent.getTop()) / mNumWeeks);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SELECTED_DAY, selectedDay);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_SHOW_WK_NUM, mShowWeekNumber ? 1 : 0);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK_START, mFirstDayOfWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_NUM_DAYS, mDaysPerWeek);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_WEEK, position);
-        drawingParams.put(SimpleWeekView.VIEW_PARAMS_FOCUS_MONTH, mFocusMonth);
-        drawingParams.put(MonthWeekEventsView.VIEW_PARAMS_ORIENTATION, mOrientation);
+        drawingParams.height = (parent.getHeight() + parent.getTop()) / mNumWeeks;
+        drawingParams.selectedDay = selectedDay;
+        drawingParams.showWeekNumber = mShowWeekNumber ? 1 : 0;
+        drawingParams.weekStart = mFirstDayOfWeek;
+        drawingParams.numDays = mDaysPerWeek;
+        drawingParams.week = position;
+        drawingParams.focusMonth = mFocusMonth;
+        drawingParams.orientation = mOrientation;
 
         if (isAnimatingToday) {
-            drawingParams.put(MonthWeekEventsView.VIEW_PARAMS_ANIMATE_TODAY, 1);
+            drawingParams.animateToday = true;
             mAnimateToday = false;
         }
 
         v.setWeekParams(drawingParams, mSelectedDay.timezone);
         sendEventsToView(v);
+        // A recycled view may already be laid out at the right size, so make
+        // sure it redraws, including the first frame of the today animation
+        v.invalidate();
         return v;
     }
 
     private void sendEventsToView(MonthWeekEventsView v) {
-        if (mEventDayList.size() == 0) {
+        if (mEventIndex == null) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "No events loaded, did not pass any events to view.");
             }
@@ -254,9 +215,7 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             return;
         }
         int viewJulianDay = v.getFirstJulianDay();
-        int start = viewJulianDay - mFirstJulianDay;
-        int end = start + v.mNumDays;
-        if (start < 0 || end > mEventDayList.size()) {
+        if (!mEventIndex.covers(viewJulianDay, v.mNumDays)) {
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "Week is outside range of loaded events. viewStart: " + viewJulianDay
                         + " eventsStart: " + mFirstJulianDay);
@@ -264,7 +223,7 @@ public class MonthByWeekAdapter extends SimpleWeeksAdapter {
             v.setEvents(null, null);
             return;
         }
-        v.setEvents(mEventDayList.subList(start, end), mEvents);
+        v.setEvents(mEventIndex, mEvents);
     }
 
     @Override
@@ -45,6 +45,7 @@ import com.android.calendar.CalendarController.EventInfo;
 import com.android.calendar.CalendarController.EventType;
 import com.android.calendar.CalendarController.ViewType;
 import com.android.calendar.Event;
+import com.android.calendar.EventCache;
 import com.android.calendar.R;
 import com.android.calendar.Utils;
 
@@ -87,6 +88,24 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
     private volatile boolean mShouldLoad = true;
     private boolean mUserScrolled = false;
 
+    // The EventCache generation when the current load was started
+    private int mCacheGeneration;
+
+    // The days covered by the current query. When the list scrolls by a few
+    // weeks this is only the newly exposed weeks, and the result is merged
+    // with the events already loaded for the rest of the window.
+    private int mQueryFirstJulianDay;
+    private int mQueryLastJulianDay;
+    // The events of the loaded window, kept to merge partial queries into
+    private ArrayList<Event> mLoadedEvents;
+    // The days mLoadedEvents covers. This is still the previous window while
+    // the query for a newer one is running, or was dropped for another.
+    private int mEventsFirstJulianDay;
+    private int mEventsLastJulianDay;
+    // The cursor the loaded events came from, to tell a redelivery of the
+    // same result from a requery after the provider changed
+    private Cursor mLoadedCursor;
+
     private int mEventsLoadingDelay;
     private boolean mShowCalendarControls;
     private boolean mIsDetached;
@@ -119,15 +138,35 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
                 // Stop any previous loads while we update the uri
                 stopLoader();
 
-                // Start the loader again
+                int prevFirstJulianDay = mFirstLoadedJulianDay;
+                int prevLastJulianDay = mLastLoadedJulianDay;
+                int prevQueryFirstJulianDay = mQueryFirstJulianDay;
+                int prevQueryLastJulianDay = mQueryLastJulianDay;
+                Uri prevUri = mEventUri;
                 mEventUri = updateUri();
 
-                mLoader.setUri(mEventUri);
-                mLoader.startLoading();
-                mLoader.onContentChanged();
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, "Started loader with uri: " + mEventUri);
+                // Skip the query if every day in the new range has been seen
+                if (loadEventsFromCache()) {
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Loaded events from cache for uri: " + mEventUri);
+                    }
+                    return;
+                }
+
+                if (mLoadedEvents != null && mFirstLoadedJulianDay == prevFirstJulianDay
+                        && mLastLoadedJulianDay == prevLastJulianDay) {
+                    // Nothing new is exposed, keep the current query and just
+                    // resume watching for changes
+                    mEventUri = prevUri;
+                    mQueryFirstJulianDay = prevQueryFirstJulianDay;
+                    mQueryLastJulianDay = prevQueryLastJulianDay;
+                    mLoader.startLoading();
+                    return;
                 }
+                if (mLoadedEvents != null) {
+                    updateQueryRange();
+                }
+                startLoader();
             }
         }
     };
@@ -144,8 +183,8 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
 
 
     /**
-     * Updates the uri used by the loader according to the current position of
-     * the listview.
+     * Updates the range of loaded days according to the current position of
+     * the listview. The query range is reset to the whole range.
      *
      * @return The new Uri to use
      */
@@ -155,12 +194,45 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
             int julianDay = child.getFirstJulianDay();
             mFirstLoadedJulianDay = julianDay;
         }
+        mLastLoadedJulianDay = mFirstLoadedJulianDay + (mNumWeeks + 2 * WEEKS_BUFFER) * 7;
+        mQueryFirstJulianDay = mFirstLoadedJulianDay;
+        mQueryLastJulianDay = mLastLoadedJulianDay;
+        return buildUri(mQueryFirstJulianDay, mQueryLastJulianDay);
+    }
+
+    /**
+     * Narrows the query to the weeks that {@link #mLoadedEvents} doesn't
+     * cover, when the new range only extends the days it covers on one side.
+     * The events of the overlap are kept in {@link #mLoadedEvents}.
+     */
+    private void updateQueryRange() {
+        if (mFirstLoadedJulianDay > mEventsFirstJulianDay
+                && mFirstLoadedJulianDay <= mEventsLastJulianDay
+                && mLastLoadedJulianDay > mEventsLastJulianDay) {
+            // Scrolled forward, load the weeks exposed at the end
+            mQueryFirstJulianDay = mEventsLastJulianDay + 1;
+            mQueryLastJulianDay = mLastLoadedJulianDay;
+        } else if (mFirstLoadedJulianDay < mEventsFirstJulianDay
+                && mLastLoadedJulianDay >= mEventsFirstJulianDay
+                && mLastLoadedJulianDay < mEventsLastJulianDay) {
+            // Scrolled back, load the weeks exposed at the start
+            mQueryFirstJulianDay = mFirstLoadedJulianDay;
+            mQueryLastJulianDay = mEventsFirstJulianDay - 1;
+        } else {
+            return;
+        }
+        mEventUri = buildUri(mQueryFirstJulianDay, mQueryLastJulianDay);
+    }
+
+    /**
+     * Creates the uri for the instances between the given days.
+     */
+    private Uri buildUri(int firstJulianDay, int lastJulianDay) {
         // -1 to ensure we get all day events from any time zone
-        mTempTime.setJulianDay(mFirstLoadedJulianDay - 1);
+        mTempTime.setJulianDay(firstJulianDay - 1);
         long start = mTempTime.toMillis(true);
-        mLastLoadedJulianDay = mFirstLoadedJulianDay + (mNumWeeks + 2 * WEEKS_BUFFER) * 7;
         // +1 to ensure we get all day events from any time zone
-        mTempTime.setJulianDay(mLastLoadedJulianDay + 1);
+        mTempTime.setJulianDay(lastJulianDay + 1);
         long end = mTempTime.toMillis(true);
 
         // Create a new uri with the updated times
@@ -170,6 +242,60 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         return builder.build();
     }
 
+    /**
+     * Points the loader at {@link #mEventUri} and starts a new query.
+     */
+    private void startLoader() {
+        mLoadedCursor = null;
+        mCacheGeneration = EventCache.getInstance(mContext).getGeneration();
+        mLoader.setUri(mEventUri);
+        mLoader.startLoading();
+        mLoader.onContentChanged();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Started loader with uri: " + mEventUri);
+        }
+    }
+
+    /**
+     * Queries the whole loaded range again, dropping the kept events.
+     */
+    private void reloadAll() {
+        mLoadedEvents = null;
+        mQueryFirstJulianDay = mFirstLoadedJulianDay;
+        mQueryLastJulianDay = mLastLoadedJulianDay;
+        mEventUri = buildUri(mFirstLoadedJulianDay, mLastLoadedJulianDay);
+        startLoader();
+    }
+
+    /**
+     * Keeps the events of the loaded range to merge partial queries into.
+     */
+    private void setLoadedEvents(ArrayList<Event> events) {
+        mLoadedEvents = events;
+        mEventsFirstJulianDay = mFirstLoadedJulianDay;
+        mEventsLastJulianDay = mLastLoadedJulianDay;
+    }
+
+    /**
+     * Fills in the adapter from the shared {@link EventCache} if every day
+     * of the loaded range is cached. The loader is left with its previous
+     * uri so a late result from it is ignored by onLoadFinished.
+     *
+     * @return true if the events were served from the cache
+     */
+    private boolean loadEventsFromCache() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        if (!EventCache.getInstance(mContext).getEvents(mFirstLoadedJulianDay,
+                mLastLoadedJulianDay, mHideDeclined || !mShowDetailsInMonth, events)) {
+            return false;
+        }
+        EventCache.sortAndDedupe(events, EventCache.MONTH_VIEW_ORDER);
+        setLoadedEvents(events);
+        ((MonthByWeekAdapter) mAdapter).setEvents(mFirstLoadedJulianDay,
+                mLastLoadedJulianDay - mFirstLoadedJulianDay + 1, events);
+        return true;
+    }
+
     // Extract range of julian days from URI
     private void updateLoadedDays() {
         List<String> pathSegments = mEventUri.getPathSegments();
@@ -183,6 +309,8 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         mFirstLoadedJulianDay = Time.getJulianDay(first, mTempTime.gmtoff);
         mTempTime.set(last);
         mLastLoadedJulianDay = Time.getJulianDay(last, mTempTime.gmtoff);
+        mQueryFirstJulianDay = mFirstLoadedJulianDay;
+        mQueryLastJulianDay = mLastLoadedJulianDay;
     }
 
     protected String updateWhere() {
@@ -327,6 +455,7 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
                     Time.getJulianDay(mSelectedDay.toMillis(true), mSelectedDay.gmtoff)
                     - (mNumWeeks * 7 / 2);
             mEventUri = updateUri();
+            mCacheGeneration = EventCache.getInstance(mContext).getGeneration();
             String where = updateWhere();
 
             loader = new CursorLoader(
@@ -348,6 +477,8 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
         mHideDeclined = Utils.getHideDeclinedEvents(mContext);
         if (prevHideDeclined != mHideDeclined && mLoader != null) {
             mLoader.setSelection(updateWhere());
+            // The kept events were filtered with the old selection
+            mLoadedEvents = null;
         }
         mDaysPerWeek = Utils.getDaysPerWeek(mContext);
         updateHeader();
@@ -373,9 +504,40 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
                 // result
                 return;
             }
+            if (data == mLoadedCursor) {
+                // The loader redelivered a result we already have
+                return;
+            }
+            boolean partial = mQueryFirstJulianDay != mFirstLoadedJulianDay
+                    || mQueryLastJulianDay != mLastLoadedJulianDay;
+            if (partial && (mLoadedCursor != null || mLoadedEvents == null)) {
+                // The provider changed after the new weeks were merged, or the
+                // events to merge with are gone, so the whole range has to be
+                // queried again
+                reloadAll();
+                return;
+            }
             ArrayList<Event> events = new ArrayList<Event>();
             Event.buildEventsFromCursor(
-                    events, data, mContext, mFirstLoadedJulianDay, mLastLoadedJulianDay);
+                    events, data, mContext, mQueryFirstJulianDay, mQueryLastJulianDay);
+            if (!mHideDeclined && mShowDetailsInMonth) {
+                // Only complete results, including declined events, can be
+                // shared with the other views.
+                EventCache.getInstance(mContext).putDays(mQueryFirstJulianDay,
+                        mQueryLastJulianDay, events, mCacheGeneration);
+            }
+            if (partial) {
+                // Keep the events still in the loaded range and add the new
+                // weeks. Events spanning both are in both lists.
+                for (Event e : mLoadedEvents) {
+                    if (e.endDay >= mFirstLoadedJulianDay && e.startDay <= mLastLoadedJulianDay) {
+                        events.add(e);
+                    }
+                }
+                EventCache.sortAndDedupe(events, EventCache.MONTH_VIEW_ORDER);
+            }
+            setLoadedEvents(events);
+            mLoadedCursor = data;
             ((MonthByWeekAdapter) mAdapter).setEvents(mFirstLoadedJulianDay,
                     mLastLoadedJulianDay - mFirstLoadedJulianDay + 1, events);
         }
@@ -389,7 +551,14 @@ public class MonthByWeekFragment extends SimpleDayPickerFragment implements
     public void eventsChanged() {
         // TODO remove this after b/3387924 is resolved
         if (mLoader != null) {
-            mLoader.forceLoad();
+            EventCache.getInstance(mContext).invalidate();
+            if (mEventUri != null) {
+                // Any events kept from earlier queries may be stale too
+                reloadAll();
+            } else {
+                mCacheGeneration = EventCache.getInstance(mContext).getGeneration();
+                mLoader.forceLoad();
+            }
         }
     }
 
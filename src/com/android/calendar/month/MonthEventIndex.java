@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import com.android.calendar.Event;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes the events loaded for the month view by day. Events that start and
+ * end on the same day are bucketed by day with a counting sort into a single
+ * array plus an offset per day. Events that span several days are kept once,
+ * in a separate list of intervals, instead of being copied into every day
+ * they cover.
+ *
+ * The events of a day are returned in the same relative order as in the list
+ * the index was built from.
+ */
+public class MonthEventIndex {
+    private static final AtomicInteger sNextVersion = new AtomicInteger();
+
+    private final int mVersion;
+    private final int mFirstJulianDay;
+    private final int mNumDays;
+
+    // The single day events, grouped by day. The events of day i are at
+    // [mDayOffsets[i], mDayOffsets[i + 1]) and mDayOrder holds the position
+    // of each one in the original list.
+    private final Event[] mDayEvents;
+    private final int[] mDayOrder;
+    private final int[] mDayOffsets;
+
+    // The events that span more than one day, in their original order, with
+    // the first and last day they cover relative to mFirstJulianDay
+    private final Event[] mSpanningEvents;
+    private final int[] mSpanningOrder;
+    private final int[] mSpanningStart;
+    private final int[] mSpanningEnd;
+
+    /**
+     * Builds the index of the given events for numDays days starting at
+     * firstJulianDay. Events outside of those days are ignored.
+     *
+     * @param firstJulianDay the first day of the index
+     * @param numDays the number of days in the index
+     * @param events the events to index, may be null
+     */
+    public MonthEventIndex(int firstJulianDay, int numDays, ArrayList<Event> events) {
+        mVersion = sNextVersion.incrementAndGet();
+        mFirstJulianDay = firstJulianDay;
+        mNumDays = numDays;
+        mDayOffsets = new int[numDays + 1];
+
+        int size = events == null ? 0 : events.size();
+        int lastDay = firstJulianDay + numDays - 1;
+        int spanningCount = 0;
+        // Count the single day events of each day, shifted by one so the
+        // counts become the offsets after a running sum
+        for (int i = 0; i < size; i++) {
+            Event event = events.get(i);
+            if (event.endDay < firstJulianDay || event.startDay > lastDay) {
+                continue;
+            }
+            if (event.startDay == event.endDay) {
+                mDayOffsets[event.startDay - firstJulianDay + 1]++;
+            } else {
+                spanningCount++;
+            }
+        }
+        for (int day = 0; day < numDays; day++) {
+            mDayOffsets[day + 1] += mDayOffsets[day];
+        }
+
+        int dayCount = mDayOffsets[numDays];
+        mDayEvents = new Event[dayCount];
+        mDayOrder = new int[dayCount];
+        mSpanningEvents = new Event[spanningCount];
+        mSpanningOrder = new int[spanningCount];
+        mSpanningStart = new int[spanningCount];
+        mSpanningEnd = new int[spanningCount];
+
+        int[] next = new int[numDays];
+        System.arraycopy(mDayOffsets, 0, next, 0, numDays);
+        int spanning = 0;
+        for (int i = 0; i < size; i++) {
+            Event event = events.get(i);
+            if (event.endDay < firstJulianDay || event.startDay > lastDay) {
+                continue;
+            }
+            if (event.startDay == event.endDay) {
+                int slot = next[event.startDay - firstJulianDay]++;
+                mDayEvents[slot] = event;
+                mDayOrder[slot] = i;
+            } else {
+                mSpanningEvents[spanning] = event;
+                mSpanningOrder[spanning] = i;
+                mSpanningStart[spanning] = Math.max(event.startDay - firstJulianDay, 0);
+                mSpanningEnd[spanning] = Math.min(event.endDay - firstJulianDay, numDays - 1);
+                spanning++;
+            }
+        }
+    }
+
+    /**
+     * Returns a number that identifies the set of events of this index. Every
+     * index gets a new one, so it changes whenever the events are reloaded.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getFirstJulianDay() {
+        return mFirstJulianDay;
+    }
+
+    public int getNumDays() {
+        return mNumDays;
+    }
+
+    /**
+     * Returns true if the index covers every day from firstJulianDay to
+     * firstJulianDay + numDays - 1.
+     */
+    public boolean covers(int firstJulianDay, int numDays) {
+        return firstJulianDay >= mFirstJulianDay
+                && firstJulianDay + numDays <= mFirstJulianDay + mNumDays;
+    }
+
+    /**
+     * Returns the number of events on the given day.
+     */
+    public int getEventCount(int julianDay) {
+        int day = julianDay - mFirstJulianDay;
+        if (day < 0 || day >= mNumDays) {
+            return 0;
+        }
+        int count = mDayOffsets[day + 1] - mDayOffsets[day];
+        for (int i = 0; i < mSpanningEvents.length; i++) {
+            if (mSpanningStart[i] <= day && mSpanningEnd[i] >= day) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replaces the contents of out with the events on the given day, in the
+     * order of the list the index was built from.
+     *
+     * @param julianDay the day to get the events of
+     * @param out the list to fill
+     * @return the number of events on that day
+     */
+    public int getEvents(int julianDay, ArrayList<Event> out) {
+        out.clear();
+        int day = julianDay - mFirstJulianDay;
+        if (day < 0 || day >= mNumDays) {
+            return 0;
+        }
+        // Merge the single day events with the spanning events covering the
+        // day, which are both in their original order
+        int i = mDayOffsets[day];
+        int end = mDayOffsets[day + 1];
+        int s = nextSpanning(0, day);
+        while (i < end || s < mSpanningEvents.length) {
+            if (s == mSpanningEvents.length
+                    || (i < end && mDayOrder[i] < mSpanningOrder[s])) {
+                out.add(mDayEvents[i++]);
+            } else {
+                out.add(mSpanningEvents[s]);
+                s = nextSpanning(s + 1, day);
+            }
+        }
+        return out.size();
+    }
+
+    private int nextSpanning(int from, int day) {
+        while (from < mSpanningEvents.length
+                && (mSpanningStart[from] > day || mSpanningEnd[from] < day)) {
+            from++;
+        }
+        return from;
+    }
+}
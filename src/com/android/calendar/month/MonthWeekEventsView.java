@@ -53,7 +53,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 
-public class MonthWeekEventsView extends SimpleWeekView {
+public class MonthWeekEventsView extends SimpleWeekView implements DnaCache.Listener {
 
     private static final String TAG = "MonthView";
 
@@ -76,7 +76,6 @@ public class MonthWeekEventsView extends SimpleWeekView {
     private static int DNA_WIDTH = 8;
     private static int DNA_ALL_DAY_WIDTH = 32;
     private static int DNA_SIDE_PADDING = 6;
-    private static int CONFLICT_COLOR = Color.BLACK;
     private static int EVENT_TEXT_COLOR = Color.WHITE;
 
     private static int DEFAULT_EDGE_SPACING = 0;
@@ -109,13 +108,27 @@ public class MonthWeekEventsView extends SimpleWeekView {
     protected boolean mHasToday = false;
     protected int mTodayIndex = -1;
     protected int mOrientation = Configuration.ORIENTATION_LANDSCAPE;
-    protected List<ArrayList<Event>> mEvents = null;
+    protected MonthEventIndex mEvents = null;
+    // Holds the events of one day while the render model is built
+    private final ArrayList<Event> mDayEvents = new ArrayList<Event>();
     protected ArrayList<Event> mUnsortedEvents = null;
-    HashMap<Integer, Utils.DNAStrand> mDna = null;
+    DnaCache.WeekDna mDna = null;
+    // The DNA this view is showing or waiting for, written on the UI thread
+    // and read by the DNA worker
+    private volatile DnaCache.Key mDnaKey = null;
     // This is for drawing the outlines around event chips and supports up to 10
     // events being drawn on each day. The code will expand this if necessary.
     protected FloatRef mEventOutlines = new FloatRef(10 * 4 * 4 * 7);
 
+    // The precomputed event chips of the week, rebuilt by createRenderModel()
+    // when the events or the size of the view change. The chips are reused
+    // across rebuilds; only the first mEventChipCount of them are valid.
+    protected ArrayList<EventChip> mEventChips = new ArrayList<EventChip>();
+    protected int mEventChipCount = 0;
+    protected String[] mMoreEventsText = null;
+    protected int[] mMoreEventsX = null;
+    protected boolean mRenderModelValid = false;
+
 
 
     protected static StringBuilder mStringBuilder = new StringBuilder(50);
@@ -224,6 +237,8 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     private int[] mDayXs;
+    // Reused by drawDaySeparators() so drawing doesn't allocate
+    private final float[] mDaySeparatorLines = new float[8 * 4];
 
     /**
      * This provides a reference to a float array which allows for easy size
@@ -244,6 +259,27 @@ public class MonthWeekEventsView extends SimpleWeekView {
         }
     }
 
+    /**
+     * The position, colors and text of a single event in month view, computed
+     * ahead of time so drawing it does not need to measure any text.
+     */
+    protected static class EventChip {
+        int left;
+        int top;
+        int right;
+        int bottom;
+        Style boxStyle;
+        int color;
+        String title;
+        Paint titlePaint;
+        int textX;
+        int titleY;
+        // null if the time range is not shown
+        String times;
+        Paint timesPaint;
+        int timesY;
+    }
+
     /**
      * Shows up as an error if we don't include this.
      */
@@ -251,10 +287,10 @@ public class MonthWeekEventsView extends SimpleWeekView {
         super(context);
     }
 
-    // Sets the list of events for this week. Takes a sorted list of arrays
-    // divided up by day for generating the large month version and the full
-    // arraylist sorted by start time to generate the dna version.
-    public void setEvents(List<ArrayList<Event>> sortedEvents, ArrayList<Event> unsortedEvents) {
+    // Sets the list of events for this week. Takes an index of the events by
+    // day for generating the large month version and the full arraylist sorted
+    // by start time to generate the dna version.
+    public void setEvents(MonthEventIndex sortedEvents, ArrayList<Event> unsortedEvents) {
         setEvents(sortedEvents);
         // The MIN_WEEK_WIDTH is a hack to prevent the view from trying to
         // generate dna bits before its width has been fixed.
@@ -264,7 +300,9 @@ public class MonthWeekEventsView extends SimpleWeekView {
     /**
      * Sets up the dna bits for the view. This will return early if the view
      * isn't in a state that will create a valid set of dna yet (such as the
-     * views width not being set correctly yet).
+     * views width not being set correctly yet). The dna is taken from the
+     * {@link DnaCache} if this week was drawn at this size with the same
+     * events before, and computed in the background otherwise.
      */
     public void createDna(ArrayList<Event> unsortedEvents) {
         if (unsortedEvents == null || mWidth <= MIN_WEEK_WIDTH || getContext() == null) {
@@ -272,6 +310,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
             // just clear it if a null set has been passed to this view
             mUnsortedEvents = unsortedEvents;
             mDna = null;
+            mDnaKey = null;
             return;
         } else {
             // clear the cached set of events since we're ready to build it now
@@ -279,35 +318,70 @@ public class MonthWeekEventsView extends SimpleWeekView {
         }
         // Create the drawing coordinates for dna
         if (!mShowDetailsInMonth) {
-            int numDays = mEvents.size();
+            int numDays = mNumDays;
             int effectiveWidth = mWidth - mPadding * 2;
             if (mShowWeekNum) {
                 effectiveWidth -= SPACING_WEEK_NUMBER;
             }
             DNA_ALL_DAY_WIDTH = effectiveWidth / numDays - 2 * DNA_SIDE_PADDING;
             mDNAAllDayPaint.setStrokeWidth(DNA_ALL_DAY_WIDTH);
-            mDayXs = new int[numDays];
+            if (mDayXs == null || mDayXs.length != numDays) {
+                mDayXs = new int[numDays];
+            }
             for (int day = 0; day < numDays; day++) {
                 mDayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
 
             }
 
-            int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
-            int bottom = mHeight - DNA_MARGIN;
-            mDna = Utils.createDNAStrands(mFirstJulianDay, unsortedEvents, top, bottom,
-                    DNA_MIN_SEGMENT_HEIGHT, mDayXs, getContext());
+            if (mEvents == null) {
+                // The events don't cover this week
+                mDna = null;
+                mDnaKey = null;
+                return;
+            }
+            DnaCache.Key key = new DnaCache.Key(mFirstJulianDay, mWidth, mHeight, mDayXs,
+                    mEvents.getVersion());
+            if (key.equals(mDnaKey)) {
+                // Already showing or waiting for this dna
+                return;
+            }
+            mDnaKey = key;
+            DnaCache cache = DnaCache.getInstance(getContext());
+            mDna = cache.get(key);
+            if (mDna == null) {
+                int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
+                int bottom = mHeight - DNA_MARGIN;
+                cache.requestDna(key, unsortedEvents, top, bottom, DNA_MIN_SEGMENT_HEIGHT,
+                        this);
+            }
+        }
+    }
+
+    @Override
+    public boolean isWaitingFor(DnaCache.Key key) {
+        return key.equals(mDnaKey);
+    }
+
+    @Override
+    public void onDnaReady(DnaCache.Key key, DnaCache.WeekDna dna) {
+        if (key.equals(mDnaKey)) {
+            mDna = dna;
+            invalidate();
         }
     }
 
-    public void setEvents(List<ArrayList<Event>> sortedEvents) {
+    public void setEvents(MonthEventIndex sortedEvents) {
         mEvents = sortedEvents;
+        mRenderModelValid = false;
         if (sortedEvents == null) {
             return;
         }
-        if (sortedEvents.size() != mNumDays) {
+        if (!sortedEvents.covers(mFirstJulianDay, mNumDays)) {
             if (Log.isLoggable(TAG, Log.ERROR)) {
-                Log.wtf(TAG, "Events size must be same as days displayed: size="
-                        + sortedEvents.size() + " days=" + mNumDays);
+                Log.wtf(TAG, "Events must cover the days displayed: start="
+                        + sortedEvents.getFirstJulianDay() + " size="
+                        + sortedEvents.getNumDays() + " firstDay=" + mFirstJulianDay
+                        + " days=" + mNumDays);
             }
             mEvents = null;
             return;
@@ -351,7 +425,6 @@ public class MonthWeekEventsView extends SimpleWeekView {
             TEXT_SIZE_EVENT_TITLE = resources.getInteger(R.integer.text_size_event_title);
             TEXT_SIZE_MONTH_NUMBER = resources.getInteger(R.integer.text_size_month_number);
             SIDE_PADDING_MONTH_NUMBER = resources.getInteger(R.integer.month_day_number_margin);
-            CONFLICT_COLOR = resources.getColor(R.color.month_dna_conflict_time_color);
             EVENT_TEXT_COLOR = resources.getColor(R.color.calendar_event_text_color);
             if (mScale != 1) {
                 TOP_PADDING_MONTH_NUMBER *= mScale;
@@ -487,17 +560,27 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     @Override
-    public void setWeekParams(HashMap<String, Integer> params, String tz) {
+    protected void readWeekParams(HashMap<String, Integer> params, WeekParams weekParams) {
+        super.readWeekParams(params, weekParams);
+        if (params.containsKey(VIEW_PARAMS_ORIENTATION)) {
+            weekParams.orientation = params.get(VIEW_PARAMS_ORIENTATION);
+        }
+        weekParams.animateToday = params.containsKey(VIEW_PARAMS_ANIMATE_TODAY);
+    }
+
+    @Override
+    public void setWeekParams(WeekParams params, String tz) {
         super.setWeekParams(params, tz);
+        mRenderModelValid = false;
 
-        if (params.containsKey(VIEW_PARAMS_ORIENTATION)) {
-            mOrientation = params.get(VIEW_PARAMS_ORIENTATION);
+        if (params.orientation != WeekParams.UNSET) {
+            mOrientation = params.orientation;
         }
 
         updateToday(tz);
         mNumCells = mNumDays + 1;
 
-        if (params.containsKey(VIEW_PARAMS_ANIMATE_TODAY) && mHasToday) {
+        if (params.animateToday && mHasToday) {
             synchronized (mAnimatorListener) {
                 if (mTodayAnimator != null) {
                     mTodayAnimator.removeAllListeners();
@@ -538,6 +621,12 @@ public class MonthWeekEventsView extends SimpleWeekView {
         invalidate();
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mRenderModelValid = false;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         drawBackground(canvas);
@@ -586,7 +675,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
 
     @Override
     protected void drawDaySeparators(Canvas canvas) {
-        float lines[] = new float[8 * 4];
+        float lines[] = mDaySeparatorLines;
         int count = 6 * 4;
         int wkNumOffset = 0;
         int i = 0;
@@ -721,11 +810,60 @@ public class MonthWeekEventsView extends SimpleWeekView {
         if (mEvents == null) {
             return;
         }
+        if (!mRenderModelValid) {
+            createRenderModel();
+        }
+
+        for (int i = 0; i < mEventChipCount; i++) {
+            EventChip chip = mEventChips.get(i);
+            mEventSquarePaint.setStyle(chip.boxStyle);
+            mEventSquarePaint.setColor(chip.color);
+            canvas.drawRect(chip.left, chip.top, chip.right, chip.bottom, mEventSquarePaint);
+            if (chip.titlePaint == mFramedEventPaint) {
+                // Text inside frame is same color as frame.
+                mFramedEventPaint.setColor(chip.color);
+            }
+            canvas.drawText(chip.title, chip.textX, chip.titleY, chip.titlePaint);
+            if (chip.times != null) {
+                canvas.drawText(chip.times, chip.textX, chip.timesY, chip.timesPaint);
+            }
+        }
 
-        int day = -1;
-        for (ArrayList<Event> eventDay : mEvents) {
-            day++;
-            if (eventDay == null || eventDay.size() == 0) {
+        if (mMoreEventsText != null) {
+            for (int day = 0; day < mMoreEventsText.length; day++) {
+                if (mMoreEventsText[day] != null) {
+                    drawMoreEvents(canvas, mMoreEventsText[day], mMoreEventsX[day]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lays out the event chips of the week: decides for each day whether the
+     * time ranges fit, ellipsizes the titles and times, and positions the
+     * chips and the "+ more" lines. The result only depends on the events and
+     * the size of the view, so onDraw just replays it. This will return early
+     * if the view's width has not been fixed yet, in which case it is retried
+     * on the next draw.
+     */
+    protected void createRenderModel() {
+        mEventChipCount = 0;
+        mMoreEventsText = null;
+        if (mEvents == null || mWidth <= MIN_WEEK_WIDTH || getContext() == null) {
+            return;
+        }
+
+        int numDays = mNumDays;
+        mMoreEventsText = new String[numDays];
+        if (mMoreEventsX == null || mMoreEventsX.length < numDays) {
+            mMoreEventsX = new int[numDays];
+        }
+        Resources res = getContext().getResources();
+        String timeZone = Utils.getTimeZone(getContext(), null);
+
+        ArrayList<Event> eventDay = mDayEvents;
+        for (int day = 0; day < numDays; day++) {
+            if (mEvents.getEvents(mFirstJulianDay + day, eventDay) == 0) {
                 continue;
             }
             int ySquare;
@@ -746,8 +884,8 @@ public class MonthWeekEventsView extends SimpleWeekView {
             int yTest = ySquare;
             while (iter.hasNext()) {
                 Event event = iter.next();
-                int newY = drawEvent(canvas, event, xSquare, yTest, rightEdge, iter.hasNext(),
-                        showTimes, /*doDraw*/ false);
+                int newY = layoutEvent(null, event, xSquare, yTest, rightEdge, iter.hasNext(),
+                        showTimes, timeZone);
                 if (newY == yTest) {
                     showTimes = false;
                     break;
@@ -759,20 +897,28 @@ public class MonthWeekEventsView extends SimpleWeekView {
             iter = eventDay.iterator();
             while (iter.hasNext()) {
                 Event event = iter.next();
-                int newY = drawEvent(canvas, event, xSquare, ySquare, rightEdge, iter.hasNext(),
-                        showTimes, /*doDraw*/ true);
+                if (mEventChipCount == mEventChips.size()) {
+                    mEventChips.add(new EventChip());
+                }
+                int newY = layoutEvent(mEventChips.get(mEventChipCount), event, xSquare, ySquare,
+                        rightEdge, iter.hasNext(), showTimes, timeZone);
                 if (newY == ySquare) {
                     break;
                 }
+                mEventChipCount++;
                 eventCount++;
                 ySquare = newY;
             }
 
             int remaining = eventDay.size() - eventCount;
             if (remaining > 0) {
-                drawMoreEvents(canvas, remaining, xSquare);
+                String text = res.getQuantityString(R.plurals.month_more_events, remaining);
+                mMoreEventsText[day] = String.format(text, remaining);
+                mMoreEventsX[day] = xSquare;
             }
         }
+        eventDay.clear();
+        mRenderModelValid = true;
     }
 
     protected int addChipOutline(FloatRef lines, int count, int x, int y) {
@@ -802,25 +948,25 @@ public class MonthWeekEventsView extends SimpleWeekView {
     }
 
     /**
-     * Attempts to draw the given event. Returns the y for the next event or the
-     * original y if the event will not fit. An event is considered to not fit
-     * if the event and its extras won't fit or if there are more events and the
-     * more events line would not fit after drawing this event.
+     * Attempts to lay out the given event. Returns the y for the next event or
+     * the original y if the event will not fit. An event is considered to not
+     * fit if the event and its extras won't fit or if there are more events and
+     * the more events line would not fit after drawing this event.
      *
-     * @param canvas the canvas to draw on
-     * @param event the event to draw
+     * @param chip the chip to fill in with the event's drawing positions and
+     *   text, or null to only compute the height
+     * @param event the event to lay out
      * @param x the top left corner for this event's color chip
      * @param y the top left corner for this event's color chip
      * @param rightEdge the rightmost point we're allowed to draw on (exclusive)
      * @param moreEvents indicates whether additional events will follow this one
      * @param showTimes if set, a second line with a time range will be displayed for non-all-day
      *   events
-     * @param doDraw if set, do the actual drawing; otherwise this just computes the height
-     *   and returns
+     * @param timeZone the time zone to format the time range in
      * @return the y for the next event or the original y if it won't fit
      */
-    protected int drawEvent(Canvas canvas, Event event, int x, int y, int rightEdge,
-            boolean moreEvents, boolean showTimes, boolean doDraw) {
+    protected int layoutEvent(EventChip chip, Event event, int x, int y, int rightEdge,
+            boolean moreEvents, boolean showTimes, String timeZone) {
         /*
          * Vertical layout:
          *   (top of box)
@@ -862,7 +1008,7 @@ public class MonthWeekEventsView extends SimpleWeekView {
         if (y + eventRequiredSpace + reservedSpace > mHeight) {
             // Not enough space, return original y
             return y;
-        } else if (!doDraw) {
+        } else if (chip == null) {
             return y + eventRequiredSpace;
         }
 
@@ -878,18 +1024,18 @@ public class MonthWeekEventsView extends SimpleWeekView {
             // We shift the render offset "inward", because drawRect with a stroke width greater
             // than 1 draws outside the specified bounds.  (We don't adjust the left edge, since
             // we want to match the existing appearance of the "event square".)
-            r.left = x;
-            r.right = rightEdge - STROKE_WIDTH_ADJ;
-            r.top = y + STROKE_WIDTH_ADJ;
-            r.bottom = y + mEventHeight + BORDER_SPACE * 2 - STROKE_WIDTH_ADJ;
+            chip.left = x;
+            chip.right = rightEdge - STROKE_WIDTH_ADJ;
+            chip.top = y + STROKE_WIDTH_ADJ;
+            chip.bottom = y + mEventHeight + BORDER_SPACE * 2 - STROKE_WIDTH_ADJ;
             textX = x + BORDER_SPACE;
             textY = y + mEventAscentHeight + BORDER_SPACE;
             textRightEdge = rightEdge - BORDER_SPACE;
         } else {
-            r.left = x;
-            r.right = x + EVENT_SQUARE_WIDTH;
-            r.bottom = y + mEventAscentHeight;
-            r.top = r.bottom - EVENT_SQUARE_WIDTH;
+            chip.left = x;
+            chip.right = x + EVENT_SQUARE_WIDTH;
+            chip.bottom = y + mEventAscentHeight;
+            chip.top = chip.bottom - EVENT_SQUARE_WIDTH;
             textX = x + EVENT_SQUARE_WIDTH + EVENT_RIGHT_PADDING;
             textY = y + mEventAscentHeight;
             textRightEdge = rightEdge;
@@ -903,9 +1049,8 @@ public class MonthWeekEventsView extends SimpleWeekView {
                 solidBackground = true;
             }
         }
-        mEventSquarePaint.setStyle(boxStyle);
-        mEventSquarePaint.setColor(color);
-        canvas.drawRect(r, mEventSquarePaint);
+        chip.boxStyle = boxStyle;
+        chip.color = color;
 
         float avail = textRightEdge - textX;
         CharSequence text = TextUtils.ellipsize(
@@ -918,14 +1063,17 @@ public class MonthWeekEventsView extends SimpleWeekView {
             // Use "declined event" color.
             textPaint = mDeclinedEventPaint;
         } else if (allDay) {
-            // Text inside frame is same color as frame.
-            mFramedEventPaint.setColor(color);
+            // Text inside frame is same color as frame; the color is set when drawing.
             textPaint = mFramedEventPaint;
         } else {
             // Use generic event text color.
             textPaint = mEventPaint;
         }
-        canvas.drawText(text.toString(), textX, textY, textPaint);
+        chip.title = text.toString();
+        chip.titlePaint = textPaint;
+        chip.textX = textX;
+        chip.titleY = textY;
+        chip.times = null;
         y += mEventHeight;
         if (allDay) {
             y += BORDER_SPACE * 2;
@@ -937,10 +1085,11 @@ public class MonthWeekEventsView extends SimpleWeekView {
             mStringBuilder.setLength(0);
             text = DateUtils.formatDateRange(getContext(), mFormatter, event.startMillis,
                     event.endMillis, DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_ALL,
-                    Utils.getTimeZone(getContext(), null)).toString();
+                    timeZone).toString();
             text = TextUtils.ellipsize(text, mEventExtrasPaint, avail, TextUtils.TruncateAt.END);
-            canvas.drawText(text.toString(), textX, textY, isDeclined ? mEventDeclinedExtrasPaint
-                    : mEventExtrasPaint);
+            chip.times = text.toString();
+            chip.timesPaint = isDeclined ? mEventDeclinedExtrasPaint : mEventExtrasPaint;
+            chip.timesY = textY;
             y += mExtrasHeight;
         }
 
@@ -949,13 +1098,11 @@ public class MonthWeekEventsView extends SimpleWeekView {
         return y;
     }
 
-    protected void drawMoreEvents(Canvas canvas, int remainingEvents, int x) {
+    protected void drawMoreEvents(Canvas canvas, String text, int x) {
         int y = mHeight - (mExtrasDescent + EVENT_BOTTOM_PADDING);
-        String text = getContext().getResources().getQuantityString(
-                R.plurals.month_more_events, remainingEvents);
         mEventExtrasPaint.setAntiAlias(true);
         mEventExtrasPaint.setFakeBoldText(true);
-        canvas.drawText(String.format(text, remainingEvents), x, y, mEventExtrasPaint);
+        canvas.drawText(text, x, y, mEventExtrasPaint);
         mEventExtrasPaint.setFakeBoldText(false);
     }
 
@@ -967,33 +1114,27 @@ public class MonthWeekEventsView extends SimpleWeekView {
      * @param canvas
      */
     protected void drawDNA(Canvas canvas) {
-        // Draw event and conflict times
-        if (mDna != null) {
-            for (Utils.DNAStrand strand : mDna.values()) {
-                if (strand.color == CONFLICT_COLOR || strand.points == null
-                        || strand.points.length == 0) {
-                    continue;
-                }
-                mDNATimePaint.setColor(strand.color);
-                canvas.drawLines(strand.points, mDNATimePaint);
-            }
-            // Draw black last to make sure it's on top
-            Utils.DNAStrand strand = mDna.get(CONFLICT_COLOR);
-            if (strand != null && strand.points != null && strand.points.length != 0) {
-                mDNATimePaint.setColor(strand.color);
-                canvas.drawLines(strand.points, mDNATimePaint);
+        // Draw event and conflict times. The conflict strand is last, which
+        // makes sure it's on top.
+        DnaCache.WeekDna dna = mDna;
+        if (dna != null) {
+            for (int i = 0; i < dna.colors.length; i++) {
+                mDNATimePaint.setColor(dna.colors[i]);
+                canvas.drawLines(dna.points, dna.offsets[i], dna.offsets[i + 1] - dna.offsets[i],
+                        mDNATimePaint);
             }
             if (mDayXs == null) {
                 return;
             }
             int numDays = mDayXs.length;
             int xOffset = (DNA_ALL_DAY_WIDTH - DNA_WIDTH) / 2;
-            if (strand != null && strand.allDays != null && strand.allDays.length == numDays) {
+            int[] allDays = dna.allDays;
+            if (allDays != null && allDays.length == numDays) {
                 for (int i = 0; i < numDays; i++) {
                     // this adds at most 7 draws. We could sort it by color and
                     // build an array instead but this is easier.
-                    if (strand.allDays[i] != 0) {
-                        mDNAAllDayPaint.setColor(strand.allDays[i]);
+                    if (allDays[i] != 0) {
+                        mDNAAllDayPaint.setColor(allDays[i]);
                         canvas.drawLine(mDayXs[i] + xOffset, DNA_MARGIN, mDayXs[i] + xOffset,
                                 DNA_MARGIN + DNA_ALL_DAY_HEIGHT, mDNAAllDayPaint);
                     }
@@ -1075,7 +1216,8 @@ public class MonthWeekEventsView extends SimpleWeekView {
                     int dayStart = SPACING_WEEK_NUMBER + mPadding;
                     int dayPosition = (int) ((event.getX() - dayStart) * mNumDays / (mWidth
                             - dayStart - mPadding));
-                    ArrayList<Event> events = mEvents.get(dayPosition);
+                    ArrayList<Event> events = new ArrayList<Event>();
+                    mEvents.getEvents(mFirstJulianDay + dayPosition, events);
                     List<CharSequence> text = accessEvent.getText();
                     for (Event e : events) {
                         text.add(e.getTitleAndLocation() + ". ");
@@ -110,6 +110,9 @@ public class SimpleWeekView extends View {
     // affects the padding on the sides of this view
     protected int mPadding = 0;
 
+    // The day and week numbers as strings, shared by all the week views
+    private static final String[] sNumberStrings = new String[54];
+
     protected Rect r = new Rect();
     protected Paint p = new Paint();
     protected Paint mMonthNumPaint;
@@ -157,6 +160,9 @@ public class SimpleWeekView extends View {
     // The timezone to display times/dates in (used for determining when Today
     // is)
     protected String mTimeZone = Time.getCurrentTimezone();
+    // Reused by setWeekParams() so recycling a view doesn't allocate
+    private final Time mTempTime = new Time();
+    private final Time mTempToday = new Time();
 
     protected int mBGColor;
     protected int mSelectedWeekBGColor;
@@ -213,24 +219,68 @@ public class SimpleWeekView extends View {
         if (!params.containsKey(VIEW_PARAMS_WEEK)) {
             throw new InvalidParameterException("You must specify the week number for this view");
         }
+        WeekParams weekParams = new WeekParams();
+        readWeekParams(params, weekParams);
+        setWeekParams(weekParams, tz);
+    }
+
+    /**
+     * Copies the values of a parameter map into a {@link WeekParams}.
+     * Subclasses that define their own parameters should override this to
+     * copy them too.
+     */
+    protected void readWeekParams(HashMap<String, Integer> params, WeekParams weekParams) {
+        weekParams.week = params.get(VIEW_PARAMS_WEEK);
+        if (params.containsKey(VIEW_PARAMS_HEIGHT)) {
+            weekParams.height = params.get(VIEW_PARAMS_HEIGHT);
+        }
+        if (params.containsKey(VIEW_PARAMS_SELECTED_DAY)) {
+            weekParams.selectedDay = params.get(VIEW_PARAMS_SELECTED_DAY);
+        }
+        if (params.containsKey(VIEW_PARAMS_NUM_DAYS)) {
+            weekParams.numDays = params.get(VIEW_PARAMS_NUM_DAYS);
+        }
+        if (params.containsKey(VIEW_PARAMS_SHOW_WK_NUM)) {
+            weekParams.showWeekNumber = params.get(VIEW_PARAMS_SHOW_WK_NUM);
+        }
+        if (params.containsKey(VIEW_PARAMS_WEEK_START)) {
+            weekParams.weekStart = params.get(VIEW_PARAMS_WEEK_START);
+        }
+        if (params.containsKey(VIEW_PARAMS_FOCUS_MONTH)) {
+            weekParams.focusMonth = params.get(VIEW_PARAMS_FOCUS_MONTH);
+        }
+    }
+
+    /**
+     * Sets all the parameters for displaying this week, see
+     * {@link WeekParams}. The params are kept as the tag of this view so an
+     * adapter can refill them when the view is recycled.
+     *
+     * @param params The new parameters
+     * @param tz The time zone this view should reference times in
+     */
+    public void setWeekParams(WeekParams params, String tz) {
+        if (params.week == WeekParams.UNSET) {
+            throw new InvalidParameterException("You must specify the week number for this view");
+        }
         setTag(params);
         mTimeZone = tz;
         // We keep the current value for any params not present
-        if (params.containsKey(VIEW_PARAMS_HEIGHT)) {
-            mHeight = params.get(VIEW_PARAMS_HEIGHT);
+        if (params.height != WeekParams.UNSET) {
+            mHeight = params.height;
             if (mHeight < MIN_HEIGHT) {
                 mHeight = MIN_HEIGHT;
             }
         }
-        if (params.containsKey(VIEW_PARAMS_SELECTED_DAY)) {
-            mSelectedDay = params.get(VIEW_PARAMS_SELECTED_DAY);
+        if (params.selectedDay != WeekParams.UNSET) {
+            mSelectedDay = params.selectedDay;
         }
         mHasSelectedDay = mSelectedDay != -1;
-        if (params.containsKey(VIEW_PARAMS_NUM_DAYS)) {
-            mNumDays = params.get(VIEW_PARAMS_NUM_DAYS);
+        if (params.numDays != WeekParams.UNSET) {
+            mNumDays = params.numDays;
         }
-        if (params.containsKey(VIEW_PARAMS_SHOW_WK_NUM)) {
-            if (params.get(VIEW_PARAMS_SHOW_WK_NUM) != 0) {
+        if (params.showWeekNumber != WeekParams.UNSET) {
+            if (params.showWeekNumber != 0) {
                 mShowWeekNum = true;
             } else {
                 mShowWeekNum = false;
@@ -238,24 +288,28 @@ public class SimpleWeekView extends View {
         }
         mNumCells = mShowWeekNum ? mNumDays + 1 : mNumDays;
 
-        // Allocate space for caching the day numbers and focus values
-        mDayNumbers = new String[mNumCells];
-        mFocusDay = new boolean[mNumCells];
-        mOddMonth = new boolean[mNumCells];
-        mWeek = params.get(VIEW_PARAMS_WEEK);
+        // Allocate space for caching the day numbers and focus values, unless
+        // this view is being recycled for a week of the same size
+        if (mDayNumbers == null || mDayNumbers.length != mNumCells) {
+            mDayNumbers = new String[mNumCells];
+            mFocusDay = new boolean[mNumCells];
+            mOddMonth = new boolean[mNumCells];
+        }
+        mWeek = params.week;
         int julianMonday = Utils.getJulianMondayFromWeeksSinceEpoch(mWeek);
-        Time time = new Time(tz);
+        Time time = mTempTime;
+        time.timezone = tz;
         time.setJulianDay(julianMonday);
 
         // If we're showing the week number calculate it based on Monday
         int i = 0;
         if (mShowWeekNum) {
-            mDayNumbers[0] = Integer.toString(time.getWeekNumber());
+            mDayNumbers[0] = getNumberString(time.getWeekNumber());
             i++;
         }
 
-        if (params.containsKey(VIEW_PARAMS_WEEK_START)) {
-            mWeekStart = params.get(VIEW_PARAMS_WEEK_START);
+        if (params.weekStart != WeekParams.UNSET) {
+            mWeekStart = params.weekStart;
         }
 
         // Now adjust our starting day based on the start day of the week
@@ -274,13 +328,13 @@ public class SimpleWeekView extends View {
         mFirstMonth = time.month;
 
         // Figure out what day today is
-        Time today = new Time(tz);
+        Time today = mTempToday;
+        today.timezone = tz;
         today.setToNow();
         mHasToday = false;
         mToday = -1;
 
-        int focusMonth = params.containsKey(VIEW_PARAMS_FOCUS_MONTH) ? params.get(
-                VIEW_PARAMS_FOCUS_MONTH)
+        int focusMonth = params.focusMonth != WeekParams.UNSET ? params.focusMonth
                 : DEFAULT_FOCUS_MONTH;
 
         for (; i < mNumCells; i++) {
@@ -297,7 +351,7 @@ public class SimpleWeekView extends View {
                 mHasToday = true;
                 mToday = i;
             }
-            mDayNumbers[i] = Integer.toString(time.monthDay++);
+            mDayNumbers[i] = getNumberString(time.monthDay++);
             time.normalize(true);
         }
         // We do one extra add at the end of the loop, if that pushed us to a
@@ -311,6 +365,22 @@ public class SimpleWeekView extends View {
         updateSelectionPositions();
     }
 
+    /**
+     * Returns the string for a day or week number, reusing the same string
+     * for every week view.
+     */
+    private static String getNumberString(int number) {
+        if (number < 0 || number >= sNumberStrings.length) {
+            return Integer.toString(number);
+        }
+        String result = sNumberStrings[number];
+        if (result == null) {
+            result = Integer.toString(number);
+            sNumberStrings[number] = result;
+        }
+        return result;
+    }
+
     /**
      * Sets up the text and style properties for painting. Override this if you
      * want to use a different paint.
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.text.format.Time;
+
+/**
+ * The parameters that control how a {@link SimpleWeekView} appears. The
+ * adapters keep one instance per week view, stored as the view's tag, and
+ * refill it every time the view is bound so that scrolling does not allocate.
+ * {@link #week} is the only required field. Any other field left at
+ * {@link #UNSET} keeps the view's current value, except for
+ * {@link #focusMonth}, which defaults to no focus month.
+ */
+public class WeekParams {
+    public static final int UNSET = Integer.MIN_VALUE;
+
+    /**
+     * The height of this week in pixels.
+     */
+    public int height;
+    /**
+     * The position (or weeks since the epoch) of this week, calculated using
+     * {@link com.android.calendar.Utils#getWeeksSinceEpochFromJulianDay}.
+     */
+    public int week;
+    /**
+     * The selected day, {@link Time#SUNDAY} through {@link Time#SATURDAY}, or
+     * -1 if no day of this week is selected.
+     */
+    public int selectedDay;
+    /**
+     * Which day the week should start on. {@link Time#SUNDAY} through
+     * {@link Time#SATURDAY}.
+     */
+    public int weekStart;
+    /**
+     * How many days to display at a time.
+     */
+    public int numDays;
+    /**
+     * Which month is currently in focus, as defined by {@link Time#month}
+     * [0-11].
+     */
+    public int focusMonth;
+    /**
+     * 1 if this week should display its week number, 0 if it should not.
+     */
+    public int showWeekNumber;
+    /**
+     * The orientation of the device, used by {@link MonthWeekEventsView}.
+     */
+    public int orientation;
+    /**
+     * If set, {@link MonthWeekEventsView} fades in the highlight of today.
+     */
+    public boolean animateToday;
+
+    public WeekParams() {
+        clear();
+    }
+
+    /**
+     * Resets every field to {@link #UNSET}.
+     */
+    public void clear() {
+        height = UNSET;
+        week = UNSET;
+        selectedDay = UNSET;
+        weekStart = UNSET;
+        numDays = UNSET;
+        focusMonth = UNSET;
+        showWeekNumber = UNSET;
+        orientation = UNSET;
+        animateToday = false;
+    }
+}
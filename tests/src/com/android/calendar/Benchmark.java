@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * A minimal harness for the benchmark tests. Each benchmark is warmed up,
+ * then run repeatedly for a fixed amount of time to measure its throughput,
+ * and finally run a few more times with allocation counting enabled to
+ * measure how much it allocates. Results are written to the log with the
+ * tag "CalendarBenchmark" so they can be collected with logcat.
+ *
+ * The benchmarks are only measured once enabled with
+ * "adb shell setprop log.tag.CalendarBenchmark VERBOSE". Otherwise each
+ * operation is run once, so that the benchmarks cost next to nothing in the
+ * normal test run and only check that the operations don't fail.
+ */
+public class Benchmark {
+    private static final String TAG = "CalendarBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final long MEASURE_NANOS = 2000L * 1000 * 1000;
+    private static final int ALLOC_ITERATIONS = 20;
+
+    public static class Result {
+        public final String name;
+        public final long operations;
+        public final long elapsedNanos;
+        public final long allocCount;
+        public final long allocBytes;
+
+        Result(String name, long operations, long elapsedNanos, long allocCount,
+                long allocBytes) {
+            this.name = name;
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.allocCount = allocCount;
+            this.allocBytes = allocBytes;
+        }
+
+        public double opsPerSecond() {
+            return operations * 1e9 / elapsedNanos;
+        }
+
+        public double allocationsPerOp() {
+            return (double) allocCount / ALLOC_ITERATIONS;
+        }
+
+        public double bytesPerOp() {
+            return (double) allocBytes / ALLOC_ITERATIONS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f ops/s, %.1f allocs/op, %.0f bytes/op", name,
+                    opsPerSecond(), allocationsPerOp(), bytesPerOp());
+        }
+    }
+
+    /**
+     * Returns true if the benchmarks should be measured.
+     */
+    public static boolean isEnabled() {
+        return Log.isLoggable(TAG, Log.VERBOSE);
+    }
+
+    /**
+     * Runs the operation and logs its throughput and allocation rate.
+     *
+     * @param name the name reported in the log
+     * @param op the operation to measure. It must leave its inputs in a state
+     *            where it can be run again.
+     * @return the measurements, or null if the benchmarks are not enabled and
+     *         the operation was only run once
+     */
+    public static Result run(String name, Runnable op) {
+        if (!isEnabled()) {
+            op.run();
+            return null;
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            op.run();
+        }
+
+        long operations = 0;
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ALLOC_ITERATIONS; i++) {
+            op.run();
+        }
+        Debug.stopAllocCounting();
+
+        Result result = new Result(name, operations, elapsed, Debug.getThreadAllocCount(),
+                Debug.getThreadAllocSize());
+        Log.i(TAG, result.toString());
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the column layout computed by Event.computePositions.
+ *
+ * You can run these tests with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.EventLayoutTest
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ */
+public class EventLayoutTest extends TestCase {
+    private static final long START = 1000000000000L;
+    private static final long HOUR = DateUtils.HOUR_IN_MILLIS;
+
+    private static Event makeEvent(long start, long end) {
+        Event e = Event.newInstance();
+        e.startMillis = start;
+        e.endMillis = end;
+        return e;
+    }
+
+    private static Event makeAlldayEvent(int startDay, int endDay) {
+        Event e = Event.newInstance();
+        e.allDay = true;
+        e.startDay = startDay;
+        e.endDay = endDay;
+        return e;
+    }
+
+    @SmallTest
+    public void testNonOverlappingEventsShareFirstColumn() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(makeEvent(START, START + HOUR));
+        events.add(makeEvent(START + HOUR, START + 2 * HOUR));
+        events.add(makeEvent(START + 3 * HOUR, START + 4 * HOUR));
+
+        Event.computePositions(events, 0);
+
+        for (Event e : events) {
+            assertEquals(0, e.getColumn());
+            assertEquals(1, e.getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testFreedColumnIsReused() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(makeEvent(START, START + 3 * HOUR));
+        events.add(makeEvent(START, START + HOUR));
+        events.add(makeEvent(START + HOUR, START + 2 * HOUR));
+
+        Event.computePositions(events, 0);
+
+        assertEquals(0, events.get(0).getColumn());
+        assertEquals(1, events.get(1).getColumn());
+        assertEquals(1, events.get(2).getColumn());
+        for (Event e : events) {
+            assertEquals(2, e.getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testMinimumDurationExtendsOverlap() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(makeEvent(START, START + DateUtils.MINUTE_IN_MILLIS));
+        events.add(makeEvent(START + 2 * DateUtils.MINUTE_IN_MILLIS, START + HOUR));
+
+        Event.computePositions(events, 15 * DateUtils.MINUTE_IN_MILLIS);
+
+        assertEquals(0, events.get(0).getColumn());
+        assertEquals(1, events.get(1).getColumn());
+        assertEquals(2, events.get(1).getMaxColumns());
+    }
+
+    @SmallTest
+    public void testMoreThanSixtyFourOverlappingEvents() {
+        final int count = 80;
+        ArrayList<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            events.add(makeEvent(START, START + HOUR));
+        }
+
+        Event.computePositions(events, 0);
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, events.get(i).getColumn());
+            assertEquals(count, events.get(i).getMaxColumns());
+        }
+    }
+
+    @SmallTest
+    public void testAlldayEventsUseSeparateRows() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(makeEvent(START, START + HOUR));
+        events.add(makeAlldayEvent(100, 102));
+        events.add(makeAlldayEvent(101, 101));
+        events.add(makeAlldayEvent(103, 103));
+
+        Event.computePositions(events, 0);
+
+        assertEquals(0, events.get(0).getColumn());
+        assertEquals(1, events.get(0).getMaxColumns());
+        assertEquals(0, events.get(1).getColumn());
+        assertEquals(1, events.get(2).getColumn());
+        assertEquals(2, events.get(2).getMaxColumns());
+        assertEquals(0, events.get(3).getColumn());
+        assertEquals(1, events.get(3).getMaxColumns());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks the event layout of the day view and the DNA of the month view.
+ *
+ * The benchmarks are only measured once enabled, see {@link Benchmark}. You
+ * can then run them with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.LayoutBenchmark
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ * and read the results with "adb logcat -s CalendarBenchmark".
+ */
+public class LayoutBenchmark extends AndroidTestCase {
+    private static final int FIRST_JULIAN_DAY = 2456000;
+    private static final int NUM_DAYS = 7;
+
+    @LargeTest
+    public void testComputePositions() {
+        for (int scenario : SyntheticEvents.ALL) {
+            final ArrayList<Event> events = SyntheticEvents.generate(scenario,
+                    FIRST_JULIAN_DAY, NUM_DAYS);
+            Benchmark.run("computePositions/" + SyntheticEvents.getName(scenario),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            Event.computePositions(events, 15 * DateUtils.MINUTE_IN_MILLIS);
+                        }
+                    });
+        }
+    }
+
+    @LargeTest
+    public void testCreateDNAStrands() {
+        final int[] dayXs = new int[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            dayXs[i] = 20 + i * 100;
+        }
+        for (int scenario : SyntheticEvents.ALL) {
+            final ArrayList<Event> events = SyntheticEvents.generate(scenario,
+                    FIRST_JULIAN_DAY, NUM_DAYS);
+            Benchmark.run("createDNAStrands/" + SyntheticEvents.getName(scenario),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            Utils.createDNAStrands(FIRST_JULIAN_DAY, events, 10, 190, 4, dayXs,
+                                    getContext());
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar;
+
+import android.provider.CalendarContract.Attendees;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Generates reproducible sets of events for the benchmark tests.
+ */
+public class SyntheticEvents {
+    /** One or two short events a day that never overlap. */
+    public static final int SPARSE = 0;
+    /** Twenty events a day at random quarter hours. */
+    public static final int DENSE = 1;
+    /** A hundred events a day that all overlap in the same two hours. */
+    public static final int MANY_OVERLAP = 2;
+    /** Timed and all-day events that last two to five days. */
+    public static final int MULTI_DAY = 3;
+    /** Ten thousand instances of fifty recurring events. */
+    public static final int RECURRING = 4;
+
+    public static final int[] ALL = { SPARSE, DENSE, MANY_OVERLAP, MULTI_DAY, RECURRING };
+
+    private static final String[] NAMES = {
+        "sparse", "dense", "many-overlap", "multi-day", "recurring-10k"
+    };
+
+    private static final int RECURRING_INSTANCES = 10000;
+    private static final int RECURRING_EVENTS = 50;
+
+    private static final long MINUTE = DateUtils.MINUTE_IN_MILLIS;
+
+    /**
+     * Orders events by start time, then by end time descending, which is the
+     * order the day view lays them out in.
+     */
+    public static final Comparator<Event> START_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event lhs, Event rhs) {
+            if (lhs.startMillis != rhs.startMillis) {
+                return lhs.startMillis < rhs.startMillis ? -1 : 1;
+            }
+            if (lhs.endMillis != rhs.endMillis) {
+                return lhs.endMillis > rhs.endMillis ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    public static String getName(int scenario) {
+        return NAMES[scenario];
+    }
+
+    /**
+     * Generates the events of a scenario between firstJulianDay and
+     * firstJulianDay + numDays - 1, sorted by {@link #START_ORDER}.
+     */
+    public static ArrayList<Event> generate(int scenario, int firstJulianDay, int numDays) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        Random random = new Random(scenario);
+        Time time = new Time();
+        long id = 1;
+        switch (scenario) {
+            case SPARSE:
+                for (int day = 0; day < numDays; day++) {
+                    int count = 1 + random.nextInt(2);
+                    for (int i = 0; i < count; i++) {
+                        int startMinute = (9 + 4 * i) * 60;
+                        events.add(makeEvent(time, id++, firstJulianDay + day, startMinute, 60,
+                                random));
+                    }
+                }
+                break;
+            case DENSE:
+                for (int day = 0; day < numDays; day++) {
+                    for (int i = 0; i < 20; i++) {
+                        int startMinute = 15 * random.nextInt(4 * 22);
+                        int duration = 30 + 15 * random.nextInt(5);
+                        events.add(makeEvent(time, id++, firstJulianDay + day, startMinute,
+                                duration, random));
+                    }
+                }
+                break;
+            case MANY_OVERLAP:
+                for (int day = 0; day < numDays; day++) {
+                    for (int i = 0; i < 100; i++) {
+                        int startMinute = 10 * 60 + 5 * random.nextInt(12);
+                        events.add(makeEvent(time, id++, firstJulianDay + day, startMinute,
+                                60 + 5 * random.nextInt(12), random));
+                    }
+                }
+                break;
+            case MULTI_DAY:
+                for (int day = 0; day < numDays; day++) {
+                    for (int i = 0; i < 5; i++) {
+                        int length = 2 + random.nextInt(4);
+                        Event e = makeEvent(time, id++, firstJulianDay + day,
+                                15 * random.nextInt(4 * 24), (length - 1) * 24 * 60 + 60,
+                                random);
+                        if (random.nextBoolean()) {
+                            makeAllDay(time, e, firstJulianDay + day, length);
+                        }
+                        events.add(e);
+                    }
+                }
+                break;
+            case RECURRING:
+                for (int i = 0; i < RECURRING_INSTANCES; i++) {
+                    int day = firstJulianDay + random.nextInt(numDays);
+                    Event e = makeEvent(time, 1 + i % RECURRING_EVENTS, day,
+                            15 * random.nextInt(4 * 23), 30 + 15 * random.nextInt(4), random);
+                    e.isRepeating = true;
+                    events.add(e);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+        Collections.sort(events, START_ORDER);
+        return events;
+    }
+
+    private static Event makeEvent(Time time, long id, int julianDay, int startMinute,
+            int durationMinutes, Random random) {
+        Event e = Event.newInstance();
+        e.id = id;
+        e.title = "Event " + id;
+        e.location = random.nextInt(4) == 0 ? null : "Room " + random.nextInt(100);
+        e.displayTitle = Event.sanitizeDisplayText(e.title);
+        e.displayLocation = Event.sanitizeDisplayText(e.location);
+        e.color = 0xff000000 | random.nextInt(0xffffff);
+        e.selfAttendeeStatus = random.nextInt(8) == 0 ? Attendees.ATTENDEE_STATUS_DECLINED
+                : Attendees.ATTENDEE_STATUS_ACCEPTED;
+        e.startMillis = time.setJulianDay(julianDay) + startMinute * MINUTE;
+        e.endMillis = e.startMillis + durationMinutes * MINUTE;
+        e.startDay = julianDay;
+        e.startTime = startMinute;
+        int endMinute = startMinute + durationMinutes;
+        e.endDay = julianDay + endMinute / (24 * 60);
+        e.endTime = endMinute % (24 * 60);
+        return e;
+    }
+
+    private static void makeAllDay(Time time, Event e, int julianDay, int numDays) {
+        e.allDay = true;
+        e.startDay = julianDay;
+        e.endDay = julianDay + numDays - 1;
+        e.startTime = 0;
+        e.endTime = 24 * 60;
+        e.startMillis = time.setJulianDay(julianDay);
+        e.endMillis = time.setJulianDay(julianDay + numDays);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.MatrixCursor;
+import android.provider.CalendarContract.Instances;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.calendar.Benchmark;
+import com.android.calendar.Event;
+import com.android.calendar.SyntheticEvents;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks the computation of the agenda rows from an instances cursor.
+ *
+ * The benchmarks are only measured once enabled, see {@link Benchmark}. You
+ * can then run them with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.agenda.AgendaBenchmark
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ * and read the results with "adb logcat -s CalendarBenchmark".
+ */
+public class AgendaBenchmark extends AndroidTestCase {
+    private static final int FIRST_JULIAN_DAY = 2456000;
+    private static final int NUM_DAYS = 28;
+
+    // Same columns, in the same order, as the agenda query
+    private static final String[] PROJECTION = new String[] {
+            Instances._ID,
+            Instances.TITLE,
+            Instances.EVENT_LOCATION,
+            Instances.ALL_DAY,
+            Instances.HAS_ALARM,
+            Instances.DISPLAY_COLOR,
+            Instances.RRULE,
+            Instances.BEGIN,
+            Instances.END,
+            Instances.EVENT_ID,
+            Instances.START_DAY,
+            Instances.END_DAY,
+            Instances.SELF_ATTENDEE_STATUS,
+            Instances.ORGANIZER,
+            Instances.OWNER_ACCOUNT,
+            Instances.CAN_ORGANIZER_RESPOND,
+            Instances.EVENT_TIMEZONE,
+    };
+
+    private static MatrixCursor buildCursor(ArrayList<Event> events) {
+        MatrixCursor cursor = new MatrixCursor(PROJECTION, events.size());
+        long instanceId = 1;
+        for (Event e : events) {
+            cursor.addRow(new Object[] {
+                    instanceId++,
+                    e.title,
+                    e.location,
+                    e.allDay ? 1 : 0,
+                    0,
+                    e.color,
+                    e.isRepeating ? "FREQ=DAILY" : null,
+                    e.startMillis,
+                    e.endMillis,
+                    e.id,
+                    e.startDay,
+                    e.endDay,
+                    e.selfAttendeeStatus,
+                    "organizer@example.com",
+                    "owner@example.com",
+                    1,
+                    "UTC",
+            });
+        }
+        return cursor;
+    }
+
+    @LargeTest
+    public void testBuildRows() {
+        for (int scenario : SyntheticEvents.ALL) {
+            ArrayList<Event> events = SyntheticEvents.generate(scenario, FIRST_JULIAN_DAY,
+                    NUM_DAYS);
+            final MatrixCursor cursor = buildCursor(events);
+            Benchmark.run("buildRows/" + SyntheticEvents.getName(scenario),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            cursor.moveToPosition(-1);
+                            new AgendaRowIndex(cursor, FIRST_JULIAN_DAY,
+                                    FIRST_JULIAN_DAY + NUM_DAYS - 1, "UTC");
+                        }
+                    });
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.MatrixCursor;
+import android.provider.CalendarContract.Instances;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AgendaRowIndex}.
+ */
+public class AgendaRowIndexTest extends TestCase {
+    private static final int FIRST_DAY = 2456000;
+
+    // Same columns, in the same order, as the agenda query
+    private static final String[] PROJECTION = new String[] {
+            Instances._ID,
+            Instances.TITLE,
+            Instances.EVENT_LOCATION,
+            Instances.ALL_DAY,
+            Instances.HAS_ALARM,
+            Instances.DISPLAY_COLOR,
+            Instances.RRULE,
+            Instances.BEGIN,
+            Instances.END,
+            Instances.EVENT_ID,
+            Instances.START_DAY,
+            Instances.END_DAY,
+            Instances.SELF_ATTENDEE_STATUS,
+            Instances.ORGANIZER,
+            Instances.OWNER_ACCOUNT,
+            Instances.CAN_ORGANIZER_RESPOND,
+            Instances.EVENT_TIMEZONE,
+    };
+
+    private final Time mTime = new Time(Time.TIMEZONE_UTC);
+
+    private long midnight(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    private static void addRow(MatrixCursor cursor, long instanceId, long eventId, long begin,
+            long end, int startDay, int endDay) {
+        cursor.addRow(new Object[] {
+                instanceId, "Event " + eventId, null, 0, 0, 0, null, begin, end, eventId,
+                startDay, endDay, 0, null, null, 1, Time.TIMEZONE_UTC,
+        });
+    }
+
+    private void assertRow(AgendaRowIndex rows, int row, int type, int day, int position,
+            long startTime, long endTime) {
+        assertEquals("Type of row " + row, type, rows.getType(row));
+        assertEquals("Day of row " + row, day, rows.getDay(row));
+        if (type == AgendaRowIndex.TYPE_MEETING) {
+            assertEquals("Position of row " + row, position, rows.getCursorPosition(row));
+            assertEquals("Start of row " + row, startTime, rows.getStartTime(row));
+            assertEquals("End of row " + row, endTime, rows.getEndTime(row));
+        }
+    }
+
+    @SmallTest
+    public void testMultiDayEventGetsARowPerDay() {
+        long hour = DateUtils.HOUR_IN_MILLIS;
+        long multiDayEnd = midnight(FIRST_DAY + 2) + 9 * hour;
+        MatrixCursor cursor = new MatrixCursor(PROJECTION);
+        addRow(cursor, 1, 1, midnight(FIRST_DAY) + 10 * hour, midnight(FIRST_DAY) + 11 * hour,
+                FIRST_DAY, FIRST_DAY);
+        addRow(cursor, 2, 2, midnight(FIRST_DAY) + 12 * hour, multiDayEnd,
+                FIRST_DAY, FIRST_DAY + 2);
+        addRow(cursor, 3, 3, midnight(FIRST_DAY + 2) + 10 * hour,
+                midnight(FIRST_DAY + 2) + 11 * hour, FIRST_DAY + 2, FIRST_DAY + 2);
+
+        AgendaRowIndex rows = new AgendaRowIndex(cursor, FIRST_DAY, FIRST_DAY + 3,
+                Time.TIMEZONE_UTC);
+
+        final int day = AgendaRowIndex.TYPE_DAY;
+        final int meeting = AgendaRowIndex.TYPE_MEETING;
+        assertEquals(8, rows.getCount());
+        assertRow(rows, 0, day, FIRST_DAY, 0, 0, 0);
+        assertRow(rows, 1, meeting, FIRST_DAY, 0,
+                midnight(FIRST_DAY) + 10 * hour, midnight(FIRST_DAY) + 11 * hour);
+        assertRow(rows, 2, meeting, FIRST_DAY, 1,
+                midnight(FIRST_DAY) + 12 * hour, midnight(FIRST_DAY + 1));
+        assertRow(rows, 3, day, FIRST_DAY + 1, 0, 0, 0);
+        assertRow(rows, 4, meeting, FIRST_DAY + 1, 1,
+                midnight(FIRST_DAY + 1), midnight(FIRST_DAY + 2));
+        assertRow(rows, 5, day, FIRST_DAY + 2, 0, 0, 0);
+        assertRow(rows, 6, meeting, FIRST_DAY + 2, 1, midnight(FIRST_DAY + 2), multiDayEnd);
+        assertRow(rows, 7, meeting, FIRST_DAY + 2, 2,
+                midnight(FIRST_DAY + 2) + 10 * hour, midnight(FIRST_DAY + 2) + 11 * hour);
+        assertEquals(2, rows.getEventId(4));
+        assertEquals(2, rows.getInstanceId(6));
+    }
+
+    @SmallTest
+    public void testHeaderLookups() {
+        long hour = DateUtils.HOUR_IN_MILLIS;
+        MatrixCursor cursor = new MatrixCursor(PROJECTION);
+        addRow(cursor, 1, 1, midnight(FIRST_DAY) + 10 * hour, midnight(FIRST_DAY) + 11 * hour,
+                FIRST_DAY, FIRST_DAY);
+        addRow(cursor, 2, 2, midnight(FIRST_DAY) + 12 * hour, midnight(FIRST_DAY) + 13 * hour,
+                FIRST_DAY, FIRST_DAY);
+        addRow(cursor, 3, 3, midnight(FIRST_DAY + 3) + 10 * hour,
+                midnight(FIRST_DAY + 3) + 11 * hour, FIRST_DAY + 3, FIRST_DAY + 3);
+
+        // Rows: header, 2 events, header, 1 event
+        AgendaRowIndex rows = new AgendaRowIndex(cursor, FIRST_DAY, FIRST_DAY + 6,
+                Time.TIMEZONE_UTC);
+        assertEquals(5, rows.getCount());
+
+        int[] expectedHeaders = {0, 0, 0, 3, 3};
+        int[] expectedItems = {2, 1, 0, 1, 0};
+        for (int row = 0; row < rows.getCount(); row++) {
+            assertEquals("Header of row " + row, expectedHeaders[row], rows.getHeaderRow(row));
+            assertEquals("Items after row " + row, expectedItems[row],
+                    rows.getRowsUntilNextHeader(row));
+        }
+        assertEquals(-1, rows.getHeaderRow(-1));
+        assertEquals(0, rows.getRowsUntilNextHeader(rows.getCount()));
+
+        assertEquals(0, rows.getHeaderRowOnOrAfter(FIRST_DAY - 1));
+        assertEquals(0, rows.getHeaderRowOnOrAfter(FIRST_DAY));
+        assertEquals(3, rows.getHeaderRowOnOrAfter(FIRST_DAY + 1));
+        assertEquals(3, rows.getHeaderRowOnOrAfter(FIRST_DAY + 3));
+        assertEquals(-1, rows.getHeaderRowOnOrAfter(FIRST_DAY + 4));
+    }
+
+    @SmallTest
+    public void testEventsBeforeRangeAreClamped() {
+        long hour = DateUtils.HOUR_IN_MILLIS;
+        MatrixCursor cursor = new MatrixCursor(PROJECTION);
+        addRow(cursor, 1, 1, midnight(FIRST_DAY - 2) + 8 * hour, midnight(FIRST_DAY) + 8 * hour,
+                FIRST_DAY - 2, FIRST_DAY);
+
+        AgendaRowIndex rows = new AgendaRowIndex(cursor, FIRST_DAY, FIRST_DAY + 1,
+                Time.TIMEZONE_UTC);
+
+        assertEquals(2, rows.getCount());
+        assertRow(rows, 0, AgendaRowIndex.TYPE_DAY, FIRST_DAY, 0, 0, 0);
+        assertRow(rows, 1, AgendaRowIndex.TYPE_MEETING, FIRST_DAY, 0,
+                midnight(FIRST_DAY), midnight(FIRST_DAY) + 8 * hour);
+    }
+
+    @SmallTest
+    public void testFirstDayAfterYesterday() {
+        MatrixCursor cursor = new MatrixCursor(PROJECTION);
+        addRow(cursor, 1, 1, midnight(FIRST_DAY), midnight(FIRST_DAY) + 1, FIRST_DAY, FIRST_DAY);
+        AgendaRowIndex rows = new AgendaRowIndex(cursor, FIRST_DAY, FIRST_DAY,
+                Time.TIMEZONE_UTC);
+
+        assertFalse(rows.isFirstDayAfterYesterday(0));
+        rows.setFirstDayAfterYesterday(0);
+        assertTrue(rows.isFirstDayAfterYesterday(0));
+        assertFalse(rows.isAllDay(0));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AgendaWindowCache}.
+ */
+public class AgendaWindowCacheTest extends TestCase {
+    private static final String[] COLUMNS = new String[] { "_id" };
+
+    private static MatrixCursor window(int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[] { (long) i });
+        }
+        return cursor;
+    }
+
+    @SmallTest
+    public void testTakeAdjacentWindows() {
+        AgendaWindowCache cache = new AgendaWindowCache(100 * AgendaWindowCache.BYTES_PER_ROW);
+        Cursor older = window(2);
+        Cursor newer = window(3);
+        cache.put(10, 19, older, 25, cache.getVersion());
+        cache.put(30, 39, newer, 25, cache.getVersion());
+
+        int[] range = new int[2];
+        assertNull(cache.takeEndingOn(18, range));
+        assertSame(older, cache.takeEndingOn(19, range));
+        assertEquals(10, range[0]);
+        assertEquals(19, range[1]);
+        assertNull(cache.takeEndingOn(19, range));
+
+        assertNull(cache.takeCovering(29, 35, range));
+        assertSame(newer, cache.takeCovering(31, 35, range));
+        assertEquals(30, range[0]);
+        assertEquals(39, range[1]);
+        assertEquals(-1, newer.getPosition());
+    }
+
+    @SmallTest
+    public void testEvictsFarthestWindow() {
+        AgendaWindowCache cache = new AgendaWindowCache(5 * AgendaWindowCache.BYTES_PER_ROW);
+        Cursor far = window(2);
+        Cursor near = window(2);
+        cache.put(0, 9, far, 50, cache.getVersion());
+        cache.put(40, 49, near, 50, cache.getVersion());
+        cache.put(60, 69, window(2), 50, cache.getVersion());
+
+        int[] range = new int[2];
+        assertTrue(far.isClosed());
+        assertNull(cache.takeStartingOn(0, range));
+        assertSame(near, cache.takeStartingOn(40, range));
+        assertNotNull(cache.takeStartingOn(60, range));
+    }
+
+    @SmallTest
+    public void testOverlappingWindowIsReplaced() {
+        AgendaWindowCache cache = new AgendaWindowCache(100 * AgendaWindowCache.BYTES_PER_ROW);
+        Cursor old = window(1);
+        cache.put(10, 19, old, 0, cache.getVersion());
+        cache.put(15, 24, window(1), 0, cache.getVersion());
+
+        assertTrue(old.isClosed());
+        assertNull(cache.takeStartingOn(10, new int[2]));
+    }
+
+    @SmallTest
+    public void testClearDropsLateSnapshots() {
+        AgendaWindowCache cache = new AgendaWindowCache(100 * AgendaWindowCache.BYTES_PER_ROW);
+        int version = cache.getVersion();
+        cache.clear();
+        Cursor late = window(1);
+        cache.put(10, 19, late, 0, version);
+
+        assertTrue(late.isClosed());
+        assertNull(cache.takeStartingOn(10, new int[2]));
+    }
+}
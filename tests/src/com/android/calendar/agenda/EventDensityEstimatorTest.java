@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.agenda;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link EventDensityEstimator}.
+ */
+public class EventDensityEstimatorTest extends TestCase {
+    private static final int PAST = EventDensityEstimator.PAST;
+    private static final int FUTURE = EventDensityEstimator.FUTURE;
+
+    @SmallTest
+    public void testNoEstimate() {
+        EventDensityEstimator density = new EventDensityEstimator();
+        assertFalse(density.hasEstimate(PAST));
+        assertEquals(180, density.predictDays(PAST, 50, 7, 180));
+    }
+
+    @SmallTest
+    public void testDirectionsAreSeparate() {
+        EventDensityEstimator density = new EventDensityEstimator();
+        // 10 rows a day in the future, 1 row every 4 days in the past
+        density.addSample(FUTURE, 30, 300);
+        density.addSample(PAST, 40, 10);
+
+        assertTrue(density.hasEstimate(FUTURE));
+        assertEquals(7, density.predictDays(FUTURE, 50, 7, 180));
+        assertEquals(20, density.predictDays(FUTURE, 200, 7, 180));
+        assertEquals(180, density.predictDays(PAST, 50, 7, 180));
+        assertEquals(120, density.predictDays(PAST, 30, 7, 180));
+    }
+
+    @SmallTest
+    public void testEmptyQueriesLengthenPrediction() {
+        EventDensityEstimator density = new EventDensityEstimator();
+        density.addSample(FUTURE, 10, 50);
+        assertEquals(10, density.predictDays(FUTURE, 50, 7, 180));
+
+        density.addSample(FUTURE, 10, 0);
+        assertEquals(20, density.predictDays(FUTURE, 50, 7, 180));
+
+        density.reset();
+        assertFalse(density.hasEstimate(FUTURE));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+public class AlarmCoalescerTest extends TestCase {
+    private static final long TOLERANCE = 60 * 1000;
+    private static final long NOW = 1000000000L;
+
+    @SmallTest
+    public void testCloseAlarmsShareAWakeup() {
+        AlarmCoalescer alarms = new AlarmCoalescer(null, TOLERANCE);
+        assertEquals(AlarmCoalescer.NONE, alarms.getNextAlarmTime());
+
+        alarms.addAlarm(NOW + 10 * TOLERANCE);
+        alarms.addAlarm(NOW + 40 * 1000);
+        alarms.addAlarm(NOW);
+        alarms.addAlarm(NOW);
+        assertEquals(3, alarms.getAlarmCount());
+
+        // The wakeup is at the latest alarm within the tolerance of the earliest
+        assertEquals(NOW + 40 * 1000, alarms.getNextAlarmTime());
+
+        alarms.removeAlarmsUpTo(NOW + 40 * 1000);
+        assertEquals(NOW + 10 * TOLERANCE, alarms.getNextAlarmTime());
+        alarms.removeAlarmsUpTo(NOW + 10 * TOLERANCE);
+        assertEquals(AlarmCoalescer.NONE, alarms.getNextAlarmTime());
+    }
+
+    @SmallTest
+    public void testRefreshCloseToWakeupIsCovered() {
+        AlarmCoalescer alarms = new AlarmCoalescer(null, TOLERANCE);
+        assertFalse(alarms.coversRefresh(NOW));
+
+        alarms.addAlarms(new long[] { NOW, NOW + 5 * TOLERANCE }, 2);
+        assertTrue(alarms.coversRefresh(NOW - TOLERANCE));
+        assertTrue(alarms.coversRefresh(NOW + TOLERANCE));
+        assertFalse(alarms.coversRefresh(NOW + 2 * TOLERANCE));
+    }
+
+    @SmallTest
+    public void testFiredAlarmIsNoLongerArmed() {
+        AlarmCoalescer alarms = new AlarmCoalescer(null, TOLERANCE);
+        alarms.addAlarm(NOW);
+        alarms.setArmedTime(NOW);
+
+        alarms.removeAlarmsUpTo(NOW - 1);
+        assertEquals(NOW, alarms.getArmedTime());
+        alarms.removeAlarmsUpTo(NOW);
+        assertEquals(AlarmCoalescer.NONE, alarms.getArmedTime());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.CalendarContract;
+import android.provider.CalendarContract.CalendarAlerts;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import com.android.calendar.Benchmark;
+import com.android.calendar.Event;
+import com.android.calendar.SyntheticEvents;
+import com.android.calendar.alerts.AlertService.NotificationInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Benchmarks sorting the fired alerts into notification buckets.
+ *
+ * processQuery() writes the new state of every alert to a provider that
+ * drops the updates and to a ledger in a temporary directory, so the
+ * benchmarks don't change the state of the installed app. Its results
+ * include building the batch of updates and writing the ledger, but not
+ * applying the updates.
+ *
+ * The benchmarks are only measured once enabled, see {@link Benchmark}. You
+ * can then run them with the following command:
+ * "adb shell am instrument -w -e class com.android.calendar.alerts.AlertServiceBenchmark
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ * and read the results with "adb logcat -s CalendarBenchmark".
+ */
+public class AlertServiceBenchmark extends AndroidTestCase {
+    // Keeps the number of provider updates per run reasonable
+    private static final int MAX_ALERTS = 1000;
+    private static final long BASE_ALERT_ID = 1L << 40;
+
+    private MockContentResolver mResolver;
+    private File mLedgerDir;
+    private FiredAlertLedger mLedger;
+
+    /**
+     * Accepts the alert state updates without storing them.
+     */
+    private static class NullCalendarProvider extends MockContentProvider {
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 1;
+        }
+
+        @Override
+        public ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations) {
+            ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new ContentProviderResult(1);
+            }
+            return results;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(CalendarContract.AUTHORITY, new NullCalendarProvider());
+        mLedgerDir = new File(System.getProperty("java.io.tmpdir"),
+                "AlertServiceBenchmark" + System.nanoTime());
+        mLedger = new FiredAlertLedger(mLedgerDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mLedgerDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mLedgerDir.delete();
+        super.tearDown();
+    }
+
+    private static MatrixCursor buildCursor(ArrayList<Event> events) {
+        MatrixCursor cursor = new MatrixCursor(AlertService.ALERT_PROJECTION);
+        int count = Math.min(events.size(), MAX_ALERTS);
+        for (int i = 0; i < count; i++) {
+            Event e = events.get(i);
+            cursor.addRow(new Object[] {
+                    BASE_ALERT_ID + i,
+                    e.id,
+                    i % 4 == 0 ? CalendarAlerts.STATE_SCHEDULED : CalendarAlerts.STATE_FIRED,
+                    e.title,
+                    e.location,
+                    e.selfAttendeeStatus,
+                    e.allDay ? 1 : 0,
+                    e.startMillis - 10 * DateUtils.MINUTE_IN_MILLIS,
+                    10,
+                    e.startMillis,
+                    e.endMillis,
+                    "Description " + e.id,
+            });
+        }
+        return cursor;
+    }
+
+    private static long getNoon(int julianDay) {
+        Time time = new Time();
+        return time.setJulianDay(julianDay) + 12 * DateUtils.HOUR_IN_MILLIS;
+    }
+
+    @LargeTest
+    public void testProcessQuery() {
+        Time now = new Time();
+        now.setToNow();
+        final int today = Time.getJulianDay(now.toMillis(false), now.gmtoff);
+        final long currentTime = getNoon(today);
+
+        for (int scenario : SyntheticEvents.ALL) {
+            ArrayList<Event> events = SyntheticEvents.generate(scenario, today, 1);
+            final MatrixCursor cursor = buildCursor(events);
+            Benchmark.run("processQuery/" + SyntheticEvents.getName(scenario),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            cursor.moveToPosition(-1);
+                            AlertService.processQuery(cursor, mResolver, mLedger,
+                                    currentTime, new ArrayList<NotificationInfo>(),
+                                    new ArrayList<NotificationInfo>(),
+                                    new ArrayList<NotificationInfo>());
+                        }
+                    });
+            cursor.close();
+        }
+    }
+
+    @LargeTest
+    public void testRedistributeBuckets() {
+        Time now = new Time();
+        now.setToNow();
+        final int today = Time.getJulianDay(now.toMillis(false), now.gmtoff);
+        final long currentTime = getNoon(today);
+
+        for (int scenario : SyntheticEvents.ALL) {
+            ArrayList<Event> events = SyntheticEvents.generate(scenario, today, 1);
+            MatrixCursor cursor = buildCursor(events);
+            final ArrayList<NotificationInfo> high = new ArrayList<NotificationInfo>();
+            final ArrayList<NotificationInfo> medium = new ArrayList<NotificationInfo>();
+            final ArrayList<NotificationInfo> low = new ArrayList<NotificationInfo>();
+            AlertService.processQuery(cursor, mResolver, mLedger, currentTime, high, medium,
+                    low);
+            cursor.close();
+
+            // redistributeBuckets() moves events between the lists, so every
+            // run starts from copies of the buckets
+            Benchmark.run("redistributeBuckets/" + SyntheticEvents.getName(scenario),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            AlertService.redistributeBuckets(
+                                    new ArrayList<NotificationInfo>(high),
+                                    new ArrayList<NotificationInfo>(medium),
+                                    new ArrayList<NotificationInfo>(low),
+                                    AlertService.MAX_NOTIFICATIONS);
+                        }
+                    });
+        }
+    }
+}
@@ -22,11 +22,16 @@ import static android.app.Notification.PRIORITY_MIN;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.SharedPreferences;
 import android.database.MatrixCursor;
+import android.provider.CalendarContract;
 import android.provider.CalendarContract.Attendees;
 import android.provider.CalendarContract.CalendarAlerts;
 import android.test.AndroidTestCase;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.test.suitebuilder.annotation.Smoke;
 import android.text.format.DateUtils;
@@ -38,6 +43,7 @@ import com.android.calendar.alerts.AlertService.NotificationWrapper;
 
 import junit.framework.Assert;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
@@ -724,6 +730,59 @@ public class AlertServiceTest extends AndroidTestCase {
         ntm.validateNotificationsAndReset();
     }
 
+    class CountingNotificationManager extends NotificationMgr {
+        NotificationState mState = new NotificationState(AlertService.MAX_NOTIFICATIONS);
+        int mPosted;
+        int mCancelled;
+
+        @Override
+        public void notify(int id, NotificationWrapper nw) {
+            mPosted++;
+        }
+
+        @Override
+        public void cancel(int id) {
+            mCancelled++;
+        }
+
+        @Override
+        public NotificationState getState() {
+            return mState;
+        }
+    }
+
+    @SmallTest
+    public void testGenerateAlerts_skipsUnchangedNotifications() {
+        MockSharedPreferences prefs = new MockSharedPreferences();
+        AlertsTable at = new AlertsTable();
+        CountingNotificationManager nm = new CountingNotificationManager();
+
+        // Alerts that fired a while ago, so they are not new
+        long currentTime = createTimeInMillis(5, 0);
+        at.addAlertRow(2, FIRED, ACCEPTED, 0, createTimeInMillis(8, 0),
+                createTimeInMillis(9, 0), createTimeInMillis(4, 0));
+        at.addAlertRow(1, FIRED, ACCEPTED, 0, createTimeInMillis(7, 0),
+                createTimeInMillis(8, 0), createTimeInMillis(4, 0));
+
+        // Nothing is known at first, so the unused ids are cancelled too
+        AlertService.generateAlerts(mContext, nm, new MockAlarmManager(), prefs,
+                at.getAlertCursor(), currentTime, AlertService.MAX_NOTIFICATIONS);
+        assertEquals(2, nm.mPosted);
+        assertEquals(AlertService.MAX_NOTIFICATIONS - 1, nm.mCancelled);
+
+        nm.mPosted = 0;
+        nm.mCancelled = 0;
+        AlertService.generateAlerts(mContext, nm, new MockAlarmManager(), prefs,
+                at.getAlertCursor(), currentTime, AlertService.MAX_NOTIFICATIONS);
+        assertEquals(0, nm.mPosted);
+        assertEquals(0, nm.mCancelled);
+
+        nm.mState.reset();
+        AlertService.generateAlerts(mContext, nm, new MockAlarmManager(), prefs,
+                at.getAlertCursor(), currentTime, AlertService.MAX_NOTIFICATIONS);
+        assertEquals(2, nm.mPosted);
+    }
+
     private NotificationInfo createNotificationInfo(long eventId) {
         return new NotificationInfo("eventName", "location", "description", 100L, 200L, eventId,
                 false, false);
@@ -801,6 +860,61 @@ public class AlertServiceTest extends AndroidTestCase {
         assertFalse("newAlert should be OFF for fired alerts", highPriority.get(1).newAlert);
     }
 
+    /**
+     * Test that alerts sharing a coalesced wakeup still ring when another
+     * calendar app already marked them as fired, although the first one goes
+     * off up to the coalescing tolerance late.
+     */
+    @SmallTest
+    public void testProcessQuery_coalescedAlertsRing() {
+        long tolerance = AlertUtils.ALARM_COALESCING_TOLERANCE_MS;
+        long firstAlarmTime = createTimeInMillis(9, 0);
+        long secondAlarmTime = firstAlarmTime + tolerance;
+        AlarmCoalescer alarms = new AlarmCoalescer(null, tolerance);
+        alarms.addAlarm(firstAlarmTime);
+        alarms.addAlarm(secondAlarmTime);
+        assertEquals(secondAlarmTime, alarms.getNextAlarmTime());
+
+        AlertsTable at = new AlertsTable();
+        at.addAlertRow(1, FIRED, ACCEPTED, 0, firstAlarmTime + 10 * DateUtils.MINUTE_IN_MILLIS,
+                createTimeInMillis(10, 0), firstAlarmTime);
+        at.addAlertRow(2, FIRED, ACCEPTED, 0, secondAlarmTime + 10 * DateUtils.MINUTE_IN_MILLIS,
+                createTimeInMillis(10, 0), secondAlarmTime);
+
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(CalendarContract.AUTHORITY, new MockContentProvider() {
+            @Override
+            public ContentProviderResult[] applyBatch(
+                    ArrayList<ContentProviderOperation> operations) {
+                return new ContentProviderResult[operations.size()];
+            }
+        });
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                "AlertServiceTest" + System.nanoTime());
+        ArrayList<NotificationInfo> highPriority = new ArrayList<NotificationInfo>();
+        ArrayList<NotificationInfo> mediumPriority = new ArrayList<NotificationInfo>();
+        ArrayList<NotificationInfo> lowPriority = new ArrayList<NotificationInfo>();
+        // The wakeup is delivered a few seconds late
+        long currentTime = alarms.getNextAlarmTime() + 5 * DateUtils.SECOND_IN_MILLIS;
+        try {
+            int numFired = AlertService.processQuery(at.getAlertCursor(), resolver,
+                    new FiredAlertLedger(dir), currentTime, highPriority, mediumPriority,
+                    lowPriority);
+            assertEquals(2, numFired);
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+        assertEquals(2, highPriority.size());
+        assertTrue(highPriority.get(0).newAlert);
+        assertTrue(highPriority.get(1).newAlert);
+    }
+
     @SmallTest
     public void testProcessQuery_recurringEvent() {
         int eventId = 1;
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.calendar.alerts;
+
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class FiredAlertLedgerTest extends TestCase {
+    private static final long DAY = DateUtils.DAY_IN_MILLIS;
+    private static final long NOW = 15000 * DAY + 12 * DateUtils.HOUR_IN_MILLIS;
+
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(System.getProperty("java.io.tmpdir"),
+                "FiredAlertLedgerTest" + System.nanoTime());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testFiredAlertsAreKeptAcrossInstances() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mDir);
+        assertFalse(ledger.hasFired(1, NOW, NOW - 10));
+
+        // Enough alerts to grow the hash table a few times
+        for (int i = 0; i < 100; i++) {
+            ledger.setFired(i, NOW + i, NOW - i);
+        }
+        ledger.setFired(1, NOW + 1, NOW - 1);
+        assertTrue(ledger.hasFired(1, NOW + 1, NOW - 1));
+        assertFalse(ledger.hasFired(1, NOW + 1, NOW - 2));
+
+        FiredAlertLedger reloaded = new FiredAlertLedger(mDir);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(reloaded.hasFired(i, NOW + i, NOW - i));
+        }
+        assertFalse(reloaded.hasFired(100, NOW + 100, NOW - 100));
+    }
+
+    @SmallTest
+    public void testExpireDropsOldDays() {
+        FiredAlertLedger ledger = new FiredAlertLedger(mDir);
+        ledger.setFired(1, NOW, NOW - 2 * DAY);
+        ledger.setFired(2, NOW, NOW - DAY);
+        ledger.setFired(3, NOW, NOW);
+        assertEquals(3, ledger.getDayCount());
+
+        ledger.expire(NOW - DAY);
+        assertFalse(ledger.hasFired(1, NOW, NOW - 2 * DAY));
+        assertTrue(ledger.hasFired(2, NOW, NOW - DAY));
+        assertTrue(ledger.hasFired(3, NOW, NOW));
+        assertEquals(2, new FiredAlertLedger(mDir).getDayCount());
+    }
+
+    @SmallTest
+    public void testTruncatedRecordIsIgnored() throws IOException {
+        FiredAlertLedger ledger = new FiredAlertLedger(mDir);
+        ledger.setFired(1, NOW, NOW);
+
+        File file = mDir.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        FiredAlertLedger reloaded = new FiredAlertLedger(mDir);
+        assertTrue(reloaded.hasFired(1, NOW, NOW));
+        assertEquals(1, reloaded.getDayCount());
+    }
+}
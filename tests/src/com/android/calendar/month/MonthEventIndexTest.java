@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.calendar.Event;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MonthEventIndex}.
+ */
+public class MonthEventIndexTest extends TestCase {
+    private static final int FIRST_DAY = 2456000;
+    private static final int NUM_DAYS = 14;
+
+    private static Event makeEvent(long id, int startDay, int endDay) {
+        Event e = Event.newInstance();
+        e.id = id;
+        e.startDay = startDay;
+        e.endDay = endDay;
+        return e;
+    }
+
+    /**
+     * Buckets the events into one list per day the way the month adapter used
+     * to, which the index has to match.
+     */
+    private static ArrayList<ArrayList<Event>> bucket(ArrayList<Event> events) {
+        ArrayList<ArrayList<Event>> days = new ArrayList<ArrayList<Event>>();
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days.add(new ArrayList<Event>());
+        }
+        for (Event e : events) {
+            int start = Math.max(e.startDay - FIRST_DAY, 0);
+            int end = Math.min(e.endDay - FIRST_DAY, NUM_DAYS - 1);
+            for (int day = start; day <= end; day++) {
+                days.get(day).add(e);
+            }
+        }
+        return days;
+    }
+
+    @SmallTest
+    public void testMatchesPerDayLists() {
+        ArrayList<Event> events = new ArrayList<Event>();
+        events.add(makeEvent(1, FIRST_DAY - 5, FIRST_DAY + 2));
+        events.add(makeEvent(2, FIRST_DAY, FIRST_DAY));
+        events.add(makeEvent(3, FIRST_DAY + 1, FIRST_DAY + 1));
+        events.add(makeEvent(4, FIRST_DAY + 1, FIRST_DAY + 30));
+        events.add(makeEvent(5, FIRST_DAY + 1, FIRST_DAY + 1));
+        events.add(makeEvent(6, FIRST_DAY + 3, FIRST_DAY + 4));
+        events.add(makeEvent(7, FIRST_DAY + NUM_DAYS - 1, FIRST_DAY + NUM_DAYS - 1));
+        events.add(makeEvent(8, FIRST_DAY - 3, FIRST_DAY - 1));
+        events.add(makeEvent(9, FIRST_DAY + NUM_DAYS, FIRST_DAY + NUM_DAYS + 2));
+
+        MonthEventIndex index = new MonthEventIndex(FIRST_DAY, NUM_DAYS, events);
+        ArrayList<ArrayList<Event>> expected = bucket(events);
+        ArrayList<Event> actual = new ArrayList<Event>();
+        for (int day = 0; day < NUM_DAYS; day++) {
+            assertEquals(expected.get(day).size(), index.getEvents(FIRST_DAY + day, actual));
+            assertEquals("Day " + day, expected.get(day), actual);
+            assertEquals(expected.get(day).size(), index.getEventCount(FIRST_DAY + day));
+        }
+        assertEquals(0, index.getEvents(FIRST_DAY - 1, actual));
+        assertEquals(0, index.getEvents(FIRST_DAY + NUM_DAYS, actual));
+    }
+
+    @SmallTest
+    public void testCovers() {
+        MonthEventIndex index = new MonthEventIndex(FIRST_DAY, NUM_DAYS, null);
+        assertTrue(index.covers(FIRST_DAY, 7));
+        assertTrue(index.covers(FIRST_DAY + 7, 7));
+        assertFalse(index.covers(FIRST_DAY - 1, 7));
+        assertFalse(index.covers(FIRST_DAY + 8, 7));
+        assertEquals(0, index.getEventCount(FIRST_DAY));
+    }
+}
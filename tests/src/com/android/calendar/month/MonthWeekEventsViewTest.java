@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.month;
+
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.text.format.Time;
+
+/**
+ * Unit tests for recycling a {@link MonthWeekEventsView} with
+ * {@link WeekParams}.
+ */
+public class MonthWeekEventsViewTest extends AndroidTestCase {
+    private static final int FIRST_WEEK = 2200;
+    private static final int NUM_BINDS = 50;
+
+    private static void fillParams(WeekParams params, int week) {
+        params.clear();
+        params.height = 100;
+        params.week = week;
+        params.selectedDay = -1;
+        params.showWeekNumber = 0;
+        params.weekStart = Time.SUNDAY;
+        params.numDays = 7;
+        params.focusMonth = 5;
+        params.orientation = Configuration.ORIENTATION_PORTRAIT;
+    }
+
+    @MediumTest
+    public void testSetWeekParams() {
+        MonthWeekEventsView view = new MonthWeekEventsView(getContext());
+        WeekParams params = new WeekParams();
+        fillParams(params, FIRST_WEEK);
+        view.setWeekParams(params, Time.getCurrentTimezone());
+
+        assertSame(params, view.getTag());
+        assertEquals(FIRST_WEEK, view.mWeek);
+        assertEquals(7, view.mNumDays);
+        assertEquals(100, view.mHeight);
+        assertFalse(view.mShowWeekNum);
+    }
+
+    @MediumTest
+    public void testRecyclingDoesNotAllocate() {
+        MonthWeekEventsView view = new MonthWeekEventsView(getContext());
+        WeekParams params = new WeekParams();
+        String timeZone = Time.getCurrentTimezone();
+        // The first bind allocates the per-week arrays
+        fillParams(params, FIRST_WEEK);
+        view.setWeekParams(params, timeZone);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 1; i <= NUM_BINDS; i++) {
+            fillParams(params, FIRST_WEEK + i);
+            view.setWeekParams(params, timeZone);
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        // Allow for the odd allocation in the framework, but not one per bind
+        assertTrue("Rebinding " + NUM_BINDS + " weeks made " + allocations + " allocations",
+                allocations < NUM_BINDS);
+    }
+}
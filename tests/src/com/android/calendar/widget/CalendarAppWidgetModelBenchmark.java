@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.calendar.widget;
+
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_ALL_DAY;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_BEGIN;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_COLOR;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_END;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_END_DAY;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_EVENT_ID;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_EVENT_LOCATION;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_SELF_ATTENDEE_STATUS;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_START_DAY;
+import static com.android.calendar.widget.CalendarAppWidgetService.INDEX_TITLE;
+
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.Time;
+
+import com.android.calendar.Benchmark;
+import com.android.calendar.Event;
+import com.android.calendar.SyntheticEvents;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks building the widget model from an instances cursor.
+ *
+ * The benchmarks are only measured once enabled, see {@link Benchmark}. You
+ * can then run them with the following command:
+ * "adb shell am instrument -w -e class
+ *          com.android.calendar.widget.CalendarAppWidgetModelBenchmark
+ *          com.android.calendar.tests/android.test.InstrumentationTestRunner"
+ * and read the results with "adb logcat -s CalendarBenchmark".
+ */
+public class CalendarAppWidgetModelBenchmark extends AndroidTestCase {
+
+    private static MatrixCursor buildCursor(ArrayList<Event> events) {
+        String[] projection = CalendarAppWidgetService.EVENT_PROJECTION;
+        MatrixCursor cursor = new MatrixCursor(projection, events.size());
+        for (Event e : events) {
+            Object[] row = new Object[projection.length];
+            row[INDEX_ALL_DAY] = e.allDay ? 1 : 0;
+            row[INDEX_BEGIN] = e.startMillis;
+            row[INDEX_END] = e.endMillis;
+            row[INDEX_TITLE] = e.title;
+            row[INDEX_EVENT_LOCATION] = e.location;
+            row[INDEX_EVENT_ID] = e.id;
+            row[INDEX_START_DAY] = e.startDay;
+            row[INDEX_END_DAY] = e.endDay;
+            row[INDEX_COLOR] = e.color;
+            row[INDEX_SELF_ATTENDEE_STATUS] = e.selfAttendeeStatus;
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    @LargeTest
+    public void testBuildFromCursor() {
+        final String timeZone = Time.getCurrentTimezone();
+        Time now = new Time(timeZone);
+        now.setToNow();
+        int today = Time.getJulianDay(now.toMillis(false), now.gmtoff);
+
+        for (int scenario : SyntheticEvents.ALL) {
+            ArrayList<Event> events = SyntheticEvents.generate(scenario, today,
+                    CalendarAppWidgetService.MAX_DAYS);
+            final MatrixCursor cursor = buildCursor(events);
+            Benchmark.run("buildFromCursor/" + SyntheticEvents.getName(scenario),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            CalendarAppWidgetModel model = new CalendarAppWidgetModel(
+                                    getContext(), timeZone);
+                            model.buildFromCursor(cursor, timeZone);
+                        }
+                    });
+            cursor.close();
+        }
+    }
+}